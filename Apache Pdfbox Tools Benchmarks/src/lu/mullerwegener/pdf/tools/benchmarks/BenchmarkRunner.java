@@ -0,0 +1,35 @@
+package lu.mullerwegener.pdf.tools.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Run the benchmarks with the GC profiler, which gives the allocation rate and the bytes allocated by operation,
+ * and write the scores in results.txt, to be compared with baseline.txt.
+ * The argument, if any, is a regular expression selecting the benchmarks, for example TableBenchmark.
+ * The annotation processor of JMH must be enabled for the project, see .factorypath.
+ * @author paquet
+ *
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(args.length > 0 ? args[0] : BenchmarkRunner.class.getPackage().getName() + ".*")
+				.addProfiler(GCProfiler.class)
+				.forks(1)
+				.warmupIterations(3)
+				.warmupTime(TimeValue.seconds(1))
+				.measurementIterations(5)
+				.measurementTime(TimeValue.seconds(1))
+				.resultFormat(ResultFormatType.TEXT)
+				.result("results.txt")
+				.build();
+		new Runner(options).run();
+	}
+}
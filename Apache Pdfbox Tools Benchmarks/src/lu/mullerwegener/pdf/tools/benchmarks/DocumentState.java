@@ -0,0 +1,64 @@
+package lu.mullerwegener.pdf.tools.benchmarks;
+
+import java.io.IOException;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import lu.mullerwegener.pdf.tools.PdfTools;
+
+/**
+ * A document and its PdfTools for each thread, created again for each iteration.
+ * The benchmarks draw on a new page with {@link #newPage()} and remove it with {@link #endPage(PDPageContentStream)},
+ * so the document does not grow during the iteration.
+ * @author paquet
+ *
+ */
+@State(Scope.Thread)
+public class DocumentState {
+	PDDocument doc;
+	PdfTools pdft;
+	private PDPage page;
+
+	@Setup(Level.Iteration)
+	public void open() {
+		doc = new PDDocument();
+		pdft = new PdfTools(doc);
+	}
+
+	@TearDown(Level.Iteration)
+	public void close() throws IOException {
+		doc.close();
+	}
+
+	/**
+	 * Add an A4 page to the document and create its content, with Helvetica 10.
+	 * @return					the content of the page.
+	 * @throws IOException		when the content cannot be created.
+	 */
+	public PDPageContentStream newPage() throws IOException {
+		page = new PDPage(PDRectangle.A4);
+		pdft.addPage(page, "");
+		PDPageContentStream contents = pdft.createContentStream(page);
+		pdft.setFont(contents, PDType1Font.HELVETICA, 10);
+		return contents;
+	}
+
+	/**
+	 * Close the content of the page and remove the page from the document.
+	 * @param contents			the content of the page.
+	 * @throws IOException		when the content cannot be closed.
+	 */
+	public void endPage(PDPageContentStream contents) throws IOException {
+		contents.close();
+		doc.removePage(page);
+	}
+}
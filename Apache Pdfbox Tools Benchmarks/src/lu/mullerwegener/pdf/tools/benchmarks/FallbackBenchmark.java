@@ -0,0 +1,107 @@
+package lu.mullerwegener.pdf.tools.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import lu.mullerwegener.pdf.tools.PdfFontFallback;
+import lu.mullerwegener.pdf.tools.PdfFontProgram;
+
+/**
+ * The cells of a table written in Helvetica with an embedded fallback font, see {@link lu.mullerwegener.pdf.tools.PdfTools#setFallbackFonts(PDFont...)}.
+ * One name out of four is written in Greek, or none. The fonts of the characters are chosen with the tables of bits of the fonts,
+ * or by encoding each character with the fonts until one does not throw. The score is for one cell.
+ * @author paquet
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FallbackBenchmark {
+	private static final int CELLS = 50;
+	private static final String[] NAMES = {"Jean Dupont", "Anne M\u00fcller", "Luc Schmit", "\u039c\u03b1\u03c1\u03af\u03b1 \u03a0\u03b1\u03c0\u03b1\u03b4\u03bf\u03c0\u03bf\u03cd\u03bb\u03bf\u03c5"};
+
+	@Param({"/usr/share/fonts/truetype/dejavu/DejaVuSans.ttf"})
+	String fontFile;
+
+	private PdfFontProgram program;
+
+	@Setup(Level.Trial)
+	public void load() throws IOException {
+		program = PdfFontProgram.load(fontFile);
+	}
+
+	private void write(DocumentState state, int names) throws IOException {
+		state.pdft.setFallbackFonts(state.pdft.getFont(program));
+		PDPageContentStream contents = state.newPage();
+		state.pdft.beginTextBatch(contents);
+		for(int i = 0; i < CELLS; i++)
+			state.pdft.addText(contents, 50, 800 - i * 14, NAMES[i % names] + ", facture " + i);
+		state.pdft.endTextBatch(contents);
+		state.endPage(contents);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CELLS)
+	public void latin(DocumentState state) throws IOException {
+		write(state, 3);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CELLS)
+	public void mixed(DocumentState state) throws IOException {
+		write(state, NAMES.length);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CELLS)
+	public int splitWithCoverage(DocumentState state) throws IOException {
+		PdfFontFallback fallback = new PdfFontFallback(state.pdft.getFont(program));
+		int runs = 0;
+		for(int i = 0; i < CELLS; i++)
+			runs += fallback.split(PDType1Font.HELVETICA, NAMES[i % NAMES.length] + ", facture " + i).size();
+		return runs;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CELLS)
+	public int splitByEncoding(DocumentState state) throws IOException {
+		PDFont[] fonts = {PDType1Font.HELVETICA, state.pdft.getFont(program)};
+		int runs = 0;
+		for(int i = 0; i < CELLS; i++){
+			String text = NAMES[i % NAMES.length] + ", facture " + i;
+			int current = -1;
+			int c = 0;
+			while(c < text.length()){
+				int codePoint = text.codePointAt(c);
+				c += Character.charCount(codePoint);
+				String character = new String(Character.toChars(codePoint));
+				for(int f = 0; f < fonts.length; f++){
+					try{
+						fonts[f].encode(character);
+					}catch(IllegalArgumentException e){
+						continue;
+					}
+					if(f != current)
+						runs++;
+					current = f;
+					break;
+				}
+			}
+		}
+		return runs;
+	}
+}
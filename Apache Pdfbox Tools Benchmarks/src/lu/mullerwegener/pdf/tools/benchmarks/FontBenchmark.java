@@ -0,0 +1,90 @@
+package lu.mullerwegener.pdf.tools.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import lu.mullerwegener.pdf.tools.PdfFontProgram;
+import lu.mullerwegener.pdf.tools.PdfTools;
+import lu.mullerwegener.pdf.tools.PdfToolsFactory;
+
+/**
+ * Documents of one page written with an embedded TrueType font, subset when saved.
+ * The font comes from the program shared by all the documents, or is loaded from its file by PDFBox for each document.
+ * The score is for one saved document.
+ * @author paquet
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FontBenchmark {
+	private static final int LINES = 50;
+
+	@Param({"/usr/share/fonts/truetype/dejavu/DejaVuSans.ttf"})
+	String fontFile;
+
+	private PdfToolsFactory factory;
+	private ByteArrayOutputStream out;
+
+	@Setup(Level.Trial)
+	public void load() throws IOException {
+		factory = new PdfToolsFactory().withFont(PdfFontProgram.load(fontFile), 10);
+		out = new ByteArrayOutputStream();
+	}
+
+	private int write(PdfTools pdft, PDFont font) throws IOException {
+		PDDocument doc = pdft.getDocument();
+		PDPage page = new PDPage(PDRectangle.A4);
+		pdft.addPage(page, "");
+		PDPageContentStream contents = pdft.createContentStream(page);
+		pdft.setFont(contents, font, 10);
+		pdft.beginTextBatch(contents);
+		for(int i = 0; i < LINES; i++)
+			pdft.addText(contents, 50, 800 - i * 14, "Ligne " + i + " de la facture, montant " + i * 12 + " EUR");
+		pdft.endTextBatch(contents);
+		contents.close();
+		out.reset();
+		doc.save(out);
+		return out.size();
+	}
+
+	@Benchmark
+	public int program() throws IOException {
+		// the same memory settings as PDFBox, to compare only the font
+		PdfTools pdft = factory.create(new PDDocument(MemoryUsageSetting.setupMixed(4L << 20)));
+		try{
+			return write(pdft, pdft.getLastUsedFont());
+		}finally{
+			pdft.getDocument().close();
+		}
+	}
+
+	@Benchmark
+	public int loadFile() throws IOException {
+		PDDocument doc = new PDDocument(MemoryUsageSetting.setupMixed(4L << 20));
+		try{
+			return write(factory.create(doc), PDType0Font.load(doc, new File(fontFile)));
+		}finally{
+			doc.close();
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package lu.mullerwegener.pdf.tools.benchmarks;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The same image file drawn again and again, like a logo on each page. The score is for one image.
+ * @author paquet
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ImageBenchmark {
+	private static final int IMAGES = 10;
+
+	private File file;
+
+	@Setup(Level.Trial)
+	public void createImage() throws IOException {
+		BufferedImage image = new BufferedImage(400, 200, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.white);
+		g.fillRect(0, 0, 400, 200);
+		g.setColor(Color.blue);
+		g.fillOval(20, 20, 360, 160);
+		g.dispose();
+		file = File.createTempFile("logo", ".png");
+		ImageIO.write(image, "png", file);
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteImage() {
+		file.delete();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(IMAGES)
+	public void drawImage(DocumentState state) throws IOException {
+		PDPageContentStream contents = state.newPage();
+		for(int i = 0; i < IMAGES; i++)
+			state.pdft.drawImage(contents, file.getPath(), 40, 800 - i * 70, 120, 60);
+		state.endPage(contents);
+	}
+}
@@ -0,0 +1,58 @@
+package lu.mullerwegener.pdf.tools.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import lu.mullerwegener.pdf.tools.PdfNumberFormat;
+import lu.mullerwegener.pdf.tools.PdfTools;
+
+/**
+ * The formatting of amounts with {@link PdfTools#round(float, int, boolean)}, which creates a String, 
+ * and with a {@link PdfNumberFormat} writing in its buffer. The score is for one amount.
+ * @author paquet
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RoundBenchmark {
+	private static final int VALUES = 1024;
+
+	private float[] values;
+	private PdfNumberFormat format;
+
+	@Setup(Level.Trial)
+	public void build() {
+		Random random = new Random(42);
+		values = new float[VALUES];
+		format = new PdfNumberFormat(2);
+		format.setBlankIfZero(true);
+		for(int i = 0; i < VALUES; i++)
+			values[i] = i % 16 == 0 ? 0 : random.nextInt(10000000) / 100f;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(VALUES)
+	public void round(Blackhole bh) {
+		for(int i = 0; i < VALUES; i++)
+			bh.consume(PdfTools.round(values[i], 2, false));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(VALUES)
+	public void format(Blackhole bh) {
+		for(int i = 0; i < VALUES; i++)
+			bh.consume(format.format(values[i]).length());
+	}
+}
@@ -0,0 +1,101 @@
+package lu.mullerwegener.pdf.tools.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import lu.mullerwegener.pdf.tools.PdfTools;
+import lu.mullerwegener.pdf.tools.PdfToolsFactory;
+import lu.mullerwegener.pdf.tools.SectionPage;
+import lu.mullerwegener.pdf.tools.pdftable.PdfRow;
+import lu.mullerwegener.pdf.tools.pdftable.PdfTable;
+import lu.mullerwegener.pdf.tools.pdftable.PdfTableCursor;
+import lu.mullerwegener.pdf.tools.pdftable.PdfTablePaginator;
+
+/**
+ * A whole report, from the new document to the bytes saved: a header on each page, a table of amounts and the total number of pages.
+ * The bytes are thrown away, the score is for the whole report.
+ * @author paquet
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SaveBenchmark {
+	@Param({"10", "100"})
+	int pages;
+
+	private PdfTable table;
+	private SectionPage header;
+	private PdfToolsFactory factory;
+
+	@Setup(Level.Trial)
+	public void build() {
+		factory = new PdfToolsFactory();
+		header = new SectionPage();
+		header.addUnderline(40, 820, "Monthly report");
+		header.add(40, 806, "Muller & Wegener");
+		table = new PdfTable(40, 780);
+		int rows = pages * 44;
+		for(int i = 0; i < rows; i++){
+			PdfRow row = table.addRow(16);
+			row.addCell(200, "Client " + i);
+			row.addCell(100, PdfTools.round(i * 13.7f, 2, true));
+			row.addCell(100, PdfTools.round(i * 0.21f, 2, true));
+			row.addCell(115, PdfTools.round(i * 13.91f, 2, true));
+			row.showAllBorders();
+		}
+	}
+
+	@Benchmark
+	public long save() throws IOException {
+		PDDocument doc = new PDDocument();
+		try{
+			final PdfTools pdft = factory.create(doc);
+			PdfTablePaginator paginator = new PdfTablePaginator(pdft);
+			paginator.setDecorator(new PdfTablePaginator.PageDecorator() {
+				@Override
+				public void decorate(PdfTools ppdft, PDPageContentStream contents, int pageNumber) throws IOException {
+					header.draw(ppdft, contents);
+					ppdft.addPageNumberOfTotal(contents, 480, 20, "Page " + pageNumber + " / ");
+				}
+			});
+			paginator.paginate(new PdfTableCursor(table));
+			pdft.resolveDeferredFields();
+			NullOutputStream out = new NullOutputStream();
+			doc.save(out);
+			return out.count;
+		}finally{
+			doc.close();
+		}
+	}
+
+	/**
+	 * Count the bytes and forget them.
+	 */
+	private static class NullOutputStream extends OutputStream {
+		long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}
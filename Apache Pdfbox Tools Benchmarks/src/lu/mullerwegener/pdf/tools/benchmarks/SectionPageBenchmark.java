@@ -0,0 +1,51 @@
+package lu.mullerwegener.pdf.tools.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import lu.mullerwegener.pdf.tools.SectionPage;
+
+/**
+ * A header with static elements and a dynamic one, drawn on a new page. The score is for one page.
+ * @author paquet
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SectionPageBenchmark {
+	@Param({"5", "50"})
+	int elements;
+
+	private SectionPage section;
+
+	@Setup(Level.Trial)
+	public void build() {
+		section = new SectionPage();
+		for(int i = 0; i < elements; i++){
+			if(i % 5 == 0)
+				section.addUnderline(40, 820 - i * 12, "Title " + i);
+			else
+				section.add(40 + (i % 5) * 100, 820 - i * 12, "Element " + i);
+		}
+		section.addDynamic(480, 820, "Page 1");
+	}
+
+	@Benchmark
+	public void draw(DocumentState state) throws IOException {
+		PDPageContentStream contents = state.newPage();
+		section.draw(state.pdft, contents);
+		state.endPage(contents);
+	}
+}
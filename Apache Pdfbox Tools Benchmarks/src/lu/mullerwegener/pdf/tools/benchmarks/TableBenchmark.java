@@ -0,0 +1,114 @@
+package lu.mullerwegener.pdf.tools.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import lu.mullerwegener.pdf.tools.PdfTools;
+import lu.mullerwegener.pdf.tools.PdfToolsFactory;
+import lu.mullerwegener.pdf.tools.pdftable.PdfBorder;
+import lu.mullerwegener.pdf.tools.pdftable.PdfLayoutPlan;
+import lu.mullerwegener.pdf.tools.pdftable.PdfRow;
+import lu.mullerwegener.pdf.tools.pdftable.PdfTable;
+import lu.mullerwegener.pdf.tools.pdftable.PdfTableCursor;
+import lu.mullerwegener.pdf.tools.pdftable.PdfTablePaginator;
+
+/**
+ * A table drawn on as many pages as needed, in a new document.
+ * The table is built once and drawn with a cursor, the score is for the whole table.
+ * The layout of the table alone and the writing of a plan laid out once are measured too.
+ * @author paquet
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TableBenchmark {
+	@Param({"10", "100", "1000"})
+	int rows;
+
+	@Param({"4", "12"})
+	int columns;
+
+	/**
+	 * all: the four borders of each cell, none: no border, horizontal: the top and bottom borders only.
+	 */
+	@Param({"all", "none", "horizontal"})
+	String borders;
+
+	private PdfTable table;
+	private PdfToolsFactory factory;
+	private PdfLayoutPlan plan;
+
+	@Setup(Level.Trial)
+	public void build() throws IOException {
+		factory = new PdfToolsFactory();
+		table = new PdfTable(40, 800);
+		float width = 515f / columns;
+		for(int i = 0; i < rows; i++){
+			PdfRow row = table.addRow(16);
+			for(int c = 0; c < columns; c++)
+				row.addCell(width, c == 0 ? "Client " + i : Integer.toString(i * columns + c));
+			if(borders.equals("all")){
+				row.showAllBorders();
+			}else if(borders.equals("none")){
+				row.hideAllBorders();
+			}else{
+				row.hideAllBorders();
+				row.showBorder(PdfBorder.BORDER_TOP);
+				row.showBorder(PdfBorder.BORDER_BOTTOM);
+			}
+		}
+		plan = layout();
+	}
+
+	@Benchmark
+	public int drawTable() throws IOException {
+		PDDocument doc = new PDDocument();
+		try{
+			PdfTablePaginator paginator = new PdfTablePaginator(factory.create(doc));
+			return paginator.paginate(new PdfTableCursor(table));
+		}finally{
+			doc.close();
+		}
+	}
+
+	@Benchmark
+	public PdfLayoutPlan layout() throws IOException {
+		return PdfLayoutPlan.layout(table, PDType1Font.HELVETICA, 10, 60, Float.NaN);
+	}
+
+	@Benchmark
+	public int emitPlan() throws IOException {
+		PDDocument doc = new PDDocument();
+		try{
+			PdfTools pdft = factory.create(doc);
+			for(int i = 0; i < plan.getNumberOfPages(); i++){
+				PDPage page = new PDPage();
+				pdft.addPage(page, "");
+				PDPageContentStream contents = pdft.createContentStream(page);
+				try{
+					plan.drawPage(pdft, contents, i, i + 1);
+				}finally{
+					contents.close();
+				}
+			}
+			return plan.getNumberOfPages();
+		}finally{
+			doc.close();
+		}
+	}
+}
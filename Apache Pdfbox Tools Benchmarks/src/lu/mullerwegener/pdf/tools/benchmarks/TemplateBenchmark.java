@@ -0,0 +1,132 @@
+package lu.mullerwegener.pdf.tools.benchmarks;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import lu.mullerwegener.pdf.tools.PdfTemplate;
+import lu.mullerwegener.pdf.tools.PdfTools;
+import lu.mullerwegener.pdf.tools.PdfToolsFactory;
+import lu.mullerwegener.pdf.tools.SectionPage;
+
+/**
+ * Documents of one page with a logo, a header and the lines of a form, and the values of a record.
+ * The page is stamped from a template, or drawn entirely as without template. The score is for one saved document.
+ * @author paquet
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TemplateBenchmark {
+	private static final int LINES = 50;
+
+	@Param({"50", "200"})
+	int fields;
+
+	private File logo;
+	private SectionPage header;
+	private PdfToolsFactory factory;
+	private PdfTemplate template;
+	private Map<String, String> values;
+	private ByteArrayOutputStream out;
+
+	@Setup(Level.Trial)
+	public void build() throws IOException {
+		BufferedImage image = new BufferedImage(400, 200, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.white);
+		g.fillRect(0, 0, 400, 200);
+		g.setColor(Color.blue);
+		g.fillOval(20, 20, 360, 160);
+		g.dispose();
+		logo = File.createTempFile("logo", ".png");
+		ImageIO.write(image, "png", logo);
+		header = new SectionPage();
+		for(int i = 0; i < 30; i++)
+			header.add(40 + (i % 3) * 120, 820 - (i / 3) * 12, "Label " + i);
+		factory = new PdfToolsFactory();
+		template = PdfTemplate.compile(factory, PDRectangle.A4, new PdfTemplate.StaticContent() {
+			@Override
+			public void draw(PdfTools pdft, PDPageContentStream contents) throws IOException {
+				drawStatic(pdft, contents);
+			}
+		});
+		values = new HashMap<String, String>();
+		for(int i = 0; i < fields; i++){
+			template = template.withField("field" + i, 45 + (i % 4) * 130, fieldPosY(i));
+			values.put("field" + i, "Value " + i);
+		}
+		out = new ByteArrayOutputStream();
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteImage() {
+		logo.delete();
+	}
+
+	private void drawStatic(PdfTools pdft, PDPageContentStream contents) throws IOException {
+		pdft.drawImage(contents, logo.getPath(), 440, 760, 120, 60);
+		header.draw(pdft, contents);
+		for(int i = 0; i < LINES; i++)
+			pdft.drawLine(contents, 40, 700 - i * 12, 560, 700 - i * 12);
+	}
+
+	private static float fieldPosY(int index) {
+		return 690 - (index / 4) * 12;
+	}
+
+	@Benchmark
+	public int stamp() throws IOException {
+		out.reset();
+		template.stamp(factory, values, out);
+		return out.size();
+	}
+
+	@Benchmark
+	public int draw() throws IOException {
+		out.reset();
+		// the same memory settings as the template, to compare only the drawing
+		PDDocument doc = new PDDocument(MemoryUsageSetting.setupMixed(4L << 20));
+		try{
+			PdfTools pdft = factory.create(doc);
+			PDPage page = new PDPage(PDRectangle.A4);
+			pdft.addPage(page, "");
+			PDPageContentStream contents = pdft.createContentStream(page);
+			drawStatic(pdft, contents);
+			pdft.beginTextBatch(contents);
+			for(int i = 0; i < fields; i++)
+				pdft.addText(contents, 45 + (i % 4) * 130, fieldPosY(i), values.get("field" + i));
+			pdft.endTextBatch(contents);
+			contents.close();
+			doc.save(out);
+		}finally{
+			doc.close();
+		}
+		return out.size();
+	}
+}
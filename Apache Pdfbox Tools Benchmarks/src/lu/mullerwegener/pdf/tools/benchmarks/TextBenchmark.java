@@ -0,0 +1,59 @@
+package lu.mullerwegener.pdf.tools.benchmarks;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+/**
+ * The texts and lines drawn by PdfTools. Each invocation fills a page, the score is for one text or line.
+ * @author paquet
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TextBenchmark {
+	private static final int LINES = 50;
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public void addText(DocumentState state) throws IOException {
+		PDPageContentStream contents = state.newPage();
+		for(int i = 0; i < LINES; i++)
+			state.pdft.addText(contents, 50, 800 - i * 14, "Line " + i + " of the invoice");
+		state.endPage(contents);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public void addTextCentered(DocumentState state) throws IOException {
+		PDPageContentStream contents = state.newPage();
+		for(int i = 0; i < LINES; i++)
+			state.pdft.addTextCentered(contents, 800 - i * 14, "Line " + i + " of the invoice");
+		state.endPage(contents);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public void addTextRightAligned(DocumentState state) throws IOException {
+		PDPageContentStream contents = state.newPage();
+		for(int i = 0; i < LINES; i++)
+			state.pdft.addTextRightAligned(contents, 800 - i * 14, 545, "Line " + i + " of the invoice");
+		state.endPage(contents);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public void drawLine(DocumentState state) throws IOException {
+		PDPageContentStream contents = state.newPage();
+		for(int i = 0; i < LINES; i++)
+			state.pdft.drawLine(contents, 50, 800 - i * 14, 545, 800 - i * 14, 0.5f, Color.black);
+		state.endPage(contents);
+	}
+}
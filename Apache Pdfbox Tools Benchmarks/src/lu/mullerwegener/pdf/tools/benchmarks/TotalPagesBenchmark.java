@@ -0,0 +1,70 @@
+package lu.mullerwegener.pdf.tools.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDPageContentStream.AppendMode;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import lu.mullerwegener.pdf.tools.PdfTools;
+
+/**
+ * The total number of pages written on each page of a large document, 
+ * with the old method which adds a content stream to each page and with a deferred field.
+ * The document is created again before each invocation, the score is for the whole document.
+ * @author paquet
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TotalPagesBenchmark {
+	@Param({"100", "1000"})
+	int pages;
+
+	private PDDocument doc;
+	private PdfTools pdft;
+
+	@Setup(Level.Invocation)
+	public void open() throws IOException {
+		doc = new PDDocument();
+		pdft = new PdfTools(doc);
+		for(int i = 0; i < pages; i++)
+			pdft.addPage(new PDPage(PDRectangle.A4), "");
+	}
+
+	@TearDown(Level.Invocation)
+	public void close() throws IOException {
+		doc.close();
+	}
+
+	@Benchmark
+	@SuppressWarnings("deprecation")
+	public void addTotalNumberofPagesInEachPage() throws IOException {
+		pdft.addTotalNumberofPagesInEachPage(500, 20);
+	}
+
+	@Benchmark
+	public void addTotalNumberOfPages() throws IOException {
+		for(PDPage page : doc.getPages()){
+			PDPageContentStream contents = pdft.createContentStream(page, AppendMode.APPEND, false);
+			pdft.setFont(contents, pdft.getLastUsedFont(), pdft.getLastUsedSize());
+			pdft.addTotalNumberOfPages(contents, 500, 20);
+			contents.close();
+		}
+		pdft.resolveDeferredFields();
+	}
+}
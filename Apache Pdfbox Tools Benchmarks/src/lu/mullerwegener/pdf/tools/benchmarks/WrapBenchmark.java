@@ -0,0 +1,78 @@
+package lu.mullerwegener.pdf.tools.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import lu.mullerwegener.pdf.tools.PdfLineBreaker;
+import lu.mullerwegener.pdf.tools.PdfToolsFactory;
+import lu.mullerwegener.pdf.tools.pdftable.PdfRow;
+import lu.mullerwegener.pdf.tools.pdftable.PdfTable;
+import lu.mullerwegener.pdf.tools.pdftable.PdfTableCursor;
+import lu.mullerwegener.pdf.tools.pdftable.PdfTablePaginator;
+
+/**
+ * A table of 500 rows whose free text column is wrapped, drawn on as many pages as needed.
+ * The texts are taken among a number of distinct values, with or without remembering their lines.
+ * @author paquet
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WrapBenchmark {
+	private static final int ROWS = 500;
+
+	@Param({"20", "500"})
+	int distinctTexts;
+
+	@Param({"0", "1024"})
+	int cacheSize;
+
+	private PdfTable table;
+	private PdfToolsFactory factory;
+
+	@Setup(Level.Trial)
+	public void build() {
+		factory = new PdfToolsFactory();
+		PdfLineBreaker.getInstance(PDType1Font.HELVETICA).setCacheSize(cacheSize);
+		table = new PdfTable(40, 800);
+		table.setTextWrapping(PDType1Font.HELVETICA, 9);
+		for(int i = 0; i < ROWS; i++){
+			PdfRow row = table.addRow(16);
+			row.addCell(60, "Client " + i);
+			row.addCell(300, text(i % distinctTexts));
+			row.addCell(155, Integer.toString(i));
+			row.showAllBorders();
+		}
+	}
+
+	private static String text(int index) {
+		StringBuilder text = new StringBuilder("Remark " + index + ":");
+		for(int i = 0; i < 10 + index % 30; i++)
+			text.append(" delivered").append(i % 3 == 0 ? " late" : "").append(" item ").append(index * 31 + i);
+		return text.toString();
+	}
+
+	@Benchmark
+	public int drawTable() throws IOException {
+		PDDocument doc = new PDDocument();
+		try{
+			PdfTablePaginator paginator = new PdfTablePaginator(factory.create(doc));
+			return paginator.paginate(new PdfTableCursor(table));
+		}finally{
+			doc.close();
+		}
+	}
+}
@@ -0,0 +1,371 @@
+package lu.mullerwegener.pdf.tools;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * Generate many documents at the same time, for example the invoices of a night.
+ * Each job draws one document with its own PdfTools, created by a {@link PdfToolsFactory}, then the document is saved to a {@link PdfDocumentSink}.
+ * The documents use the memory settings of the factory, so the streams of large documents can go to scratch files.
+ * <p>
+ * The jobs run on virtual threads when the Java runtime has them, else on a pool of threads.
+ * The number of documents in progress is limited, and so is the memory they are expected to use:
+ * the next job is taken from the jobs only when there is room for it, so a slow sink slows down the reading of the jobs.
+ * A job which fails does not stop the others, its failure is kept in its {@link Result}.
+ * @author paquet
+ *
+ */
+public class PdfBatchGenerator {
+	private final PdfToolsFactory factory;
+	private final PdfDocumentSink sink;
+	private int maxInFlight;
+	private long memoryBudget;
+	private long defaultJobMemory;
+	private Listener listener;
+
+	/**
+	 * Create a generator which writes the documents to the sink, with one document in progress for each processor.
+	 * @param pfactory		the settings of the PdfTools of the jobs.
+	 * @param psink			where the documents are written.
+	 */
+	public PdfBatchGenerator(PdfToolsFactory pfactory, PdfDocumentSink psink) {
+		this.factory = pfactory;
+		this.sink = psink;
+		this.maxInFlight = Runtime.getRuntime().availableProcessors();
+		this.memoryBudget = Long.MAX_VALUE;
+		this.defaultJobMemory = 8L << 20;
+	}
+
+	/**
+	 * Set the maximum number of documents in progress at the same time.
+	 * @param max		the number of documents.
+	 */
+	public void setMaxInFlight(int max) {
+		if(max < 1)
+			throw new IllegalArgumentException("At least one document must be in progress");
+		this.maxInFlight = max;
+	}
+
+	/**
+	 * Set the memory the documents in progress can use together. By default, there is no limit.
+	 * A job which needs more than the budget runs alone.
+	 * @param bytes		the memory available. In bytes.
+	 */
+	public void setMemoryBudget(long bytes) {
+		if(bytes < 1)
+			throw new IllegalArgumentException("The memory budget must be positive");
+		this.memoryBudget = bytes;
+	}
+
+	/**
+	 * Set the memory expected for a job which does not give its own estimate. 8 MB by default.
+	 * @param bytes		the memory used by a document in progress. In bytes.
+	 */
+	public void setDefaultJobMemory(long bytes) {
+		this.defaultJobMemory = bytes;
+	}
+
+	/**
+	 * Set what is told each time a job ends. It is called by the threads of the jobs.
+	 * @param plistener		the listener, null for none.
+	 */
+	public void setListener(Listener plistener) {
+		this.listener = plistener;
+	}
+
+	/**
+	 * Generate the documents of the jobs and wait until they are all written.
+	 * @param jobs						the jobs, read as there is room to run them.
+	 * @return							the result of each job, in the order of the jobs.
+	 * @throws InterruptedException		when the thread is interrupted while waiting, the jobs in progress are interrupted.
+	 */
+	public List<Result> run(Iterator<? extends Job> jobs) throws InterruptedException {
+		final List<Result> results = Collections.synchronizedList(new ArrayList<Result>());
+		final Semaphore slots = new Semaphore(maxInFlight);
+		// the memory is counted in KB so that large budgets fit in the permits
+		final int budget = (int) Math.min(Integer.MAX_VALUE, Math.max(1, memoryBudget >> 10));
+		final Semaphore memory = new Semaphore(budget);
+		ExecutorService executor = newExecutor(maxInFlight);
+		boolean finished = false;
+		try{
+			int index = 0;
+			while(true){
+				slots.acquire();
+				if(!jobs.hasNext()){
+					slots.release();
+					break;
+				}
+				final Job job = jobs.next();
+				long estimate = job.getEstimatedMemory() > 0 ? job.getEstimatedMemory() : defaultJobMemory;
+				final int permits = (int) Math.min(budget, Math.max(1, estimate >> 10));
+				try{
+					memory.acquire(permits);
+				}catch(InterruptedException e){
+					slots.release();
+					throw e;
+				}
+				final Result result = new Result(index++, job.getName());
+				results.add(result);
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try{
+							generate(job, result);
+						}finally{
+							memory.release(permits);
+							slots.release();
+							// the job has ended even when an error of the virtual machine goes on
+							Listener l = listener;
+							if(l != null)
+								l.jobEnded(result);
+						}
+					}
+				});
+			}
+			finished = true;
+		}finally{
+			if(finished){
+				executor.shutdown();
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			}else{
+				executor.shutdownNow();
+			}
+		}
+		return new ArrayList<Result>(results);
+	}
+
+	/**
+	 * Draw and save the document of a job, keeping the time spent and the failure.
+	 * Any failure is kept, an OutOfMemoryError included; the errors of the virtual machine are thrown again once kept.
+	 * @param job			the job.
+	 * @param result		where the outcome of the job is kept.
+	 */
+	private void generate(Job job, Result result) {
+		long start = System.nanoTime();
+		PDDocument doc = null;
+		boolean opened = false;
+		try{
+			doc = factory.createDocument();
+			PdfTools pdft = factory.create(doc);
+			job.render(pdft);
+			pdft.resolveDeferredFields();
+			long rendered = System.nanoTime();
+			result.renderNanos = rendered - start;
+			CountingStream out = new CountingStream(sink.open(job.getName()));
+			opened = true;
+			try{
+				doc.save(out);
+			}catch(Throwable e){
+				close(out, e);
+				throw e;
+			}
+			out.close();
+			result.bytes = out.count;
+			result.saveNanos = System.nanoTime() - rendered;
+		}catch(Throwable e){
+			result.failure = e;
+			if(opened){
+				try{
+					sink.failed(job.getName());
+				}catch(IOException | RuntimeException ex){
+					e.addSuppressed(ex);
+				}
+			}
+			if(e instanceof VirtualMachineError)
+				throw (VirtualMachineError) e;
+		}finally{
+			try{
+				if(doc != null)
+					doc.close();
+			}catch(IOException e){
+				if(result.failure == null)
+					result.failure = e;
+			}
+		}
+	}
+
+	/**
+	 * Close the stream of a document which could not be saved, without hiding why.
+	 * @param out			the stream.
+	 * @param failure		the failure of the save, which keeps the failure of the close.
+	 */
+	private static void close(OutputStream out, Throwable failure) {
+		try{
+			out.close();
+		}catch(IOException | RuntimeException e){
+			failure.addSuppressed(e);
+		}
+	}
+
+	/**
+	 * Returns an executor which starts a virtual thread for each job when the runtime has them, else a pool of threads.
+	 * @param threads		the number of threads of the pool.
+	 * @return				the executor.
+	 */
+	private static ExecutorService newExecutor(int threads) {
+		try{
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		}catch(ReflectiveOperationException e){
+			// before Java 21
+			return Executors.newFixedThreadPool(threads, new PdfThreadFactory("pdf-batch"));
+		}
+	}
+
+	/**
+	 * A document to generate.
+	 * @author paquet
+	 *
+	 */
+	public interface Job {
+		/**
+		 * Returns the name of the document, given to the sink.
+		 * @return		the name of the document.
+		 */
+		String getName();
+
+		/**
+		 * Draw the document.
+		 * @param pdft				the PdfTools bound to a new document, for this job only.
+		 * @throws IOException		when the document cannot be drawn.
+		 */
+		void render(PdfTools pdft) throws IOException;
+
+		/**
+		 * Returns the memory the job is expected to use until its document is written. 
+		 * By default, the generator uses its own estimate.
+		 * @return		the memory used. In bytes, 0 or less if unknown.
+		 */
+		default long getEstimatedMemory() {
+			return 0;
+		}
+	}
+
+	/**
+	 * Told each time a job ends.
+	 * @author paquet
+	 *
+	 */
+	public interface Listener {
+		/**
+		 * A job has ended, successfully or not.
+		 * @param result		the result of the job.
+		 */
+		void jobEnded(Result result);
+	}
+
+	/**
+	 * What happened to a job.
+	 * @author paquet
+	 *
+	 */
+	public static class Result {
+		private final int index;
+		private final String name;
+		private volatile long renderNanos;
+		private volatile long saveNanos;
+		private volatile long bytes;
+		private volatile Throwable failure;
+
+		Result(int pindex, String pname) {
+			this.index = pindex;
+			this.name = pname;
+		}
+
+		/**
+		 * Returns the position of the job among the jobs, from 0.
+		 * @return		the index of the job.
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * Returns the name of the document.
+		 * @return		the name of the document.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns the time spent drawing the document.
+		 * @return		the time in nanoseconds.
+		 */
+		public long getRenderNanos() {
+			return renderNanos;
+		}
+
+		/**
+		 * Returns the time spent saving the document to the sink.
+		 * @return		the time in nanoseconds.
+		 */
+		public long getSaveNanos() {
+			return saveNanos;
+		}
+
+		/**
+		 * Returns the size of the document written.
+		 * @return		the number of bytes written to the sink.
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * Returns why the job failed.
+		 * @return		the exception, null if the document was written.
+		 */
+		public Throwable getFailure() {
+			return failure;
+		}
+
+		/**
+		 * Returns wether the document was written.
+		 * @return		true if the job succeeded.
+		 */
+		public boolean isSuccess() {
+			return failure == null;
+		}
+
+		@Override
+		public String toString() {
+			return name + (failure == null ? " " + bytes + " bytes in " + (renderNanos + saveNanos) / 1000000 + " ms" : " failed: " + failure);
+		}
+	}
+
+	/**
+	 * Count the bytes written to the sink.
+	 */
+	private static class CountingStream extends FilterOutputStream {
+		long count;
+
+		CountingStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+}
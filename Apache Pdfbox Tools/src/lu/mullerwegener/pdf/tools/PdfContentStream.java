@@ -0,0 +1,726 @@
+package lu.mullerwegener.pdf.tools;
+
+import java.awt.Color;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.text.NumberFormat;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDPageContentStream.AppendMode;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAppearanceStream;
+import org.apache.pdfbox.util.Matrix;
+
+/**
+ * A wrapper around a PDPageContentStream which remembers the graphics state it has written.
+ * An operator which would not change the current color, line width, font or text matrix is not written again.
+ * When the stream is created by {@link #create(PDDocument, PDPage, AppendMode, boolean) create}, anything written
+ * directly on the PDPageContentStream is detected and the state is forgotten, so nothing looks different.
+ * A wrapper around any other PDPageContentStream writes every operator.
+ * <p>
+ * Between {@link #beginTextBatch()} and {@link #endTextBatch()}, the texts shown by {@link #showTextAt(float, float, String) showTextAt}
+ * share the same text object and are positioned relatively to each other. The underlines are drawn afterwards in a single path.
+ * @author paquet
+ *
+ */
+public final class PdfContentStream {
+	private static final float UNDERLINE_WIDTH = 0.5f;
+	// PDFBox writes 5 fraction digits on a page and only 4 in a stream created for an appearance
+	private static final int FRACTION_DIGITS = 5;
+	private static final Field FORMAT_DECIMAL = getFormatField();
+	private final PDDocument document;
+	private final PDPageContentStream contents;
+	private final CountingOutputStream output;
+	private long lastPosition;
+	private GraphicsState state;
+	private final ArrayDeque<GraphicsState> savedStates;
+	private boolean inText;
+	private Matrix textMatrix;
+	private boolean lineKnown;
+	private float lineX;
+	private float lineY;
+	private int batchDepth;
+	private float[] underlines;
+	private int underlineCount;
+
+	/**
+	 * Wrap a PDPageContentStream created elsewhere.
+	 * The state cannot be followed so every operator is written.
+	 * @param pcontents		the content stream to wrap.
+	 */
+	public PdfContentStream(PDPageContentStream pcontents) {
+		this(null, pcontents, null);
+	}
+
+	private PdfContentStream(PDDocument pdocument, PDPageContentStream pcontents, CountingOutputStream poutput) {
+		this.document = pdocument;
+		this.contents = pcontents;
+		this.output = poutput;
+		this.state = new GraphicsState();
+		this.savedStates = new ArrayDeque<GraphicsState>();
+		this.underlines = new float[0];
+	}
+
+	/**
+	 * Create a content stream for the page which follows its graphics state.
+	 * @param document			the document the page belongs to.
+	 * @param page				the page to write on.
+	 * @param appendMode		overwrite, append or prepend the existing content of the page.
+	 * @param compress			do we compress the content of the page ?
+	 * @return					the new content stream.
+	 * @throws IOException		when the content of the page cannot be created.
+	 */
+	public static PdfContentStream create(PDDocument document, PDPage page, AppendMode appendMode, boolean compress) throws IOException {
+		PDStream stream = new PDStream(PdfScratchStore.createStream(document));
+		if(appendMode == AppendMode.OVERWRITE || !page.hasContents()){
+			page.setContents(stream);
+		}else{
+			COSBase existing = page.getCOSObject().getDictionaryObject(COSName.CONTENTS);
+			COSArray array;
+			if(existing instanceof COSArray){
+				array = (COSArray) existing;
+			}else{
+				array = new COSArray();
+				array.add(existing);
+			}
+			if(appendMode == AppendMode.PREPEND)
+				array.add(0, stream.getCOSObject());
+			else
+				array.add(stream.getCOSObject());
+			page.getCOSObject().setItem(COSName.CONTENTS, array);
+		}
+		PDResources resources = page.getResources();
+		if(resources == null){
+			resources = new PDResources();
+			page.setResources(resources);
+		}
+		OutputStream out = compress ? stream.createOutputStream(COSName.FLATE_DECODE) : stream.createOutputStream();
+		return create(document, resources, out);
+	}
+
+	/**
+	 * Create a content stream which follows its graphics state and writes to out with the specified resources.
+	 * It is used to write the content of a Form XObject or of a page built elsewhere.
+	 * The real numbers are written with 5 fraction digits, as PDFBox writes them on a page,
+	 * unless the version of PDFBox does not let them be changed: they keep then the 4 digits of an appearance stream.
+	 * @param document			the document the content belongs to.
+	 * @param resources			the resources where fonts and images are registered.
+	 * @param out				where the operators are written.
+	 * @return					the new content stream.
+	 * @throws IOException		when the content stream cannot be created.
+	 */
+	public static PdfContentStream create(PDDocument document, PDResources resources, OutputStream out) throws IOException {
+		CountingOutputStream counting = new CountingOutputStream(out);
+		// the data goes to out, the stream only holds the resources
+		PDAppearanceStream appearance = new PDAppearanceStream(PdfScratchStore.createUnwrittenStream());
+		appearance.setResources(resources);
+		PDPageContentStream contents = new PDPageContentStream(document, appearance, counting);
+		if(FORMAT_DECIMAL != null){
+			try{
+				((NumberFormat) FORMAT_DECIMAL.get(contents)).setMaximumFractionDigits(FRACTION_DIGITS);
+			}catch(IllegalAccessException | RuntimeException e){
+				// the 4 digits of PDFBox are kept
+			}
+		}
+		return new PdfContentStream(document, contents, counting);
+	}
+
+	/**
+	 * Returns the number format of PDPageContentStream, which sets the fraction digits of the real numbers.
+	 * @return		the field, null when it cannot be accessed.
+	 */
+	private static Field getFormatField() {
+		try{
+			// PDPageContentStream is final and keeps its format in a private field
+			Field field = PDPageContentStream.class.getDeclaredField("formatDecimal");
+			field.setAccessible(true);
+			return NumberFormat.class.isAssignableFrom(field.getType()) ? field : null;
+		}catch(ReflectiveOperationException | RuntimeException e){
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the wrapped PDPageContentStream.
+	 * @return		the PDPageContentStream this object writes on.
+	 */
+	public PDPageContentStream getContents() {
+		return this.contents;
+	}
+
+	/**
+	 * Returns wether the stream was closed.
+	 * @return		true if the wrapped stream was created by this class and is closed.
+	 */
+	public boolean isClosed() {
+		return this.output != null && this.output.closed;
+	}
+
+	/**
+	 * Forget everything known about the graphics state.
+	 * Use it after writing on the stream in a way this object cannot follow.
+	 */
+	public void invalidate() {
+		this.state = new GraphicsState();
+		this.savedStates.clear();
+		this.textMatrix = null;
+		this.lineKnown = false;
+	}
+
+	/**
+	 * Start to share text objects between the texts shown by {@link #showTextAt(float, float, String) showTextAt}.
+	 * The calls can be nested, the batch ends with the last call to {@link #endTextBatch()}.
+	 * Nothing is batched on a stream created elsewhere than in {@link #create(PDDocument, PDPage, AppendMode, boolean) create}.
+	 */
+	public void beginTextBatch() {
+		if(this.output != null)
+			this.batchDepth++;
+	}
+
+	/**
+	 * End the batch started by {@link #beginTextBatch()}.
+	 * The current text object is closed and the underlines are drawn in one path.
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	public void endTextBatch() throws IOException {
+		if(this.batchDepth == 0)
+			return;
+		if(this.batchDepth > 1){
+			this.batchDepth--;
+			return;
+		}
+		sync();
+		closeBatchText();
+		this.batchDepth = 0;
+		if(this.underlineCount > 0){
+			setStrokingColor(Color.black);
+			setLineWidth(UNDERLINE_WIDTH);
+			for(int i = 0; i < this.underlineCount; i += 3){
+				moveTo(this.underlines[i], this.underlines[i + 1]);
+				lineTo(this.underlines[i + 2], this.underlines[i + 1]);
+			}
+			stroke();
+			this.underlineCount = 0;
+		}
+	}
+
+	/**
+	 * Returns wether the texts are batched.
+	 * @return		true between {@link #beginTextBatch()} and {@link #endTextBatch()}.
+	 */
+	public boolean isTextBatching() {
+		return this.batchDepth > 0;
+	}
+
+	/**
+	 * Show the text at the point (x, y).
+	 * When the texts are batched, the text goes in the current text object with a move relative to the previous text.
+	 * Otherwise the text has its own text object.
+	 * @param x					the position from the left of the page.
+	 * @param y					the position from the bottom of the page.
+	 * @param text				the text to show.
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	public void showTextAt(float x, float y, String text) throws IOException {
+		moveTextTo(x, y);
+		showText(text);
+		if(this.batchDepth == 0)
+			endText();
+	}
+
+	/**
+	 * Show the runs of a text at the point (x, y), each one with its font, like {@link #showTextAt(float, float, String)}.
+	 * The current font is set back after the text when it is known.
+	 * @param x					the position from the left of the page.
+	 * @param y					the position from the bottom of the page.
+	 * @param runs				the runs of the text, see {@link PdfFontFallback#split(PDFont, String)}.
+	 * @param fontSize			the size of the fonts of the runs.
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	public void showTextAt(float x, float y, List<PdfFontFallback.Run> runs, float fontSize) throws IOException {
+		sync();
+		PDFont font = this.state.font;
+		float size = this.state.fontSize;
+		moveTextTo(x, y);
+		for(PdfFontFallback.Run run : runs){
+			setFont(run.getFont(), fontSize);
+			showText(run.getText());
+		}
+		if(font != null)
+			setFont(font, size);
+		if(this.batchDepth == 0)
+			endText();
+	}
+
+	/**
+	 * Start a line of text at the point (x, y).
+	 * When the texts are batched, the line starts in the current text object with a move relative to the previous line.
+	 */
+	private void moveTextTo(float x, float y) throws IOException {
+		sync();
+		if(this.batchDepth > 0 && this.inText && this.lineKnown){
+			// the offsets are rounded as they are written so the positions do not drift
+			float tx = Math.round((x - this.lineX) * 10000f) / 10000f;
+			float ty = Math.round((y - this.lineY) * 10000f) / 10000f;
+			if(tx != 0 || ty != 0)
+				newLineAtOffset(tx, ty);
+			return;
+		}
+		if(!this.inText)
+			beginText();
+		setTextMatrix(Matrix.getTranslateInstance(x, y));
+	}
+
+	/**
+	 * Draw a line under a text from the point (x1, y) to the point (x2, y), in black with a width of 0.5.
+	 * When the texts are batched, the line is drawn at the end of the batch with all the other underlines.
+	 * @param x1				the position where the line starts from the left of the page.
+	 * @param y					the position of the line from the bottom of the page.
+	 * @param x2				the position where the line ends from the left of the page.
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	public void addUnderline(float x1, float y, float x2) throws IOException {
+		if(this.batchDepth == 0){
+			setStrokingColor(Color.black);
+			setLineWidth(UNDERLINE_WIDTH);
+			moveTo(x1, y);
+			lineTo(x2, y);
+			stroke();
+			return;
+		}
+		if(this.underlineCount + 3 > this.underlines.length)
+			this.underlines = Arrays.copyOf(this.underlines, Math.max(48, this.underlines.length * 2));
+		this.underlines[this.underlineCount++] = x1;
+		this.underlines[this.underlineCount++] = y;
+		this.underlines[this.underlineCount++] = x2;
+	}
+
+	/**
+	 * Returns the font last written on the stream.
+	 * @return		the current font or null if unknown.
+	 */
+	public PDFont getCurrentFont() {
+		sync();
+		return this.state.font;
+	}
+
+	/**
+	 * Returns the font size last written on the stream.
+	 * @return		the current font size or NaN if unknown.
+	 */
+	public float getCurrentFontSize() {
+		sync();
+		return this.state.fontSize;
+	}
+
+	/**
+	 * Begin a text object.
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	public void beginText() throws IOException {
+		sync();
+		closeBatchText();
+		contents.beginText();
+		this.inText = true;
+		this.textMatrix = new Matrix();
+		this.lineX = 0;
+		this.lineY = 0;
+		this.lineKnown = true;
+		written();
+	}
+
+	/**
+	 * End the current text object.
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	public void endText() throws IOException {
+		sync();
+		contents.endText();
+		this.inText = false;
+		this.textMatrix = null;
+		this.lineKnown = false;
+		written();
+	}
+
+	/**
+	 * Set the font and its size if they are not already the current ones.
+	 * @param font				the font to write with.
+	 * @param fontSize			the size of the font.
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	public void setFont(PDFont font, float fontSize) throws IOException {
+		sync();
+		if(font == this.state.font && fontSize == this.state.fontSize)
+			return;
+		if(font.willBeSubset() && this.document != null){
+			// the list of the fonts to subset is shared by the pages written by several threads
+			synchronized (this.document) {
+				contents.setFont(font, fontSize);
+			}
+		}else{
+			contents.setFont(font, fontSize);
+		}
+		this.state.font = font;
+		this.state.fontSize = fontSize;
+		written();
+	}
+
+	/**
+	 * Set the text matrix if it is not already the current one.
+	 * @param matrix			the text matrix.
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	public void setTextMatrix(Matrix matrix) throws IOException {
+		sync();
+		if(this.inText && sameMatrix(this.textMatrix, matrix))
+			return;
+		contents.setTextMatrix(matrix);
+		this.textMatrix = matrix.clone();
+		this.lineX = matrix.getTranslateX();
+		this.lineY = matrix.getTranslateY();
+		this.lineKnown = matrix.getScaleX() == 1 && matrix.getShearY() == 0 && matrix.getShearX() == 0 && matrix.getScaleY() == 1;
+		written();
+	}
+
+	/**
+	 * Show the text at the position given by the text matrix.
+	 * @param text				the text to show.
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	public void showText(String text) throws IOException {
+		sync();
+		PDFont font = this.state.font;
+		if(font != null && !font.isStandard14()){
+			// only the standard fonts encode safely from several threads
+			synchronized (font) {
+				contents.showText(text);
+			}
+		}else{
+			contents.showText(text);
+		}
+		// the text matrix moves of the width of the text
+		this.textMatrix = null;
+		written();
+	}
+
+	/**
+	 * Move to the start of the next line, offset by (tx, ty) from the start of the current line.
+	 * @param tx				the offset along the x axis.
+	 * @param ty				the offset along the y axis.
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	public void newLineAtOffset(float tx, float ty) throws IOException {
+		sync();
+		contents.newLineAtOffset(tx, ty);
+		this.textMatrix = null;
+		this.lineX += tx;
+		this.lineY += ty;
+		written();
+	}
+
+	/**
+	 * Set the width of the lines if it is not already the current one.
+	 * @param lineWidth			the width of the lines.
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	public void setLineWidth(float lineWidth) throws IOException {
+		sync();
+		closeBatchText();
+		if(lineWidth == this.state.lineWidth)
+			return;
+		contents.setLineWidth(lineWidth);
+		this.state.lineWidth = lineWidth;
+		written();
+	}
+
+	/**
+	 * Set the stroking color if it is not already the current one.
+	 * @param color				the color of the lines.
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	public void setStrokingColor(Color color) throws IOException {
+		sync();
+		if(color.equals(this.state.strokingColor))
+			return;
+		contents.setStrokingColor(color);
+		this.state.strokingColor = color;
+		written();
+	}
+
+	/**
+	 * Set the non stroking color if it is not already the current one.
+	 * @param color				the color of the texts and the fillings.
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	public void setNonStrokingColor(Color color) throws IOException {
+		sync();
+		if(color.equals(this.state.nonStrokingColor))
+			return;
+		contents.setNonStrokingColor(color);
+		this.state.nonStrokingColor = color;
+		written();
+	}
+
+	/**
+	 * Begin a new subpath at the point (x, y).
+	 * @param x					the position from the left of the page.
+	 * @param y					the position from the bottom of the page.
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	public void moveTo(float x, float y) throws IOException {
+		sync();
+		closeBatchText();
+		contents.moveTo(x, y);
+		written();
+	}
+
+	/**
+	 * Add a line to the point (x, y) to the current subpath.
+	 * @param x					the position from the left of the page.
+	 * @param y					the position from the bottom of the page.
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	public void lineTo(float x, float y) throws IOException {
+		sync();
+		closeBatchText();
+		contents.lineTo(x, y);
+		written();
+	}
+
+	/**
+	 * Add a rectangle to the current path.
+	 * @param x					the position of the bottom left corner from the left of the page.
+	 * @param y					the position of the bottom left corner from the bottom of the page.
+	 * @param width				the width of the rectangle.
+	 * @param height			the height of the rectangle.
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	public void addRect(float x, float y, float width, float height) throws IOException {
+		sync();
+		closeBatchText();
+		contents.addRect(x, y, width, height);
+		written();
+	}
+
+	/**
+	 * Stroke the current path.
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	public void stroke() throws IOException {
+		sync();
+		closeBatchText();
+		contents.stroke();
+		written();
+	}
+
+	/**
+	 * Draw the image at the point (x, y) with the specified size.
+	 * @param image				the image to draw.
+	 * @param x					the position from the left of the page.
+	 * @param y					the position from the bottom of the page.
+	 * @param width				the width of the image.
+	 * @param height			the height of the image.
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	public void drawImage(PDImageXObject image, float x, float y, float width, float height) throws IOException {
+		sync();
+		closeBatchText();
+		contents.drawImage(image, x, y, width, height);
+		written();
+	}
+
+	/**
+	 * Draw the Form XObject at the current position.
+	 * The form is drawn in its own graphics state so the state of the stream does not change.
+	 * @param form				the form to draw.
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	public void drawForm(PDFormXObject form) throws IOException {
+		sync();
+		closeBatchText();
+		contents.drawForm(form);
+		written();
+	}
+
+	/**
+	 * Concatenate the matrix to the current transformation matrix.
+	 * @param matrix			the transformation.
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	public void transform(Matrix matrix) throws IOException {
+		sync();
+		closeBatchText();
+		contents.transform(matrix);
+		written();
+	}
+
+	/**
+	 * Save the graphics state.
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	public void saveGraphicsState() throws IOException {
+		sync();
+		closeBatchText();
+		contents.saveGraphicsState();
+		this.savedStates.push(this.state.copy());
+		written();
+	}
+
+	/**
+	 * Restore the last saved graphics state.
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	public void restoreGraphicsState() throws IOException {
+		sync();
+		closeBatchText();
+		contents.restoreGraphicsState();
+		this.state = this.savedStates.isEmpty() ? new GraphicsState() : this.savedStates.pop();
+		written();
+	}
+
+	/**
+	 * Close the content stream.
+	 * @throws IOException		when the contents cannot be closed.
+	 */
+	public void close() throws IOException {
+		contents.close();
+	}
+
+	/**
+	 * Close the text object left open by the batch, before an operator which is not allowed in a text object.
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	private void closeBatchText() throws IOException {
+		if(this.batchDepth > 0 && this.inText)
+			endText();
+	}
+
+	/**
+	 * Forget the state if something was written directly on the wrapped stream since the last operator.
+	 */
+	private void sync() {
+		if(this.output == null){
+			// the state of a stream created elsewhere is never known
+			invalidate();
+		}else if(this.output.count != this.lastPosition){
+			invalidate();
+		}
+	}
+
+	/**
+	 * Remember where this object stopped writing.
+	 */
+	private void written() {
+		if(this.output != null)
+			this.lastPosition = this.output.count;
+	}
+
+	/**
+	 * Compare two text matrices.
+	 * @param current		the text matrix known for the stream, may be null.
+	 * @param desired		the text matrix to set.
+	 * @return				true if both matrices are the same.
+	 */
+	private static boolean sameMatrix(Matrix current, Matrix desired) {
+		if(current == null)
+			return false;
+		return current.getScaleX() == desired.getScaleX() && current.getShearY() == desired.getShearY()
+				&& current.getShearX() == desired.getShearX() && current.getScaleY() == desired.getScaleY()
+				&& current.getTranslateX() == desired.getTranslateX() && current.getTranslateY() == desired.getTranslateY();
+	}
+
+	/**
+	 * The part of the graphics state which is followed by the stream.
+	 * A null or NaN value means unknown.
+	 */
+	private static class GraphicsState {
+		Color strokingColor;
+		Color nonStrokingColor;
+		float lineWidth = Float.NaN;
+		PDFont font;
+		float fontSize = Float.NaN;
+
+		GraphicsState copy() {
+			GraphicsState gs = new GraphicsState();
+			gs.strokingColor = this.strokingColor;
+			gs.nonStrokingColor = this.nonStrokingColor;
+			gs.lineWidth = this.lineWidth;
+			gs.font = this.font;
+			gs.fontSize = this.fontSize;
+			return gs;
+		}
+	}
+
+	/**
+	 * Count the bytes written on the content stream to detect what was not written by this object.
+	 * The bytes are buffered: PDPageContentStream writes the operands one byte at a time,
+	 * and each byte would otherwise go through the synchronized buffer of the COS stream.
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+		private static final int BUFFER_SIZE = 8192;
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+		private int buffered;
+		long count;
+		boolean closed;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if(buffered == BUFFER_SIZE)
+				flushBuffer();
+			buffer[buffered++] = (byte) b;
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if(len > BUFFER_SIZE - buffered){
+				flushBuffer();
+				if(len >= BUFFER_SIZE){
+					out.write(b, off, len);
+					count += len;
+					return;
+				}
+			}
+			System.arraycopy(b, off, buffer, buffered, len);
+			buffered += len;
+			count += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			flushBuffer();
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			closed = true;
+			super.close();
+		}
+
+		private void flushBuffer() throws IOException {
+			if(buffered > 0){
+				out.write(buffer, 0, buffered);
+				buffered = 0;
+			}
+		}
+	}
+}
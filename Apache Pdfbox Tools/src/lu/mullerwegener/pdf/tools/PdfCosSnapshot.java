@@ -0,0 +1,498 @@
+package lu.mullerwegener.pdf.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSBoolean;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNull;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageTree;
+
+/**
+ * An immutable copy of a graph of PDF objects which does not belong to any document.
+ * The streams are kept encoded, so they can be copied in another document without being decoded nor encoded again.
+ * A snapshot can be materialized in as many documents as needed, from any thread.
+ * @author paquet
+ *
+ */
+final class PdfCosSnapshot {
+	private static final COSName[] INHERITED = {COSName.RESOURCES, COSName.MEDIA_BOX, COSName.CROP_BOX, COSName.ROTATE};
+
+	private final Object root;
+	private final long size;
+
+	private PdfCosSnapshot(Object proot, long psize) {
+		this.root = proot;
+		this.size = psize;
+	}
+
+	/**
+	 * Copy the object and everything it refers to.
+	 * @param base				the object to copy.
+	 * @return					the snapshot.
+	 * @throws IOException		when a stream cannot be read.
+	 */
+	static PdfCosSnapshot capture(COSBase base) throws IOException {
+		return capture(base, Collections.<COSName>emptySet());
+	}
+
+	/**
+	 * Copy the object and everything it refers to, except the entries of the dictionaries with a skipped key.
+	 * @param base				the object to copy.
+	 * @param skippedKeys		the keys which are not copied, such as the parent of a page.
+	 * @return					the snapshot.
+	 * @throws IOException		when a stream cannot be read.
+	 */
+	static PdfCosSnapshot capture(COSBase base, Set<COSName> skippedKeys) throws IOException {
+		return capture(base, skippedKeys, Collections.<COSBase, COSBase>emptyMap());
+	}
+
+	/**
+	 * Copy the object and everything it refers to, except the entries with a skipped key,
+	 * and copy the replacement of an object wherever the object is found.
+	 * @param base				the object to copy.
+	 * @param skippedKeys		the keys which are not copied, such as the parent of a page.
+	 * @param replacements		the objects to copy instead of others, compared by identity, COSNull.NULL to drop an object.
+	 * @return					the snapshot.
+	 * @throws IOException		when a stream cannot be read.
+	 */
+	static PdfCosSnapshot capture(COSBase base, Set<COSName> skippedKeys, Map<COSBase, COSBase> replacements) throws IOException {
+		Capture capture = new Capture(skippedKeys, replacements);
+		Object root = capture.copy(base);
+		return new PdfCosSnapshot(root, capture.size);
+	}
+
+	/**
+	 * Copy pages without their parent, with the attributes they inherit from the tree of their document.
+	 * A page which refers to another page of the list refers to its copy.
+	 * @param pages				the pages to copy.
+	 * @param replacements		the objects to copy instead of others, such as COSNull.NULL for the pages which are not copied.
+	 * 							The pages of the list are replaced by their copy while they are copied, then put back.
+	 * @return					the snapshot of an array of the pages, see {@link #addPages(PDDocument, Pool)}.
+	 * @throws IOException		when a stream cannot be read.
+	 */
+	static PdfCosSnapshot capturePages(List<PDPage> pages, Map<COSBase, COSBase> replacements) throws IOException {
+		COSArray copies = new COSArray();
+		List<COSBase> previous = new ArrayList<COSBase>(pages.size());
+		for(PDPage page : pages){
+			COSDictionary original = page.getCOSObject();
+			COSDictionary copy = new COSDictionary(original);
+			copy.removeItem(COSName.PARENT);
+			for(COSName key : INHERITED){
+				COSBase value = PDPageTree.getInheritableAttribute(original, key);
+				if(value != null)
+					copy.setItem(key, value);
+			}
+			copies.add(copy);
+			previous.add(replacements.put(original, copy));
+		}
+		try{
+			return capture(copies, Collections.<COSName>emptySet(), replacements);
+		}finally{
+			for(int i = 0; i < pages.size(); i++){
+				if(previous.get(i) != null)
+					replacements.put(pages.get(i).getCOSObject(), previous.get(i));
+				else
+					replacements.remove(pages.get(i).getCOSObject());
+			}
+		}
+	}
+
+	/**
+	 * Add the pages of a snapshot made by {@link #capturePages(List, Map)} at the end of the document.
+	 * @param doc				the document which receives the pages.
+	 * @param pool				the objects of the document by content, null to share nothing.
+	 * @throws IOException		when a stream cannot be written.
+	 */
+	void addPages(PDDocument doc, Pool pool) throws IOException {
+		for(COSBase page : (COSArray) materialize(doc, pool))
+			doc.addPage(new PDPage((COSDictionary) page));
+	}
+
+	/**
+	 * Returns the number of bytes of the streams of the snapshot.
+	 * @return		the size of the encoded streams.
+	 */
+	long getSize() {
+		return this.size;
+	}
+
+	/**
+	 * Create the objects of the snapshot in the document.
+	 * @param doc				the document which receives the objects.
+	 * @return					the copy of the object captured.
+	 * @throws IOException		when a stream cannot be written.
+	 */
+	COSBase materialize(PDDocument doc) throws IOException {
+		return materialize(doc, null);
+	}
+
+	/**
+	 * Create the objects of the snapshot in the document, and share the streams and the fonts already created by the same pool.
+	 * @param doc				the document which receives the objects.
+	 * @param pool				the objects of the document by content, null to share nothing.
+	 * @return					the copy of the object captured.
+	 * @throws IOException		when a stream cannot be written.
+	 */
+	COSBase materialize(PDDocument doc, Pool pool) throws IOException {
+		Map<Object, Digest> digests = pool != null ? new IdentityHashMap<Object, Digest>() : null;
+		return materialize(this.root, doc, new IdentityHashMap<Object, COSBase>(), pool, digests);
+	}
+
+	private static COSBase materialize(Object node, PDDocument doc, Map<Object, COSBase> done, Pool pool, Map<Object, Digest> digests) throws IOException {
+		if(node instanceof COSBase)
+			return (COSBase) node;
+		COSBase known = done.get(node);
+		if(known != null)
+			return known;
+		if(node instanceof StringNode){
+			COSString string = new COSString(((StringNode) node).bytes);
+			string.setForceHexForm(((StringNode) node).hex);
+			return string;
+		}
+		if(node instanceof ArrayNode){
+			COSArray array = new COSArray();
+			done.put(node, array);
+			for(Object item : ((ArrayNode) node).items)
+				array.add(materialize(item, doc, done, pool, digests));
+			return array;
+		}
+		DictNode dictNode = (DictNode) node;
+		Digest digest = null;
+		if(pool != null && dictNode.isShareable()){
+			digest = digest(dictNode, digests);
+			COSBase shared = digest != null ? pool.objects.get(digest) : null;
+			if(shared != null){
+				pool.sharedObjects++;
+				pool.sharedBytes += digest.bytes;
+				done.put(node, shared);
+				return shared;
+			}
+		}
+		COSDictionary dict;
+		if(dictNode.raw != null){
+			COSStream stream = doc.getDocument().createCOSStream();
+			OutputStream out = stream.createRawOutputStream();
+			try{
+				out.write(dictNode.raw);
+			}finally{
+				out.close();
+			}
+			dict = stream;
+		}else{
+			dict = new COSDictionary();
+		}
+		done.put(node, dict);
+		for(Map.Entry<COSName, Object> entry : dictNode.items.entrySet())
+			dict.setItem(entry.getKey(), materialize(entry.getValue(), doc, done, pool, digests));
+		if(digest != null)
+			pool.objects.put(digest, dict);
+		return dict;
+	}
+
+	/**
+	 * Returns the digest of the content of a dictionary or an array and of everything it refers to.
+	 * @param node				the dictionary or the array.
+	 * @param digests			the digests already computed, or being computed.
+	 * @return					the digest, null when the node is part of a cycle, such as a page and its annotations.
+	 * @throws IOException		when the digest cannot be computed.
+	 */
+	private static Digest digest(Object node, Map<Object, Digest> digests) throws IOException {
+		if(digests.containsKey(node)){
+			Digest known = digests.get(node);
+			return known != Digest.IN_PROGRESS ? known : null;
+		}
+		digests.put(node, Digest.IN_PROGRESS);
+		Digest digest = null;
+		MessageDigest md = newDigest();
+		long bytes = 0;
+		boolean acyclic = true;
+		if(node instanceof ArrayNode){
+			md.update((byte) 'a');
+			for(Object item : ((ArrayNode) node).items){
+				long itemBytes = update(md, item, digests);
+				acyclic &= itemBytes >= 0;
+				bytes += itemBytes;
+			}
+		}else{
+			DictNode dictNode = (DictNode) node;
+			md.update((byte) (dictNode.raw != null ? 's' : 'd'));
+			// the keys are sorted so the order of the entries does not matter
+			List<COSName> keys = new ArrayList<COSName>(dictNode.items.keySet());
+			Collections.sort(keys);
+			for(COSName key : keys){
+				md.update(key.getName().getBytes(StandardCharsets.UTF_8));
+				md.update((byte) 0);
+				long itemBytes = update(md, dictNode.items.get(key), digests);
+				acyclic &= itemBytes >= 0;
+				bytes += itemBytes;
+			}
+			if(dictNode.raw != null){
+				md.update(dictNode.raw);
+				bytes += dictNode.raw.length;
+			}
+		}
+		if(acyclic)
+			digest = new Digest(md.digest(), bytes);
+		digests.put(node, digest);
+		return digest;
+	}
+
+	/**
+	 * Add an item of a dictionary or an array to the digest.
+	 * @return		the number of bytes of the streams of the item, -1 when it is part of a cycle.
+	 */
+	private static long update(MessageDigest md, Object item, Map<Object, Digest> digests) throws IOException {
+		if(item instanceof DictNode || item instanceof ArrayNode){
+			Digest digest = digest(item, digests);
+			if(digest == null)
+				return -1;
+			md.update((byte) 'r');
+			md.update(digest.hash);
+			return digest.bytes;
+		}
+		if(item instanceof StringNode)
+			updateString(md, ((StringNode) item).bytes, ((StringNode) item).hex);
+		else
+			updateValue(md, (COSBase) item);
+		return 0;
+	}
+
+	/**
+	 * Add a value which is neither a dictionary nor an array to the digest.
+	 * @param md			the digest.
+	 * @param value			a name, a number, a boolean, a string or null.
+	 */
+	static void updateValue(MessageDigest md, COSBase value) {
+		if(value instanceof COSString){
+			updateString(md, ((COSString) value).getBytes(), ((COSString) value).getForceHexForm());
+		}else if(value instanceof COSName){
+			md.update((byte) 'n');
+			md.update(((COSName) value).getName().getBytes(StandardCharsets.UTF_8));
+			md.update((byte) 0);
+		}else if(value instanceof COSInteger){
+			md.update((byte) 'i');
+			update(md, ((COSInteger) value).longValue());
+		}else if(value instanceof COSFloat){
+			md.update((byte) 'f');
+			update(md, Float.floatToIntBits(((COSFloat) value).floatValue()));
+		}else if(value instanceof COSBoolean){
+			md.update((byte) (((COSBoolean) value).getValue() ? 'T' : 'F'));
+		}else{
+			md.update((byte) '0');
+		}
+	}
+
+	/**
+	 * Returns a new SHA-256 digest.
+	 * @return					the digest.
+	 * @throws IOException		when the runtime has no SHA-256.
+	 */
+	static MessageDigest newDigest() throws IOException {
+		try{
+			return MessageDigest.getInstance("SHA-256");
+		}catch(NoSuchAlgorithmException e){
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Returns the data of a stream as it is encoded.
+	 * @param stream			the stream.
+	 * @return					the encoded data.
+	 * @throws IOException		when the stream cannot be read.
+	 */
+	static byte[] readRaw(COSStream stream) throws IOException {
+		InputStream in = stream.createRawInputStream();
+		try{
+			ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.max(32, stream.getLength()));
+			byte[] buffer = new byte[8192];
+			int n;
+			while((n = in.read(buffer)) != -1)
+				out.write(buffer, 0, n);
+			return out.toByteArray();
+		}finally{
+			in.close();
+		}
+	}
+
+	private static void updateString(MessageDigest md, byte[] bytes, boolean hex) {
+		md.update((byte) (hex ? 'h' : 't'));
+		update(md, bytes.length);
+		md.update(bytes);
+	}
+
+	private static void update(MessageDigest md, long value) {
+		for(int shift = 56; shift >= 0; shift -= 8)
+			md.update((byte) (value >>> shift));
+	}
+
+	/**
+	 * The objects created in a document, by the digest of their content, to create each one only once.
+	 * The streams and the fonts are shared: a page and its annotations refer to each other, they are never shared.
+	 * A pool belongs to one document, it is used by one thread at a time.
+	 * @author paquet
+	 *
+	 */
+	static final class Pool {
+		private final Map<Digest, COSBase> objects = new HashMap<Digest, COSBase>();
+		private long sharedBytes;
+		private int sharedObjects;
+
+		/**
+		 * Returns the number of bytes of the streams which were shared instead of being created again.
+		 * @return		the bytes saved.
+		 */
+		long getSharedBytes() {
+			return this.sharedBytes;
+		}
+
+		/**
+		 * Returns the number of objects which were shared instead of being created again.
+		 * @return		the number of objects.
+		 */
+		int getSharedObjects() {
+			return this.sharedObjects;
+		}
+	}
+
+	/**
+	 * The digest of the content of an object, with the number of bytes of its streams.
+	 */
+	static final class Digest {
+		static final Digest IN_PROGRESS = new Digest(new byte[0], 0);
+
+		final byte[] hash;
+		final long bytes;
+		private final int hashCode;
+
+		Digest(byte[] phash, long pbytes) {
+			this.hash = phash;
+			this.bytes = pbytes;
+			this.hashCode = Arrays.hashCode(phash);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Digest && Arrays.equals(this.hash, ((Digest) o).hash);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hashCode;
+		}
+	}
+
+	/**
+	 * The copy of the objects, shared objects and cycles are kept.
+	 */
+	private static class Capture {
+		private final Set<COSName> skippedKeys;
+		private final Map<COSBase, COSBase> replacements;
+		private final Map<COSBase, Object> done;
+		private long size;
+
+		Capture(Set<COSName> pskippedKeys, Map<COSBase, COSBase> preplacements) {
+			this.skippedKeys = pskippedKeys;
+			this.replacements = preplacements;
+			this.done = new IdentityHashMap<COSBase, Object>();
+		}
+
+		Object copy(COSBase base) throws IOException {
+			if(base instanceof COSObject)
+				base = ((COSObject) base).getObject();
+			COSBase replacement = this.replacements.get(base);
+			if(replacement != null)
+				return copy(replacement);
+			if(base == null || base instanceof COSNull)
+				return COSNull.NULL;
+			if(base instanceof COSName || base instanceof COSInteger || base instanceof COSBoolean)
+				return base;
+			if(base instanceof COSFloat)
+				return new COSFloat(((COSFloat) base).floatValue());
+			if(base instanceof COSString)
+				return new StringNode(((COSString) base).getBytes().clone(), ((COSString) base).getForceHexForm());
+			Object known = this.done.get(base);
+			if(known != null)
+				return known;
+			if(base instanceof COSArray){
+				ArrayNode node = new ArrayNode();
+				this.done.put(base, node);
+				for(COSBase item : (COSArray) base)
+					node.items.add(copy(item));
+				return node;
+			}
+			if(base instanceof COSDictionary){
+				DictNode node = new DictNode();
+				this.done.put(base, node);
+				if(base instanceof COSStream){
+					node.raw = readRaw((COSStream) base);
+					this.size += node.raw.length;
+				}
+				for(Map.Entry<COSName, COSBase> entry : ((COSDictionary) base).entrySet()){
+					if(this.skippedKeys.contains(entry.getKey()))
+						continue;
+					// the length is written again with the stream
+					if(base instanceof COSStream && COSName.LENGTH.equals(entry.getKey()))
+						continue;
+					node.items.put(entry.getKey(), copy(entry.getValue()));
+				}
+				return node;
+			}
+			throw new IOException("Cannot copy the object " + base);
+		}
+	}
+
+	private static class DictNode {
+		final Map<COSName, Object> items = new LinkedHashMap<COSName, Object>();
+		byte[] raw;
+
+		/**
+		 * Returns wether the object can be shared by content: a stream, a font or the descriptor of a font.
+		 */
+		boolean isShareable() {
+			if(this.raw != null)
+				return true;
+			Object type = this.items.get(COSName.TYPE);
+			return COSName.FONT.equals(type) || COSName.FONT_DESC.equals(type);
+		}
+	}
+
+	private static class ArrayNode {
+		final List<Object> items = new ArrayList<Object>();
+	}
+
+	private static class StringNode {
+		final byte[] bytes;
+		final boolean hex;
+
+		StringNode(byte[] pbytes, boolean phex) {
+			this.bytes = pbytes;
+			this.hex = phex;
+		}
+	}
+}
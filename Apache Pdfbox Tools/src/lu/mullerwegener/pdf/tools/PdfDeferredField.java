@@ -0,0 +1,132 @@
+package lu.mullerwegener.pdf.tools;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.util.Matrix;
+
+/**
+ * A text whose value is known only when the document is finished, such as the total number of pages,
+ * a running total or the time the generation ended.
+ * The field is a Form XObject drawn on the pages as it goes, then its text is written once with {@link #resolve(String)}.
+ * Until it is resolved, the field shows nothing.
+ * @author paquet
+ *
+ */
+public class PdfDeferredField {
+	private final PDDocument doc;
+	private final PDFormXObject form;
+	private final PDFont font;
+	private final float fontSize;
+	private final PdfFontFallback fallback;
+	private boolean rightAligned;
+	private String value;
+
+	/**
+	 * Create a field written with the font and the size.
+	 * @param pdoc			the document where the field is drawn.
+	 * @param pfont			the font of the text.
+	 * @param pfontSize		the size of the font.
+	 */
+	public PdfDeferredField(PDDocument pdoc, PDFont pfont, float pfontSize) {
+		this(pdoc, pfont, pfontSize, null);
+	}
+
+	/**
+	 * Create a field written with the font and the size, and the fallback fonts for the characters the font cannot show.
+	 * @param pdoc			the document where the field is drawn.
+	 * @param pfont			the font of the text.
+	 * @param pfontSize		the size of the font.
+	 * @param pfallback		the fallback fonts, null for none.
+	 */
+	public PdfDeferredField(PDDocument pdoc, PDFont pfont, float pfontSize, PdfFontFallback pfallback) {
+		this.doc = pdoc;
+		this.font = pfont;
+		this.fontSize = pfontSize;
+		this.fallback = pfallback;
+		this.form = new PDFormXObject(pdoc);
+		this.form.setResources(new PDResources());
+		this.form.setBBox(new PDRectangle(0, 0, 0, 0));
+	}
+
+	/**
+	 * Make the text end at the position where the field is drawn instead of starting there.
+	 * It must be set before the field is resolved.
+	 * @param prightAligned		true to align the text to the right.
+	 */
+	public void setRightAligned(boolean prightAligned) {
+		this.rightAligned = prightAligned;
+	}
+
+	/**
+	 * Draw the field in contents, the text will start at the point (posX, posY).
+	 * @param pdft				an instance of PdfTools.
+	 * @param contents			the content of the page.
+	 * @param posX				the position from the left border of the page. In pixels.
+	 * @param posY				the position from the bottom border of the page. In pixels.
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	public void draw(PdfTools pdft, PDPageContentStream contents, float posX, float posY) throws IOException {
+		PdfContentStream stream = pdft.getContentStream(contents);
+		stream.saveGraphicsState();
+		stream.transform(Matrix.getTranslateInstance(posX, posY));
+		stream.drawForm(this.form);
+		stream.restoreGraphicsState();
+	}
+
+	/**
+	 * Write the text of the field. Every page where the field was drawn, or will be, shows this text.
+	 * A field can be resolved again, the last text is shown.
+	 * @param pvalue			the text of the field.
+	 * @throws IOException		when the field cannot be written.
+	 */
+	public synchronized void resolve(String pvalue) throws IOException {
+		float width = this.fallback != null ? this.fallback.getStringWidth(this.font, this.fontSize, pvalue)
+				: PdfFontMetrics.getInstance(this.font).getStringWidth(pvalue, this.fontSize);
+		float startX = this.rightAligned ? -width : 0;
+		OutputStream out = this.form.getContentStream().createOutputStream(COSName.FLATE_DECODE);
+		PdfContentStream stream = PdfContentStream.create(this.doc, this.form.getResources(), out);
+		try{
+			stream.beginText();
+			stream.setFont(this.font, this.fontSize);
+			stream.setTextMatrix(Matrix.getTranslateInstance(startX, 0));
+			if(this.fallback == null){
+				stream.showText(pvalue);
+			}else{
+				for(PdfFontFallback.Run run : this.fallback.split(this.font, pvalue)){
+					stream.setFont(run.getFont(), this.fontSize);
+					stream.showText(run.getText());
+				}
+			}
+			stream.endText();
+		}finally{
+			stream.close();
+		}
+		// room for the descenders and the accents
+		this.form.setBBox(new PDRectangle(startX, -this.fontSize, width, 2 * this.fontSize));
+		this.value = pvalue;
+	}
+
+	/**
+	 * Returns wether the text of the field was written.
+	 * @return		true if the field was resolved.
+	 */
+	public synchronized boolean isResolved() {
+		return this.value != null;
+	}
+
+	/**
+	 * Returns the text of the field.
+	 * @return		the text written by the last {@link #resolve(String)}, null if it is not resolved.
+	 */
+	public synchronized String getValue() {
+		return this.value;
+	}
+}
@@ -0,0 +1,74 @@
+package lu.mullerwegener.pdf.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Where the documents generated by a {@link PdfBatchGenerator} are written.
+ * The methods are called by several threads at the same time, with different names.
+ * @author paquet
+ *
+ */
+public interface PdfDocumentSink {
+	/**
+	 * Returns the stream where the document is saved. The generator closes it.
+	 * @param name				the name of the document.
+	 * @return					the stream to write the document to.
+	 * @throws IOException		when the stream cannot be opened.
+	 */
+	OutputStream open(String name) throws IOException;
+
+	/**
+	 * Called when the document could not be saved entirely to the stream opened for it, so what was written can be removed.
+	 * Nothing is done by default.
+	 * @param name				the name of the document.
+	 * @throws IOException		when what was written cannot be removed.
+	 */
+	default void failed(String name) throws IOException {
+	}
+
+	/**
+	 * Returns a sink which writes each document in a file of the directory named after the document, with the extension .pdf.
+	 * A name which is not the name of a file of the directory, such as a path or .., cannot be opened.
+	 * Each file is written once by the sink: a second document with the same name, even in another case, cannot be opened
+	 * instead of overwriting the first one. The files of a previous sink are overwritten.
+	 * @param dir		the directory, created if needed.
+	 * @return			the sink.
+	 */
+	static PdfDocumentSink toDirectory(final File dir) {
+		return new PdfDocumentSink() {
+			private final Set<String> opened = Collections.synchronizedSet(new HashSet<String>());
+
+			@Override
+			public OutputStream open(String name) throws IOException {
+				if(name.isEmpty() || name.equals(".") || name.equals("..") || name.indexOf('/') >= 0 || name.indexOf('\\') >= 0
+						|| name.indexOf(File.separatorChar) >= 0)
+					throw new IOException("The name " + name + " is not a file of " + dir);
+				File file = file(name);
+				if(!this.opened.add(file.getName().toLowerCase(Locale.ROOT)))
+					throw new IOException("The file " + file + " is already written for another document");
+				if(!dir.isDirectory() && !dir.mkdirs())
+					throw new IOException("Cannot create the directory " + dir);
+				return new BufferedOutputStream(new FileOutputStream(file));
+			}
+
+			@Override
+			public void failed(String name) throws IOException {
+				File file = file(name);
+				if(file.exists() && !file.delete())
+					throw new IOException("Cannot delete " + file);
+			}
+
+			private File file(String name) {
+				return new File(dir, name.toLowerCase().endsWith(".pdf") ? name : name + ".pdf");
+			}
+		};
+	}
+}
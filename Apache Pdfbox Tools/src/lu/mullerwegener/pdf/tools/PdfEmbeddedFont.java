@@ -0,0 +1,300 @@
+package lu.mullerwegener.pdf.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.fontbox.ttf.TTFSubsetter;
+import org.apache.fontbox.util.BoundingBox;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDFontDescriptor;
+
+/**
+ * The font of a {@link PdfFontProgram} in a document, a Type0 font whose codes are the glyph ids of the program.
+ * It only records the glyphs shown, the program is read when the document is saved to write their subset.
+ * It is used to write, a document read again gets its fonts from PDFBox.
+ * @author paquet
+ *
+ */
+final class PdfEmbeddedFont extends PDFont {
+	// the tables kept by PDFBox in a subset
+	private static final List<String> TABLES = Arrays.asList("head", "hhea", "loca", "maxp", "cvt ", "prep", "glyf", "hmtx", "fpgm", "gasp");
+	private static final String BASE25 = "BCDEFGHIJKLMNOPQRSTUVWXYZ";
+	private static final int CHARS_PER_BLOCK = 100;
+
+	private final PdfFontProgram program;
+	private final PDDocument document;
+	private final COSDictionary cidFont;
+	private final PDFontDescriptor descriptor;
+	private final BitSet glyphs;
+	// the character of each glyph shown, to extract the text
+	private final Map<Integer, Integer> unicodes;
+
+	/**
+	 * Create the font of the program for a document.
+	 * @param pprogram			the program.
+	 * @param pdocument			the document which embeds the font, null for a font which only measures.
+	 * @throws IOException		never, the dictionaries have no stream.
+	 */
+	PdfEmbeddedFont(PdfFontProgram pprogram, PDDocument pdocument) throws IOException {
+		super(pprogram.createDictionaries());
+		this.program = pprogram;
+		this.document = pdocument;
+		this.cidFont = (COSDictionary) ((COSArray) this.dict.getDictionaryObject(COSName.DESCENDANT_FONTS)).getObject(0);
+		this.descriptor = new PDFontDescriptor((COSDictionary) this.cidFont.getDictionaryObject(COSName.FONT_DESC));
+		this.glyphs = new BitSet();
+		this.unicodes = new TreeMap<Integer, Integer>();
+	}
+
+	/**
+	 * Returns the program of the font.
+	 * @return		the shared program.
+	 */
+	PdfFontProgram getProgram() {
+		return this.program;
+	}
+
+	@Override
+	public String getName() {
+		return this.dict.getNameAsString(COSName.BASE_FONT);
+	}
+
+	@Override
+	public PDFontDescriptor getFontDescriptor() {
+		return this.descriptor;
+	}
+
+	@Override
+	protected byte[] encode(int unicode) throws IOException {
+		int gid = this.program.getGlyphId(unicode);
+		if(gid == 0)
+			throw new IllegalArgumentException("No glyph for U+" + String.format("%04X", unicode) + " in font " + this.program.getName());
+		return new byte[] {(byte) (gid >> 8), (byte) gid};
+	}
+
+	@Override
+	public int readCode(InputStream in) throws IOException {
+		int high = in.read();
+		int low = in.read();
+		if(high == -1 || low == -1)
+			throw new IOException("Truncated code");
+		return high << 8 | low;
+	}
+
+	@Override
+	public float getWidth(int code) {
+		return this.program.getWidth(code);
+	}
+
+	@Override
+	public float getWidthFromFont(int code) {
+		return this.program.getWidth(code);
+	}
+
+	@Override
+	protected float getStandard14Width(int code) {
+		return this.program.getWidth(code);
+	}
+
+	@Override
+	public float getSpaceWidth() {
+		return this.program.getWidth(this.program.getGlyphId(' '));
+	}
+
+	@Override
+	public float getHeight(int code) {
+		return this.program.getBoundingBox().getHeight();
+	}
+
+	@Override
+	public BoundingBox getBoundingBox() {
+		return this.program.getBoundingBox();
+	}
+
+	@Override
+	public boolean isEmbedded() {
+		return true;
+	}
+
+	@Override
+	public boolean isVertical() {
+		return false;
+	}
+
+	@Override
+	public boolean isDamaged() {
+		return false;
+	}
+
+	@Override
+	public boolean willBeSubset() {
+		return this.document != null;
+	}
+
+	/**
+	 * Returns wether the font is embedded in the document.
+	 * @param pdocument		the document.
+	 * @return				true if the subset of the font is written in this document.
+	 */
+	boolean belongsTo(PDDocument pdocument) {
+		return this.document != null && this.document == pdocument;
+	}
+
+	/**
+	 * Record that the character is shown. The characters the font cannot show are ignored.
+	 * The pages of a document may be written by several threads.
+	 * @param codePoint		the Unicode code point.
+	 */
+	@Override
+	public synchronized void addToSubset(int codePoint) {
+		int gid = this.program.getGlyphId(codePoint);
+		if(gid != 0 && !this.glyphs.get(gid)){
+			this.glyphs.set(gid);
+			this.unicodes.put(gid, codePoint);
+		}
+	}
+
+	/**
+	 * Write the subset of the glyphs shown, its widths and the characters of its glyphs. Called by PDFBox when the document is saved.
+	 * The codes written stay the glyph ids of the program, mapped to the glyphs of the subset.
+	 * @throws IOException		when the subset cannot be written.
+	 */
+	@Override
+	public synchronized void subset() throws IOException {
+		if(this.document == null)
+			throw new IllegalStateException("This font does not belong to a document");
+		TTFSubsetter subsetter = new TTFSubsetter(this.program.getTrueTypeFont(), TABLES);
+		subsetter.addAll(new HashSet<Integer>(this.unicodes.values()));
+		// new glyph id -> glyph id of the program
+		Map<Integer, Integer> gidMap = subsetter.getGIDMap();
+		String tag = getTag(gidMap);
+		subsetter.setPrefix(tag);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		subsetter.writeToStream(out);
+		byte[] data = out.toByteArray();
+		PDStream fontFile = new PDStream(this.document, new ByteArrayInputStream(data), COSName.FLATE_DECODE);
+		fontFile.getCOSObject().setInt(COSName.LENGTH1, data.length);
+		this.descriptor.setFontFile2(fontFile);
+		String name = tag + this.program.getName();
+		this.dict.setName(COSName.BASE_FONT, name);
+		this.cidFont.setName(COSName.BASE_FONT, name);
+		this.descriptor.setFontName(name);
+		int cidCount = 0;
+		for(int cid : gidMap.values())
+			cidCount = Math.max(cidCount, cid + 1);
+		int[] cidToGid = new int[cidCount];
+		for(Map.Entry<Integer, Integer> entry : gidMap.entrySet())
+			cidToGid[entry.getValue()] = entry.getKey();
+		this.cidFont.setItem(COSName.W, buildWidths(gidMap.values()));
+		this.cidFont.setItem(COSName.CID_TO_GID_MAP, buildCIDToGIDMap(cidToGid, cidCount));
+		this.descriptor.setCIDSet(buildCIDSet(gidMap.values(), cidCount));
+		this.dict.setItem(COSName.TO_UNICODE, buildToUnicode());
+	}
+
+	/**
+	 * Returns the widths of the glyphs of the subset which are not 1000, the default.
+	 */
+	private COSArray buildWidths(Collection<Integer> cids) {
+		Set<Integer> sorted = new TreeSet<Integer>(cids);
+		COSArray widths = new COSArray();
+		COSArray range = null;
+		int previous = Integer.MIN_VALUE;
+		for(int cid : sorted){
+			long width = Math.round(this.program.getWidth(cid));
+			if(width == 1000)
+				continue;
+			// c [w1 w2 ... wn]
+			if(range == null || previous != cid - 1){
+				range = new COSArray();
+				widths.add(COSInteger.get(cid));
+				widths.add(range);
+			}
+			range.add(COSInteger.get(width));
+			previous = cid;
+		}
+		return widths;
+	}
+
+	private PDStream buildCIDToGIDMap(int[] cidToGid, int cidCount) throws IOException {
+		byte[] data = new byte[cidCount * 2];
+		for(int cid = 0; cid < cidCount; cid++){
+			data[cid * 2] = (byte) (cidToGid[cid] >> 8);
+			data[cid * 2 + 1] = (byte) cidToGid[cid];
+		}
+		PDStream stream = new PDStream(this.document, new ByteArrayInputStream(data), COSName.FLATE_DECODE);
+		stream.getCOSObject().setInt(COSName.LENGTH1, data.length);
+		return stream;
+	}
+
+	private PDStream buildCIDSet(Iterable<Integer> cids, int cidCount) throws IOException {
+		byte[] data = new byte[(cidCount + 7) / 8];
+		for(int cid : cids)
+			data[cid / 8] |= 1 << 7 - cid % 8;
+		return new PDStream(this.document, new ByteArrayInputStream(data), COSName.FLATE_DECODE);
+	}
+
+	/**
+	 * Returns the CMap which gives the character of each glyph shown.
+	 */
+	private PDStream buildToUnicode() throws IOException {
+		StringBuilder cmap = new StringBuilder();
+		cmap.append("/CIDInit /ProcSet findresource begin\n12 dict begin\nbegincmap\n");
+		cmap.append("/CIDSystemInfo\n<< /Registry (Adobe)\n/Ordering (UCS)\n/Supplement 0\n>> def\n");
+		cmap.append("/CMapName /Adobe-Identity-UCS def\n/CMapType 2 def\n");
+		cmap.append("1 begincodespacerange\n<0000> <FFFF>\nendcodespacerange\n");
+		boolean surrogates = false;
+		int written = 0;
+		for(Map.Entry<Integer, Integer> entry : this.unicodes.entrySet()){
+			if(written % CHARS_PER_BLOCK == 0){
+				if(written > 0)
+					cmap.append("endbfchar\n");
+				cmap.append(Math.min(CHARS_PER_BLOCK, this.unicodes.size() - written)).append(" beginbfchar\n");
+			}
+			cmap.append('<').append(String.format("%04X", entry.getKey())).append("> <");
+			for(char c : Character.toChars(entry.getValue()))
+				cmap.append(String.format("%04X", (int) c));
+			cmap.append(">\n");
+			surrogates |= entry.getValue() > 0xFFFF;
+			written++;
+		}
+		if(written > 0)
+			cmap.append("endbfchar\n");
+		cmap.append("endcmap\nCMapName currentdict /CMap defineresource pop\nend\nend\n");
+		// the characters beyond the basic plane need PDF 1.5
+		if(surrogates && this.document.getVersion() < 1.5f)
+			this.document.setVersion(1.5f);
+		return new PDStream(this.document, new ByteArrayInputStream(cmap.toString().getBytes(StandardCharsets.US_ASCII)), COSName.FLATE_DECODE);
+	}
+
+	/**
+	 * Returns the tag of the name of the subset, which depends only on its glyphs, as PDFBox does.
+	 */
+	private static String getTag(Map<Integer, Integer> gidMap) {
+		long num = gidMap.hashCode() & 0xFFFFFFFFL;
+		StringBuilder sb = new StringBuilder();
+		do{
+			sb.append(BASE25.charAt((int) (num % 25)));
+			num /= 25;
+		}while(num != 0 && sb.length() < 6);
+		while(sb.length() < 6)
+			sb.insert(0, 'A');
+		return sb.append('+').toString();
+	}
+}
@@ -0,0 +1,191 @@
+package lu.mullerwegener.pdf.tools;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.font.PDFont;
+
+/**
+ * The fonts which show the characters the font of a text cannot show, for example the Greek letters of a name written in Helvetica.
+ * <p>
+ * A text is split in runs of characters shown by the same font: a character is shown by the font of the text when it can,
+ * otherwise by the first font of the chain which can. The characters none of the fonts can show are replaced by a question mark,
+ * or dropped when the font of the text has none, so an unexpected character never stops a document.
+ * The fonts are chosen with the table of bits of {@link PdfFontMetrics#canShow(int)}, nothing is encoded.
+ * The texts are measured with the same choice of fonts, so what is laid out with a chain is drawn at the same width
+ * by any chain of fonts with the same metrics, such as the fonts of the same {@link PdfFontProgram} in another document.
+ * The instances cannot be changed and can be used by several threads.
+ * @author paquet
+ *
+ */
+public final class PdfFontFallback {
+	private static final int REPLACEMENT = '?';
+	// the index of the font of the text, and of no font
+	private static final int TEXT_FONT = -1;
+	private static final int NO_FONT = -2;
+
+	private final PDFont[] fonts;
+	private final PdfFontMetrics[] metrics;
+
+	/**
+	 * Create a chain of fonts, tried in order.
+	 * @param pfonts		the fonts which show the characters the font of a text cannot show.
+	 */
+	public PdfFontFallback(PDFont... pfonts) {
+		this.fonts = pfonts.clone();
+		this.metrics = new PdfFontMetrics[this.fonts.length];
+		for(int i = 0; i < this.fonts.length; i++)
+			this.metrics[i] = PdfFontMetrics.getInstance(this.fonts[i]);
+	}
+
+	/**
+	 * Returns the fonts of the chain.
+	 * @return		the fonts, in the order they are tried. The list cannot be changed.
+	 */
+	public List<PDFont> getFonts() {
+		return Collections.unmodifiableList(Arrays.asList(this.fonts));
+	}
+
+	/**
+	 * Split the text in runs of characters shown by the same font.
+	 * @param font				the font of the text.
+	 * @param text				the text.
+	 * @return					the runs, in the order of the text. A text the font shows entirely is a single run.
+	 * @throws IOException		when a font cannot be read.
+	 */
+	public List<Run> split(PDFont font, String text) throws IOException {
+		PdfFontMetrics textMetrics = PdfFontMetrics.getInstance(font);
+		if(textMetrics.canShow(text))
+			return Collections.singletonList(new Run(font, text));
+		boolean replace = textMetrics.canShow(REPLACEMENT);
+		List<Run> runs = new ArrayList<Run>(3);
+		StringBuilder run = new StringBuilder(text.length());
+		int current = NO_FONT;
+		int i = 0;
+		while(i < text.length()){
+			int codePoint = text.codePointAt(i);
+			i += Character.charCount(codePoint);
+			int index = findFont(textMetrics, codePoint);
+			if(index == NO_FONT){
+				if(!replace)
+					continue;
+				index = TEXT_FONT;
+				codePoint = REPLACEMENT;
+			}
+			if(index != current && run.length() > 0){
+				runs.add(new Run(getFont(font, current), run.toString()));
+				run.setLength(0);
+			}
+			current = index;
+			run.appendCodePoint(codePoint);
+		}
+		if(run.length() > 0)
+			runs.add(new Run(getFont(font, current), run.toString()));
+		return runs;
+	}
+
+	/**
+	 * Returns the width of the text, each character measured with the font which shows it, see {@link #split(PDFont, String)}.
+	 * @param font				the font of the text.
+	 * @param fontSize			the size of the fonts.
+	 * @param text				the text to measure.
+	 * @return					the width of the text. In pixels.
+	 * @throws IOException		when a font cannot be read.
+	 */
+	public float getStringWidth(PDFont font, float fontSize, String text) throws IOException {
+		return getStringWidth(PdfFontMetrics.getInstance(font), fontSize, text);
+	}
+
+	/**
+	 * Returns the width of the text, each character measured with the font which shows it.
+	 * @param textMetrics		the metrics of the font of the text.
+	 * @param fontSize			the size of the fonts.
+	 * @param text				the text to measure.
+	 * @return					the width of the text. In pixels.
+	 * @throws IOException		when a font cannot be read.
+	 */
+	public float getStringWidth(PdfFontMetrics textMetrics, float fontSize, String text) throws IOException {
+		if(textMetrics.canShow(text))
+			return textMetrics.getStringWidth(text, fontSize);
+		float width = 0;
+		int i = 0;
+		while(i < text.length()){
+			int codePoint = text.codePointAt(i);
+			width += getCharWidth(textMetrics, codePoint);
+			i += Character.charCount(codePoint);
+		}
+		return width * fontSize / 1000f;
+	}
+
+	/**
+	 * Returns the width of a character measured with the font which shows it, to measure a text character by character.
+	 * @param textMetrics		the metrics of the font of the text.
+	 * @param codePoint			the Unicode code point.
+	 * @return					the width in thousandths of the font size, 0 for a character which is dropped.
+	 * @throws IOException		when a font cannot be read.
+	 */
+	public float getCharWidth(PdfFontMetrics textMetrics, int codePoint) throws IOException {
+		int index = findFont(textMetrics, codePoint);
+		if(index == NO_FONT){
+			if(!textMetrics.canShow(REPLACEMENT))
+				return 0;
+			index = TEXT_FONT;
+			codePoint = REPLACEMENT;
+		}
+		PdfFontMetrics fontMetrics = index == TEXT_FONT ? textMetrics : this.metrics[index];
+		if(Character.isBmpCodePoint(codePoint))
+			return fontMetrics.getCharWidth((char) codePoint);
+		return fontMetrics.getStringWidth(new String(Character.toChars(codePoint)));
+	}
+
+	/**
+	 * Returns the index of the first font which can show the character, TEXT_FONT for the font of the text, NO_FONT if none can.
+	 */
+	private int findFont(PdfFontMetrics textMetrics, int codePoint) throws IOException {
+		if(textMetrics.canShow(codePoint))
+			return TEXT_FONT;
+		for(int f = 0; f < this.metrics.length; f++){
+			if(this.metrics[f].canShow(codePoint))
+				return f;
+		}
+		return NO_FONT;
+	}
+
+	private PDFont getFont(PDFont textFont, int index) {
+		return index >= 0 ? this.fonts[index] : textFont;
+	}
+
+	/**
+	 * Characters shown by the same font.
+	 * @author paquet
+	 *
+	 */
+	public static final class Run {
+		private final PDFont font;
+		private final String text;
+
+		Run(PDFont pfont, String ptext) {
+			this.font = pfont;
+			this.text = ptext;
+		}
+
+		/**
+		 * Returns the font which shows the run.
+		 * @return		the font.
+		 */
+		public PDFont getFont() {
+			return this.font;
+		}
+
+		/**
+		 * Returns the characters of the run.
+		 * @return		the text.
+		 */
+		public String getText() {
+			return this.text;
+		}
+	}
+}
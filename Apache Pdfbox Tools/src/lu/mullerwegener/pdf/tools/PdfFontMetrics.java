@@ -0,0 +1,317 @@
+package lu.mullerwegener.pdf.tools;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDSimpleFont;
+
+/**
+ * Measure strings without encoding them each time.
+ * The advance width of each character is read once from the font and kept in a table of floats,
+ * then the width of a string is the sum of the widths of its characters, as in {@link PDFont#getStringWidth(String)}.
+ * The widths of the last strings measured can also be remembered, see {@link #setStringCacheSize(int)}.
+ * The characters the font can show are kept in a table of bits, see {@link #canShow(int)}.
+ * The instances are shared and can be used by several threads.
+ * @author paquet
+ *
+ */
+public final class PdfFontMetrics {
+	private static final int PAGE_SIZE = 256;
+	private static final long[] NOTHING = new long[PAGE_SIZE / 64];
+	private static final Map<PDFont, PdfFontMetrics> INSTANCES = Collections.synchronizedMap(new WeakHashMap<PDFont, PdfFontMetrics>());
+
+	private final WeakReference<PDFont> font;
+	private final AtomicReferenceArray<float[]> pages;
+	private final AtomicReferenceArray<long[]> coverage;
+	private volatile StringCache strings;
+
+	private PdfFontMetrics(PDFont pfont) {
+		this.font = new WeakReference<PDFont>(pfont);
+		this.pages = new AtomicReferenceArray<float[]>(65536 / PAGE_SIZE);
+		this.coverage = new AtomicReferenceArray<long[]>((Character.MAX_CODE_POINT + 1) / PAGE_SIZE);
+		this.strings = null;
+	}
+
+	/**
+	 * Returns the metrics of the font.
+	 * The fonts of a {@link PdfFontProgram} share the metrics of the program in all the documents.
+	 * @param font		the font to measure with.
+	 * @return			the shared metrics of the font.
+	 */
+	public static PdfFontMetrics getInstance(PDFont font) {
+		if(font instanceof PdfEmbeddedFont)
+			font = ((PdfEmbeddedFont) font).getProgram().getMetricsFont();
+		PdfFontMetrics metrics = INSTANCES.get(font);
+		if(metrics == null){
+			synchronized (INSTANCES) {
+				metrics = INSTANCES.get(font);
+				if(metrics == null){
+					metrics = new PdfFontMetrics(font);
+					INSTANCES.put(font, metrics);
+				}
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 * Change the number of strings whose width is remembered. 0, the default, remembers nothing.
+	 * The strings already remembered are forgotten.
+	 * @param size		the maximum number of strings remembered.
+	 */
+	public void setStringCacheSize(int size) {
+		this.strings = size > 0 ? new StringCache(size) : null;
+	}
+
+	/**
+	 * Returns the width of the text in thousandths of the font size, like {@link PDFont#getStringWidth(String)}.
+	 * @param text				the text to measure.
+	 * @return					the width of the text.
+	 * @throws IOException		when the font cannot be read.
+	 * @throws IllegalArgumentException		when the font cannot show a character of the text.
+	 */
+	public float getStringWidth(String text) throws IOException {
+		StringCache cache = this.strings;
+		if(cache != null){
+			Float known = cache.lookup(text);
+			if(known != null)
+				return known;
+		}
+		float width = 0;
+		for(int i = 0; i < text.length(); i++){
+			char c = text.charAt(i);
+			if(Character.isSurrogate(c)){
+				// rare characters are not in the table
+				int codePoint = text.codePointAt(i);
+				PDFont pdfont = getFont();
+				synchronized (pdfont) {
+					width += pdfont.getStringWidth(new String(Character.toChars(codePoint)));
+				}
+				i += Character.charCount(codePoint) - 1;
+			}else{
+				width += getCharWidth(c);
+			}
+		}
+		if(cache != null)
+			cache.remember(text, width);
+		return width;
+	}
+
+	/**
+	 * Returns the width of the text in pixels for the size of font.
+	 * @param text				the text to measure.
+	 * @param fontSize			the size of the font.
+	 * @return					the width of the text.
+	 * @throws IOException		when the font cannot be read.
+	 * @throws IllegalArgumentException		when the font cannot show a character of the text.
+	 */
+	public float getStringWidth(String text, float fontSize) throws IOException {
+		return getStringWidth(text) * fontSize / 1000f;
+	}
+
+	/**
+	 * Returns the advance width of the character in thousandths of the font size.
+	 * @param c					the character.
+	 * @return					the width of the character.
+	 * @throws IOException		when the font cannot be read.
+	 * @throws IllegalArgumentException		when the font cannot show the character.
+	 */
+	public float getCharWidth(char c) throws IOException {
+		float[] page = this.pages.get(c / PAGE_SIZE);
+		if(page == null)
+			page = loadPage(c / PAGE_SIZE);
+		float width = page[c % PAGE_SIZE];
+		if(Float.isNaN(width))
+			throw new IllegalArgumentException("No glyph for U+" + String.format("%04X", (int) c) + " in font " + getFont().getName());
+		return width;
+	}
+
+	/**
+	 * Returns wether the font can show the character.
+	 * @param c					the character.
+	 * @return					true if the font has a width for the character.
+	 * @throws IOException		when the font cannot be read.
+	 */
+	public boolean canMeasure(char c) throws IOException {
+		float[] page = this.pages.get(c / PAGE_SIZE);
+		if(page == null)
+			page = loadPage(c / PAGE_SIZE);
+		return !Float.isNaN(page[c % PAGE_SIZE]);
+	}
+
+	/**
+	 * Returns wether the font can show the character, without encoding it.
+	 * The characters of the font are read once, then it is a lookup in a table of bits.
+	 * @param codePoint			the Unicode code point.
+	 * @return					true if the font has a glyph for the character.
+	 * @throws IOException		when the font cannot be read.
+	 */
+	public boolean canShow(int codePoint) throws IOException {
+		long[] block = this.coverage.get(codePoint / PAGE_SIZE);
+		if(block == null)
+			block = loadCoverage(codePoint / PAGE_SIZE);
+		return (block[codePoint % PAGE_SIZE / 64] & 1L << codePoint) != 0;
+	}
+
+	/**
+	 * Returns wether the font can show all the characters of the text, see {@link #canShow(int)}.
+	 * @param text				the text.
+	 * @return					true if the font has a glyph for each character.
+	 * @throws IOException		when the font cannot be read.
+	 */
+	public boolean canShow(String text) throws IOException {
+		int i = 0;
+		while(i < text.length()){
+			int codePoint = text.codePointAt(i);
+			if(!canShow(codePoint))
+				return false;
+			i += Character.charCount(codePoint);
+		}
+		return true;
+	}
+
+	/**
+	 * Read from the font the widths of a block of 256 characters.
+	 * The characters the font cannot encode have a NaN width.
+	 * @param index				the index of the block.
+	 * @return					the widths of the block.
+	 * @throws IOException		when the font cannot be read.
+	 */
+	private float[] loadPage(int index) throws IOException {
+		PDFont pdfont = getFont();
+		float[] page = new float[PAGE_SIZE];
+		// the caches of the fonts which are not standard are not thread safe
+		synchronized (pdfont) {
+			for(int i = 0; i < PAGE_SIZE; i++){
+				char c = (char) (index * PAGE_SIZE + i);
+				if(Character.isSurrogate(c)){
+					page[i] = Float.NaN;
+					continue;
+				}
+				try{
+					page[i] = pdfont.getStringWidth(String.valueOf(c));
+				}catch(IllegalArgumentException e){
+					page[i] = Float.NaN;
+				}
+			}
+		}
+		// two threads may load the same block, they find the same widths
+		this.pages.compareAndSet(index, null, page);
+		return this.pages.get(index);
+	}
+
+	/**
+	 * Read which characters of a block of 256 code points the font can show.
+	 * The characters of a {@link PdfFontProgram} come from its cmap and the ones of a simple font from its encoding, so all the blocks are set at once.
+	 * The blocks of the other fonts are read one by one, from the widths for the basic plane.
+	 * @param index				the index of the block.
+	 * @return					the bits of the block.
+	 * @throws IOException		when the font cannot be read.
+	 */
+	private long[] loadCoverage(int index) throws IOException {
+		PDFont pdfont = getFont();
+		BitSet characters = listCharacters(pdfont);
+		if(characters != null){
+			for(int codePoint = characters.nextSetBit(0); codePoint >= 0 && codePoint / PAGE_SIZE < this.coverage.length(); codePoint = characters.nextSetBit((codePoint / PAGE_SIZE + 1) * PAGE_SIZE)){
+				int block = codePoint / PAGE_SIZE;
+				long[] bits = Arrays.copyOf(characters.get(block * PAGE_SIZE, (block + 1) * PAGE_SIZE).toLongArray(), PAGE_SIZE / 64);
+				this.coverage.compareAndSet(block, null, bits);
+			}
+			for(int block = 0; block < this.coverage.length(); block++)
+				this.coverage.compareAndSet(block, null, NOTHING);
+			return this.coverage.get(index);
+		}
+		long[] bits = new long[PAGE_SIZE / 64];
+		if(index < this.pages.length()){
+			float[] page = this.pages.get(index);
+			if(page == null)
+				page = loadPage(index);
+			for(int i = 0; i < PAGE_SIZE; i++){
+				if(!Float.isNaN(page[i]))
+					bits[i / 64] |= 1L << i;
+			}
+		}else{
+			synchronized (pdfont) {
+				for(int i = 0; i < PAGE_SIZE; i++){
+					try{
+						pdfont.encode(new String(Character.toChars(index * PAGE_SIZE + i)));
+						bits[i / 64] |= 1L << i;
+					}catch(IllegalArgumentException e){
+						// no glyph for the character
+					}
+				}
+			}
+		}
+		// two threads may load the same block, they find the same bits
+		this.coverage.compareAndSet(index, null, bits);
+		return this.coverage.get(index);
+	}
+
+	/**
+	 * Returns the characters the font can show when they are known without trying each code point, null otherwise.
+	 * The few characters named by the encoding of a simple font are encoded once, the name of a glyph can be an alias.
+	 */
+	private static BitSet listCharacters(PDFont pdfont) throws IOException {
+		if(pdfont instanceof PdfEmbeddedFont)
+			return ((PdfEmbeddedFont) pdfont).getProgram().getCoverage();
+		if(!(pdfont instanceof PDSimpleFont) || ((PDSimpleFont) pdfont).getEncoding() == null)
+			return null;
+		PDSimpleFont simple = (PDSimpleFont) pdfont;
+		BitSet characters = new BitSet();
+		synchronized (pdfont) {
+			for(String name : simple.getEncoding().getCodeToNameMap().values()){
+				String unicode = simple.getGlyphList().toUnicode(name);
+				if(unicode == null || unicode.codePointCount(0, unicode.length()) != 1)
+					continue;
+				try{
+					pdfont.encode(unicode);
+					characters.set(unicode.codePointAt(0));
+				}catch(IllegalArgumentException e){
+					// the font has no glyph for the name
+				}
+			}
+		}
+		return characters;
+	}
+
+	private PDFont getFont() {
+		PDFont pdfont = this.font.get();
+		if(pdfont == null)
+			throw new IllegalStateException("The font was garbage collected");
+		return pdfont;
+	}
+
+	/**
+	 * The widths of the last strings measured.
+	 */
+	private static class StringCache {
+		private final LinkedHashMap<String, Float> widths;
+
+		StringCache(final int size) {
+			this.widths = new LinkedHashMap<String, Float>(Math.min(size, 1024), 0.75f, true){
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Float> eldest) {
+					return size() > size;
+				}
+			};
+		}
+
+		synchronized Float lookup(String text) {
+			return this.widths.get(text);
+		}
+
+		synchronized void remember(String text, float width) {
+			this.widths.put(text, width);
+		}
+	}
+}
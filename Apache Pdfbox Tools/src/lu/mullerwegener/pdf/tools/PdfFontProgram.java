@@ -0,0 +1,215 @@
+package lu.mullerwegener.pdf.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.fontbox.ttf.CmapSubtable;
+import org.apache.fontbox.ttf.TTFParser;
+import org.apache.fontbox.ttf.TrueTypeFont;
+import org.apache.fontbox.util.BoundingBox;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
+
+/**
+ * A TrueType font file parsed once for the whole process, from which each document embeds only the glyphs it shows.
+ * <p>
+ * The programs are kept by the path of their file, the date of its last modification and its size, like the images of a {@link PdfImageCache}.
+ * A program is read entirely when it is loaded, then it is only read, so it can be shared by all the threads and all the documents.
+ * The font of a document, given by {@link PdfTools#getFont(PdfFontProgram)}, is built from dictionaries prepared once
+ * and records the characters shown; the subset of the program is written when the document is saved.
+ * The OpenType fonts with TrueType outlines are supported, not the ones with CFF outlines.
+ * @author paquet
+ *
+ */
+public final class PdfFontProgram {
+	private static final Map<FontKey, PdfFontProgram> PROGRAMS = new HashMap<FontKey, PdfFontProgram>();
+	// the dictionaries of a subset are built for each document
+	private static final Set<COSName> SUBSET_KEYS = new HashSet<COSName>(Arrays.asList(COSName.FONT_FILE2, COSName.W, COSName.CID_TO_GID_MAP, COSName.TO_UNICODE, COSName.CID_SET));
+
+	private final String name;
+	private final TrueTypeFont ttf;
+	private final CmapSubtable cmap;
+	private final float[] widths;
+	// the characters which have a glyph
+	private final BitSet coverage;
+	private final BoundingBox boundingBox;
+	private final PdfCosSnapshot dictionaries;
+	private final PdfEmbeddedFont metricsFont;
+
+	private PdfFontProgram(byte[] data) throws IOException {
+		// the data stays in the heap: closing the font after a subset does not close it for the other documents
+		this.ttf = new TTFParser().parse(new ByteArrayInputStream(data));
+		if(!this.ttf.getTableMap().containsKey("glyf"))
+			throw new IOException("Only the fonts with TrueType outlines can be embedded");
+		this.name = this.ttf.getName();
+		this.cmap = this.ttf.getUnicodeCmap();
+		if(this.cmap == null)
+			throw new IOException("The font " + this.name + " has no Unicode cmap");
+		float scale = 1000f / this.ttf.getUnitsPerEm();
+		this.widths = new float[this.ttf.getNumberOfGlyphs()];
+		for(int gid = 0; gid < this.widths.length; gid++)
+			this.widths[gid] = this.ttf.getAdvanceWidth(gid) * scale;
+		this.coverage = new BitSet();
+		for(int gid = 1; gid < this.widths.length; gid++){
+			List<Integer> codePoints = this.cmap.getCharCodes(gid);
+			if(codePoints != null){
+				for(int codePoint : codePoints)
+					this.coverage.set(codePoint);
+			}
+		}
+		BoundingBox box = this.ttf.getFontBBox();
+		this.boundingBox = new BoundingBox(box.getLowerLeftX() * scale, box.getLowerLeftY() * scale, box.getUpperRightX() * scale, box.getUpperRightY() * scale);
+		// the dictionaries are the ones PDFBox writes, without the subset
+		PDDocument doc = new PDDocument();
+		try{
+			PDType0Font font = PDType0Font.load(doc, this.ttf, true);
+			this.dictionaries = PdfCosSnapshot.capture(font.getCOSObject(), SUBSET_KEYS);
+		}finally{
+			doc.close();
+		}
+		this.metricsFont = new PdfEmbeddedFont(this, null);
+	}
+
+	/**
+	 * Returns the program of the font file, parsed only the first time it is asked for.
+	 * The file is parsed again if it was modified since.
+	 * @param path				the path of the TrueType or OpenType file.
+	 * @return					the shared program.
+	 * @throws IOException		when the file cannot be read or its font cannot be embedded.
+	 */
+	public static synchronized PdfFontProgram load(String path) throws IOException {
+		File file = new File(path);
+		FontKey key = new FontKey(file.getAbsolutePath(), file.lastModified(), file.length());
+		PdfFontProgram program = PROGRAMS.get(key);
+		if(program != null)
+			return program;
+		program = new PdfFontProgram(Files.readAllBytes(file.toPath()));
+		// an older version of the file is not needed anymore
+		Iterator<FontKey> it = PROGRAMS.keySet().iterator();
+		while(it.hasNext()){
+			if(it.next().path.equals(key.path))
+				it.remove();
+		}
+		PROGRAMS.put(key, program);
+		return program;
+	}
+
+	/**
+	 * Forget the programs loaded. The fonts of the documents already created can still be used.
+	 */
+	public static synchronized void clear() {
+		PROGRAMS.clear();
+	}
+
+	/**
+	 * Returns the PostScript name of the font.
+	 * @return		the name of the font.
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Returns the number of glyphs of the program.
+	 * @return		the number of glyphs.
+	 */
+	public int getNumberOfGlyphs() {
+		return this.widths.length;
+	}
+
+	/**
+	 * Returns the glyph of a character.
+	 * @param codePoint		the Unicode code point.
+	 * @return				the glyph id, 0 if the font has no glyph for the character.
+	 */
+	int getGlyphId(int codePoint) {
+		int gid = this.cmap.getGlyphId(codePoint);
+		return gid < this.widths.length ? gid : 0;
+	}
+
+	/**
+	 * Returns the advance width of a glyph in thousandths of the font size.
+	 * @param gid		the glyph id.
+	 * @return			the width, 0 for an unknown glyph.
+	 */
+	float getWidth(int gid) {
+		return gid >= 0 && gid < this.widths.length ? this.widths[gid] : 0;
+	}
+
+	/**
+	 * Returns the characters which have a glyph, read once from the cmap. The set must not be changed.
+	 * @return		the code points of the characters.
+	 */
+	BitSet getCoverage() {
+		return this.coverage;
+	}
+
+	BoundingBox getBoundingBox() {
+		return this.boundingBox;
+	}
+
+	TrueTypeFont getTrueTypeFont() {
+		return this.ttf;
+	}
+
+	/**
+	 * Returns a copy of the dictionaries of the font, without the font file nor the widths, to complete with a subset.
+	 * @return					the Type0 font dictionary.
+	 * @throws IOException		never, the dictionaries have no stream.
+	 */
+	COSDictionary createDictionaries() throws IOException {
+		return (COSDictionary) this.dictionaries.materialize(null);
+	}
+
+	/**
+	 * Returns the font which measures the texts for all the documents, see {@link PdfFontMetrics#getInstance(PDFont)}.
+	 * It does not belong to any document.
+	 * @return		the font.
+	 */
+	PdfEmbeddedFont getMetricsFont() {
+		return this.metricsFont;
+	}
+
+	/**
+	 * What identifies the content of a font file.
+	 */
+	private static final class FontKey {
+		final String path;
+		final long lastModified;
+		final long length;
+
+		FontKey(String ppath, long plastModified, long plength) {
+			this.path = ppath;
+			this.lastModified = plastModified;
+			this.length = plength;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof FontKey))
+				return false;
+			FontKey other = (FontKey) o;
+			return path.equals(other.path) && lastModified == other.lastModified && length == other.length;
+		}
+
+		@Override
+		public int hashCode() {
+			int h = path.hashCode();
+			h = 31 * h + (int) (lastModified ^ (lastModified >>> 32));
+			return 31 * h + (int) (length ^ (length >>> 32));
+		}
+	}
+}
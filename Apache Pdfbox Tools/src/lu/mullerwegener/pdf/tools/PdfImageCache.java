@@ -0,0 +1,165 @@
+package lu.mullerwegener.pdf.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+/**
+ * Keep the images of a document so an image file drawn on several pages is read and embedded once.
+ * The images are identified by their path, the date of the last modification of the file and its size.
+ * <p>
+ * The encoded images can also be shared between documents, for example in a batch generating many documents with the same logo.
+ * This shared cache is disabled until a memory budget is given with {@link #setSharedMemoryBudget(long)}.
+ * @author paquet
+ *
+ */
+public class PdfImageCache {
+	private static final LinkedHashMap<ImageKey, PdfCosSnapshot> SHARED = new LinkedHashMap<ImageKey, PdfCosSnapshot>(16, 0.75f, true);
+	private static long sharedBudget = 0;
+	private static long sharedUsed = 0;
+
+	private final PDDocument doc;
+	private final Map<ImageKey, PDImageXObject> images;
+
+	/**
+	 * Create an empty cache for the document.
+	 * @param pdoc		the document where the images are embedded.
+	 */
+	public PdfImageCache(PDDocument pdoc) {
+		this.doc = pdoc;
+		this.images = new HashMap<ImageKey, PDImageXObject>();
+	}
+
+	/**
+	 * Returns the image of the file, read only the first time it is asked for the document.
+	 * The file is read again if it was modified since.
+	 * The pages of the document can ask their images from several threads.
+	 * @param chemin			path of the image file
+	 * @return					the image embedded in the document.
+	 * @throws IOException		when the image cannot be read.
+	 */
+	public synchronized PDImageXObject getImage(String chemin) throws IOException {
+		File file = new File(chemin);
+		ImageKey key = new ImageKey(file.getAbsolutePath(), file.lastModified(), file.length());
+		PDImageXObject image = this.images.get(key);
+		if(image != null)
+			return image;
+		PdfCosSnapshot shared = getShared(key);
+		if(shared != null){
+			image = new PDImageXObject(new PDStream((COSStream) shared.materialize(this.doc)), null);
+		}else{
+			image = PDImageXObject.createFromFile(chemin, this.doc);
+			if(getSharedMemoryBudget() > 0)
+				putShared(key, PdfCosSnapshot.capture(image.getCOSObject()));
+		}
+		// an older version of the file is not needed anymore
+		Iterator<ImageKey> it = this.images.keySet().iterator();
+		while(it.hasNext()){
+			if(it.next().path.equals(key.path))
+				it.remove();
+		}
+		this.images.put(key, image);
+		return image;
+	}
+
+	/**
+	 * Forget the images of the document.
+	 */
+	public synchronized void clear() {
+		this.images.clear();
+	}
+
+	/**
+	 * Set the memory available to share the encoded images between documents.
+	 * The images used the least recently are forgotten first. 0 disables the shared cache.
+	 * @param bytes			the maximum number of bytes of encoded images kept.
+	 */
+	public static synchronized void setSharedMemoryBudget(long bytes) {
+		sharedBudget = Math.max(0, bytes);
+		evict();
+	}
+
+	/**
+	 * Returns the memory available to share the encoded images between documents.
+	 * @return		the maximum number of bytes of encoded images kept.
+	 */
+	public static synchronized long getSharedMemoryBudget() {
+		return sharedBudget;
+	}
+
+	/**
+	 * Returns the memory used by the images shared between documents.
+	 * @return		the number of bytes of encoded images kept.
+	 */
+	public static synchronized long getSharedMemoryUsed() {
+		return sharedUsed;
+	}
+
+	/**
+	 * Forget the images shared between documents.
+	 */
+	public static synchronized void clearShared() {
+		SHARED.clear();
+		sharedUsed = 0;
+	}
+
+	private static synchronized PdfCosSnapshot getShared(ImageKey key) {
+		return SHARED.get(key);
+	}
+
+	private static synchronized void putShared(ImageKey key, PdfCosSnapshot snapshot) {
+		if(snapshot.getSize() > sharedBudget)
+			return;
+		PdfCosSnapshot old = SHARED.put(key, snapshot);
+		if(old != null)
+			sharedUsed -= old.getSize();
+		sharedUsed += snapshot.getSize();
+		evict();
+	}
+
+	private static void evict() {
+		Iterator<PdfCosSnapshot> it = SHARED.values().iterator();
+		while(sharedUsed > sharedBudget && it.hasNext()){
+			sharedUsed -= it.next().getSize();
+			it.remove();
+		}
+	}
+
+	/**
+	 * What identifies the content of an image file.
+	 */
+	private static final class ImageKey {
+		final String path;
+		final long lastModified;
+		final long length;
+
+		ImageKey(String ppath, long plastModified, long plength) {
+			this.path = ppath;
+			this.lastModified = plastModified;
+			this.length = plength;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof ImageKey))
+				return false;
+			ImageKey other = (ImageKey) o;
+			return path.equals(other.path) && lastModified == other.lastModified && length == other.length;
+		}
+
+		@Override
+		public int hashCode() {
+			int h = path.hashCode();
+			h = 31 * h + (int) (lastModified ^ (lastModified >>> 32));
+			return 31 * h + (int) (length ^ (length >>> 32));
+		}
+	}
+}
@@ -0,0 +1,233 @@
+package lu.mullerwegener.pdf.tools;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.pdfbox.pdmodel.font.PDFont;
+
+/**
+ * Break a text in lines which fit in a width.
+ * The lines are cut at the spaces, a word longer than the width is cut where it does not fit anymore,
+ * and each line feed starts a new line. The characters are measured with the widths of {@link PdfFontMetrics}.
+ * The lines of the last texts broken are remembered, so the values repeated in a table are broken only once,
+ * see {@link #setCacheSize(int)}.
+ * The instances are shared and can be used by several threads.
+ * @author paquet
+ *
+ */
+public final class PdfLineBreaker {
+	private static final int DEFAULT_CACHE_SIZE = 1024;
+	private static final Map<PDFont, PdfLineBreaker> INSTANCES = Collections.synchronizedMap(new WeakHashMap<PDFont, PdfLineBreaker>());
+
+	private final PdfFontMetrics metrics;
+	private volatile LineCache lines;
+
+	private PdfLineBreaker(PDFont pfont) {
+		this.metrics = PdfFontMetrics.getInstance(pfont);
+		this.lines = new LineCache(DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * Returns the line breaker of the font.
+	 * @param font		the font of the texts.
+	 * @return			the shared line breaker of the font.
+	 */
+	public static PdfLineBreaker getInstance(PDFont font) {
+		PdfLineBreaker breaker = INSTANCES.get(font);
+		if(breaker == null){
+			synchronized (INSTANCES) {
+				breaker = INSTANCES.get(font);
+				if(breaker == null){
+					breaker = new PdfLineBreaker(font);
+					INSTANCES.put(font, breaker);
+				}
+			}
+		}
+		return breaker;
+	}
+
+	/**
+	 * Change the number of texts whose lines are remembered, 1024 by default. 0 remembers nothing.
+	 * The lines already remembered are forgotten.
+	 * @param size		the maximum number of texts remembered.
+	 */
+	public void setCacheSize(int size) {
+		this.lines = size > 0 ? new LineCache(size) : null;
+	}
+
+	/**
+	 * Returns the metrics used to measure the lines.
+	 * @return		the metrics of the font.
+	 */
+	public PdfFontMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * Break the text in lines no wider than maxWidth.
+	 * A line is wider only when it holds a single character.
+	 * @param text				the text to break.
+	 * @param fontSize			the size of the font.
+	 * @param maxWidth			the width available for each line. In pixels.
+	 * @return					the lines, at least one. The list cannot be changed.
+	 * @throws IOException		when the font cannot be read.
+	 * @throws IllegalArgumentException		when the font cannot show a character of the text.
+	 */
+	public List<String> breakLines(String text, float fontSize, float maxWidth) throws IOException {
+		return breakLines(text, fontSize, maxWidth, null);
+	}
+
+	/**
+	 * Break the text in lines no wider than maxWidth, the characters the font cannot show measured with the fallback fonts which show them.
+	 * The lines of a text the font cannot show entirely are not remembered.
+	 * @param text				the text to break.
+	 * @param fontSize			the size of the font.
+	 * @param maxWidth			the width available for each line. In pixels.
+	 * @param fallback			the fallback fonts, null for none.
+	 * @return					the lines, at least one. The list cannot be changed.
+	 * @throws IOException		when a font cannot be read.
+	 * @throws IllegalArgumentException		when the font cannot show a character of the text and there is no fallback.
+	 */
+	public List<String> breakLines(String text, float fontSize, float maxWidth, PdfFontFallback fallback) throws IOException {
+		if(fallback != null && this.metrics.canShow(text))
+			fallback = null;
+		// the lines only depend on the width in thousandths of the font size
+		float limit = maxWidth * 1000f / fontSize;
+		LineCache cache = fallback == null ? this.lines : null;
+		Key key = null;
+		if(cache != null){
+			key = new Key(text, limit);
+			List<String> known = cache.lookup(key);
+			if(known != null)
+				return known;
+		}
+		List<String> result = new ArrayList<String>(2);
+		int start = 0;
+		int feed;
+		while((feed = text.indexOf('\n', start)) >= 0){
+			breakParagraph(text, start, feed > start && text.charAt(feed - 1) == '\r' ? feed - 1 : feed, limit, fallback, result);
+			start = feed + 1;
+		}
+		breakParagraph(text, start, text.length(), limit, fallback, result);
+		result = result.size() == 1 ? Collections.singletonList(result.get(0)) : Collections.unmodifiableList(result);
+		if(cache != null)
+			cache.remember(key, result);
+		return result;
+	}
+
+	/**
+	 * Break the characters between start and end, which hold no line feed.
+	 */
+	private void breakParagraph(String text, int start, int end, float limit, PdfFontFallback fallback, List<String> result) throws IOException {
+		int lineStart = start;
+		int lastSpace = -1;
+		float width = 0;
+		int i = start;
+		while(i < end){
+			char c = text.charAt(i);
+			int count = Character.isHighSurrogate(c) && i + 1 < end ? 2 : 1;
+			float charWidth = measure(text, i, i + count, fallback);
+			if(c != ' ' && i > lineStart && width + charWidth > limit){
+				if(lastSpace > lineStart){
+					result.add(trimEnd(text, lineStart, lastSpace));
+					lineStart = lastSpace + 1;
+					width = measure(text, lineStart, i, fallback);
+				}else{
+					result.add(text.substring(lineStart, i));
+					lineStart = i;
+					width = 0;
+				}
+				lastSpace = -1;
+				// the character is measured again against the new line
+				continue;
+			}
+			if(c == ' ')
+				lastSpace = i;
+			width += charWidth;
+			i += count;
+		}
+		result.add(trimEnd(text, lineStart, end));
+	}
+
+	private float measure(String text, int start, int end, PdfFontFallback fallback) throws IOException {
+		float width = 0;
+		for(int i = start; i < end; i++){
+			char c = text.charAt(i);
+			if(fallback != null){
+				int codePoint = Character.isHighSurrogate(c) && i + 1 < end ? text.codePointAt(i) : c;
+				width += fallback.getCharWidth(this.metrics, codePoint);
+				i += Character.charCount(codePoint) - 1;
+			}else if(Character.isSurrogate(c)){
+				int count = Character.isHighSurrogate(c) && i + 1 < end ? 2 : 1;
+				width += this.metrics.getStringWidth(text.substring(i, i + count));
+				i += count - 1;
+			}else{
+				width += this.metrics.getCharWidth(c);
+			}
+		}
+		return width;
+	}
+
+	private static String trimEnd(String text, int start, int end) {
+		while(end > start && text.charAt(end - 1) == ' ')
+			end--;
+		return text.substring(start, end);
+	}
+
+	/**
+	 * A text and the width where it is broken.
+	 */
+	private static final class Key {
+		final String text;
+		final float limit;
+
+		Key(String ptext, float plimit) {
+			this.text = ptext;
+			this.limit = plimit;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Key))
+				return false;
+			Key other = (Key) o;
+			return Float.floatToIntBits(this.limit) == Float.floatToIntBits(other.limit) && this.text.equals(other.text);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * this.text.hashCode() + Float.floatToIntBits(this.limit);
+		}
+	}
+
+	/**
+	 * The lines of the last texts broken.
+	 */
+	private static class LineCache {
+		private final LinkedHashMap<Key, List<String>> lines;
+
+		LineCache(final int size) {
+			this.lines = new LinkedHashMap<Key, List<String>>(Math.min(size, 1024), 0.75f, true){
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Key, List<String>> eldest) {
+					return size() > size;
+				}
+			};
+		}
+
+		synchronized List<String> lookup(Key key) {
+			return this.lines.get(key);
+		}
+
+		synchronized void remember(Key key, List<String> value) {
+			this.lines.put(key, value);
+		}
+	}
+}
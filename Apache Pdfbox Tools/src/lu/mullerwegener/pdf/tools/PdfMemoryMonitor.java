@@ -0,0 +1,107 @@
+package lu.mullerwegener.pdf.tools;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measure the peak of the heap used while a document is built.
+ * The heap is sampled every 10 milliseconds by a thread shared by all the monitors, and each time the peak is asked,
+ * so a peak shorter than a sample may be missed. The heap is shared, so the peaks include the memory used by the other threads.
+ * The peaks kept by the JVM are left as they are, so the documents built at the same time are each measured from their own start.
+ * @author paquet
+ *
+ */
+public final class PdfMemoryMonitor {
+	private static final long SAMPLING_PERIOD = 10;
+	// the monitors of the documents still referenced, forgotten with them
+	private static final Set<PdfMemoryMonitor> MONITORS = Collections.newSetFromMap(new WeakHashMap<PdfMemoryMonitor, Boolean>());
+	private static ScheduledExecutorService sampler;
+	private static ScheduledFuture<?> sampling;
+
+	private final long startHeapUsed;
+	private final AtomicLong peakHeapUsed;
+
+	/**
+	 * Start measuring.
+	 */
+	public PdfMemoryMonitor() {
+		this.startHeapUsed = getHeapUsed();
+		this.peakHeapUsed = new AtomicLong(this.startHeapUsed);
+		synchronized (MONITORS) {
+			MONITORS.add(this);
+			if(sampling == null){
+				if(sampler == null)
+					sampler = Executors.newSingleThreadScheduledExecutor(new PdfThreadFactory("pdf-memory"));
+				sampling = sampler.scheduleWithFixedDelay(new Runnable() {
+					@Override
+					public void run() {
+						sampleAll();
+					}
+				}, SAMPLING_PERIOD, SAMPLING_PERIOD, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	/**
+	 * Record the heap used now in every monitor, and stop sampling when there is no monitor anymore.
+	 */
+	private static void sampleAll() {
+		PdfMemoryMonitor[] monitors;
+		synchronized (MONITORS) {
+			if(MONITORS.isEmpty()){
+				sampling.cancel(false);
+				sampling = null;
+				return;
+			}
+			monitors = MONITORS.toArray(new PdfMemoryMonitor[MONITORS.size()]);
+		}
+		long used = getHeapUsed();
+		for(PdfMemoryMonitor monitor : monitors)
+			monitor.record(used);
+	}
+
+	private void record(long used) {
+		long peak = this.peakHeapUsed.get();
+		while(used > peak && !this.peakHeapUsed.compareAndSet(peak, used))
+			peak = this.peakHeapUsed.get();
+	}
+
+	/**
+	 * Returns the heap used when the monitor was created.
+	 * @return		the number of bytes used.
+	 */
+	public long getStartHeapUsed() {
+		return this.startHeapUsed;
+	}
+
+	/**
+	 * Returns the heap used now, garbage included.
+	 * @return		the number of bytes used.
+	 */
+	public static long getHeapUsed() {
+		long used = 0;
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+			if(pool.getType() == MemoryType.HEAP && pool.isValid())
+				used += pool.getUsage().getUsed();
+		}
+		return used;
+	}
+
+	/**
+	 * Returns the most heap used since the monitor was created, garbage included, as sampled.
+	 * @return		the number of bytes used.
+	 */
+	public long getPeakHeapUsed() {
+		record(getHeapUsed());
+		return this.peakHeapUsed.get();
+	}
+}
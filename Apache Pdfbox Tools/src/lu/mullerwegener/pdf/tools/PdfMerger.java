@@ -0,0 +1,132 @@
+package lu.mullerwegener.pdf.tools;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+
+/**
+ * Put documents one after the other in a single document, for example the invoices of a night in one file to print.
+ * <p>
+ * The documents are appended in order, one at a time: their pages are copied with what they refer to, then the document can be closed.
+ * The streams are copied as they are encoded, and the streams and the fonts identical to ones already copied,
+ * such as the fonts embedded by each document or a logo drawn by {@link PdfTools#drawImage(org.apache.pdfbox.pdmodel.PDPageContentStream, String, float, float, float, float) drawImage},
+ * are not copied again but shared by the pages.
+ * The streams of the merged document are kept in the heap up to the memory limit of the factory, the rest in a scratch file,
+ * so only the largest document appended and the dictionaries of the pages are kept entirely in the heap.
+ * The bookmarks, the forms and the other objects of the catalog of the documents are not copied.
+ * @author paquet
+ *
+ */
+public class PdfMerger implements Closeable {
+	private final PDDocument output;
+	private final PdfCosSnapshot.Pool pool;
+	private long appendedBytes;
+	private int documents;
+
+	/**
+	 * Create a merger whose document has the memory settings of the factory.
+	 * @param factory		the memory settings of the merged document, see {@link PdfToolsFactory#withMemoryLimit(long, File)}.
+	 */
+	public PdfMerger(PdfToolsFactory factory) {
+		this.output = factory.createDocument();
+		this.pool = new PdfCosSnapshot.Pool();
+	}
+
+	/**
+	 * Append the pages of a file.
+	 * @param input				the PDF file, opened then closed.
+	 * @throws IOException		when the file cannot be read.
+	 */
+	public void append(File input) throws IOException {
+		// the file is read where it is, only the streams created by PDFBox would need a scratch file
+		PDDocument doc = PDDocument.load(input, MemoryUsageSetting.setupTempFileOnly());
+		try{
+			append(doc);
+		}finally{
+			doc.close();
+		}
+	}
+
+	/**
+	 * Append the pages of a document. The document is not changed and can be closed as soon as this method returns.
+	 * @param input				the document.
+	 * @throws IOException		when the document cannot be read.
+	 */
+	public void append(PDDocument input) throws IOException {
+		List<PDPage> pages = new ArrayList<PDPage>(input.getNumberOfPages());
+		for(PDPage page : input.getPages())
+			pages.add(page);
+		PdfCosSnapshot snapshot = PdfCosSnapshot.capturePages(pages, new IdentityHashMap<COSBase, COSBase>());
+		snapshot.addPages(this.output, this.pool);
+		this.appendedBytes += snapshot.getSize();
+		this.documents++;
+	}
+
+	/**
+	 * Returns the number of documents appended.
+	 * @return		the number of documents.
+	 */
+	public int getNumberOfDocuments() {
+		return this.documents;
+	}
+
+	/**
+	 * Returns the number of bytes of the streams of the documents appended, as if nothing was shared.
+	 * @return		the bytes of the streams appended.
+	 */
+	public long getAppendedBytes() {
+		return this.appendedBytes;
+	}
+
+	/**
+	 * Returns the number of bytes of the streams which are shared instead of being copied again.
+	 * @return		the bytes saved.
+	 */
+	public long getSharedBytes() {
+		return this.pool.getSharedBytes();
+	}
+
+	/**
+	 * Returns the merged document. It is closed with the merger.
+	 * @return		the merged document.
+	 */
+	public PDDocument getDocument() {
+		return this.output;
+	}
+
+	/**
+	 * Save the merged document. More documents can be appended afterwards.
+	 * @param out				where the document is written.
+	 * @throws IOException		when the document cannot be written.
+	 */
+	public void save(OutputStream out) throws IOException {
+		this.output.save(out);
+	}
+
+	/**
+	 * Save the merged document in a file. More documents can be appended afterwards.
+	 * @param file				the file, replaced if it exists.
+	 * @throws IOException		when the document cannot be written.
+	 */
+	public void save(File file) throws IOException {
+		this.output.save(file);
+	}
+
+	/**
+	 * Close the merged document and delete its scratch file.
+	 * @throws IOException		when the document cannot be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		this.output.close();
+	}
+}
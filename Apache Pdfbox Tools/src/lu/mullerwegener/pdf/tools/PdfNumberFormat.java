@@ -0,0 +1,468 @@
+package lu.mullerwegener.pdf.tools;
+
+import java.math.BigDecimal;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Format amounts with a fixed number of decimals, rounded HALF_UP, without creating any object.
+ * The number is rounded as the decimal written by {@link Float#toString(float)}, like {@link PdfTools#round(float, int, boolean)} does:
+ * 2.675f gives 2,68 even if the float is a bit less than 2.675.
+ * <p>
+ * The text is written in a buffer of the format, which is reused by the next call, so an instance must be used by one thread at a time.
+ * {@link #format(float)} returns a view of the buffer, {@link #format(float, StringBuilder)} and {@link #format(float, char[], int)} copy it,
+ * and {@link #formatToString(float)} creates the String a cell needs.
+ * @author paquet
+ *
+ */
+public final class PdfNumberFormat {
+	/**
+	 * The largest number of decimals supported.
+	 */
+	public static final int MAX_DECIMALS = 9;
+	private static final double[] POWERS = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10};
+	private static final long NINE_DIGITS = 1000000000L;
+	// the units and the tens of 0 to 99
+	private static final char[] ONES = new char[100];
+	private static final char[] TENS = new char[100];
+	static {
+		for(int i = 0; i < 100; i++){
+			ONES[i] = (char) ('0' + i % 10);
+			TENS[i] = (char) ('0' + i / 10);
+		}
+	}
+	// beyond, the floats are integers and Float.toString writes 9 digits even when fewer would do
+	private static final float TWO_POW_24 = 16777216f;
+	// below, a double holds the halves exactly
+	private static final double TWO_POW_52 = 4503599627370496d;
+	// used by PdfTools.round, one format for each number of decimals and display of zero
+	private static final ThreadLocal<PdfNumberFormat[]> ROUND = new ThreadLocal<PdfNumberFormat[]>() {
+		@Override
+		protected PdfNumberFormat[] initialValue() {
+			return new PdfNumberFormat[2 * (MAX_DECIMALS + 1)];
+		}
+	};
+
+	private final int decimals;
+	private char decimalSeparator;
+	private char groupingSeparator;
+	private boolean blankIfZero;
+	private int width;
+	private char[] buffer;
+	// the text is at the end of the buffer
+	private int start;
+	private int length;
+	private final CharSequence view;
+
+	/**
+	 * Create a format with the number of decimals, a comma between the integer part and the decimals, and no grouping of the thousands.
+	 * @param pdecimals		the number of decimals, from 0 to {@link #MAX_DECIMALS}.
+	 */
+	public PdfNumberFormat(int pdecimals) {
+		if(pdecimals < 0 || pdecimals > MAX_DECIMALS)
+			throw new IllegalArgumentException("The number of decimals must be between 0 and " + MAX_DECIMALS + ": " + pdecimals);
+		this.decimals = pdecimals;
+		this.decimalSeparator = ',';
+		this.groupingSeparator = 0;
+		this.blankIfZero = false;
+		this.width = 0;
+		this.buffer = new char[32];
+		this.view = new BufferView();
+	}
+
+	/**
+	 * Create a format with the number of decimals and the separators of the locale, for example 1,234.50 in English and 1 234,50 in French.
+	 * The no-break spaces which separate the thousands in some locales, such as the narrow one of French from Java 9,
+	 * are written as ordinary spaces: the standard fonts cannot encode them. A wrapped text can then break a number there.
+	 * @param locale		the locale.
+	 * @param pdecimals		the number of decimals, from 0 to {@link #MAX_DECIMALS}.
+	 * @return				the format.
+	 */
+	public static PdfNumberFormat getInstance(Locale locale, int pdecimals) {
+		DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+		PdfNumberFormat format = new PdfNumberFormat(pdecimals);
+		format.setDecimalSeparator(symbols.getDecimalSeparator());
+		char grouping = symbols.getGroupingSeparator();
+		format.setGroupingSeparator(Character.isSpaceChar(grouping) ? ' ' : grouping);
+		return format;
+	}
+
+	/**
+	 * Returns the number of decimals.
+	 * @return		the number of decimals written.
+	 */
+	public int getDecimals() {
+		return this.decimals;
+	}
+
+	/**
+	 * Set the character between the integer part and the decimals. A comma by default.
+	 * @param separator		the decimal separator.
+	 */
+	public void setDecimalSeparator(char separator) {
+		this.decimalSeparator = separator;
+	}
+
+	/**
+	 * Set the character between the groups of thousands.
+	 * @param separator		the grouping separator, 0 to write the digits together, the default.
+	 */
+	public void setGroupingSeparator(char separator) {
+		this.groupingSeparator = separator;
+	}
+
+	/**
+	 * Choose to write nothing for the numbers which are zero once rounded.
+	 * @param blank		true to write nothing, false to write 0,00 for example, the default.
+	 */
+	public void setBlankIfZero(boolean blank) {
+		this.blankIfZero = blank;
+	}
+
+	/**
+	 * Set the width of the text: shorter texts are completed with spaces on the left, so the numbers are aligned with a monospaced font.
+	 * @param pwidth		the number of characters, 0 to write only the number, the default.
+	 */
+	public void setWidth(int pwidth) {
+		this.width = Math.max(0, pwidth);
+		if(this.buffer.length < this.width)
+			this.buffer = new char[this.width];
+	}
+
+	/**
+	 * Format the number in the buffer of the format.
+	 * @param value		the number.
+	 * @return			the text, valid until the next call of a format method.
+	 * @throws NumberFormatException	when the value is not a number or infinite.
+	 */
+	public CharSequence format(float value) {
+		write(value);
+		return this.view;
+	}
+
+	/**
+	 * Format the number at the end of sb.
+	 * @param value		the number.
+	 * @param sb		where the text is appended.
+	 * @return			sb.
+	 * @throws NumberFormatException	when the value is not a number or infinite.
+	 */
+	public StringBuilder format(float value, StringBuilder sb) {
+		write(value);
+		return sb.append(this.buffer, this.start, this.length);
+	}
+
+	/**
+	 * Format the number in dest.
+	 * @param value		the number.
+	 * @param dest		where the text is written.
+	 * @param offset	the position of the first character in dest.
+	 * @return			the number of characters written.
+	 * @throws NumberFormatException	when the value is not a number or infinite.
+	 * @throws IndexOutOfBoundsException	when dest is too short.
+	 */
+	public int format(float value, char[] dest, int offset) {
+		write(value);
+		System.arraycopy(this.buffer, this.start, dest, offset, this.length);
+		return this.length;
+	}
+
+	/**
+	 * Format the number in a new String.
+	 * @param value		the number.
+	 * @return			the text.
+	 * @throws NumberFormatException	when the value is not a number or infinite.
+	 */
+	public String formatToString(float value) {
+		write(value);
+		return new String(this.buffer, this.start, this.length);
+	}
+
+	/**
+	 * Returns the same String as {@link PdfTools#round(float, int, boolean)}, with a format kept for each thread.
+	 * @param d					the number to be rounded.
+	 * @param decimalPlace		the number of decimal places.
+	 * @param afficheZero		do we return something is the value is zero ?
+	 * @return					the String representation of the number.
+	 */
+	static String round(float d, int decimalPlace, boolean afficheZero) {
+		if(decimalPlace < 0 || decimalPlace > 6)
+			return roundWithBigDecimal(d, decimalPlace, afficheZero);
+		PdfNumberFormat[] formats = ROUND.get();
+		int index = 2 * decimalPlace + (afficheZero ? 1 : 0);
+		PdfNumberFormat format = formats[index];
+		if(format == null){
+			format = new PdfNumberFormat(decimalPlace);
+			format.setBlankIfZero(!afficheZero);
+			formats[index] = format;
+		}
+		return format.formatToString(d);
+	}
+
+	/**
+	 * The first implementation of {@link PdfTools#round(float, int, boolean)}, for the number of decimals which are not supported.
+	 * Beyond 6 decimals, BigDecimal writes small numbers with an exponent.
+	 */
+	private static String roundWithBigDecimal(float d, int decimalPlace, boolean afficheZero) {
+		BigDecimal bd = new BigDecimal(Float.toString(d));
+		BigDecimal bdzero = BigDecimal.ZERO;
+		bd = bd.setScale(decimalPlace, BigDecimal.ROUND_HALF_UP); 
+		bdzero = bdzero.setScale(decimalPlace, BigDecimal.ROUND_HALF_UP);			
+		if(bdzero.equals(bd) && !afficheZero){
+			return "";
+		}else{
+			String test = bd.toString();
+			return test.replaceAll("\\.", ",");	
+		}	        
+	}
+
+	/**
+	 * Write the text of the value at the end of the buffer.
+	 * @param value		the number.
+	 */
+	private void write(float value) {
+		long unscaled = roundUnscaled(value, this.decimals);
+		if(unscaled < 0){
+			writeDigits(value < 0, new BigDecimal(Float.toString(value)).setScale(this.decimals, BigDecimal.ROUND_HALF_UP).unscaledValue().abs().toString());
+			return;
+		}
+		char[] text = this.buffer;
+		int pos = text.length;
+		if(unscaled != 0 || !this.blankIfZero){
+			pos = unscaled < NINE_DIGITS ? writeDigits((int) unscaled, pos) : writeDigits(unscaled, pos);
+			if(value < 0 && unscaled != 0)
+				text[--pos] = '-';
+		}
+		int padded = text.length - this.width;
+		while(pos > padded)
+			text[--pos] = ' ';
+		this.start = pos;
+		this.length = text.length - pos;
+	}
+
+	/**
+	 * Write the digits of the unscaled value before end, from the last one, with the separators.
+	 * The digits are taken two or three at a time, with one division of an int for each: it is a multiplication,
+	 * and the digits of the same division do not wait for each other.
+	 * @param unscaled			the rounded value.
+	 * @param end				the position after the last digit.
+	 * @return					the position of the first digit.
+	 */
+	private int writeDigits(int unscaled, int end) {
+		char[] text = this.buffer;
+		int pos = end;
+		int v = unscaled;
+		if((this.decimals & 1) != 0){
+			int quotient = v / 10;
+			text[--pos] = (char) ('0' + (v - quotient * 10));
+			v = quotient;
+		}
+		for(int i = this.decimals >> 1; i > 0; i--){
+			int quotient = v / 100;
+			int pair = v - quotient * 100;
+			text[--pos] = ONES[pair];
+			text[--pos] = TENS[pair];
+			v = quotient;
+		}
+		if(this.decimals > 0)
+			text[--pos] = this.decimalSeparator;
+		while(v >= 1000){
+			int quotient = v / 1000;
+			int group = v - quotient * 1000;
+			int hundreds = group / 100;
+			int pair = group - hundreds * 100;
+			text[--pos] = ONES[pair];
+			text[--pos] = TENS[pair];
+			text[--pos] = (char) ('0' + hundreds);
+			if(this.groupingSeparator != 0)
+				text[--pos] = this.groupingSeparator;
+			v = quotient;
+		}
+		// the first group, without its zeros on the left
+		do{
+			int quotient = v / 10;
+			text[--pos] = (char) ('0' + (v - quotient * 10));
+			v = quotient;
+		}while(v > 0);
+		return pos;
+	}
+
+	/**
+	 * Write the digits of an unscaled value from 10^9 before end: the 9 last ones, then the others.
+	 * @param unscaled			the rounded value, below 2^24 * 10^9.
+	 * @param end				the position after the last digit.
+	 * @return					the position of the first digit.
+	 */
+	private int writeDigits(long unscaled, int end) {
+		char[] text = this.buffer;
+		int high = (int) (unscaled / NINE_DIGITS);
+		int v = (int) (unscaled - high * NINE_DIGITS);
+		int pos = end;
+		int k = 0;
+		for(; k < this.decimals; k++){
+			if(k == 9)
+				v = high;
+			int quotient = v / 10;
+			text[--pos] = (char) ('0' + (v - quotient * 10));
+			v = quotient;
+		}
+		if(this.decimals > 0)
+			text[--pos] = this.decimalSeparator;
+		// the zeros on the left of the 9 last digits are written, high is at least 1
+		int i = 0;
+		do{
+			if(k == 9)
+				v = high;
+			if(this.groupingSeparator != 0 && i > 0 && i % 3 == 0)
+				text[--pos] = this.groupingSeparator;
+			int quotient = v / 10;
+			text[--pos] = (char) ('0' + (v - quotient * 10));
+			v = quotient;
+			i++;
+			k++;
+		}while(k <= 9 || v > 0);
+		return pos;
+	}
+
+	/**
+	 * Write the text of a number from 2^24, whose float is an integer, rounded by BigDecimal.
+	 * @param negative		true to write a minus sign.
+	 * @param digits		the digits of the unscaled value.
+	 */
+	private void writeDigits(boolean negative, String digits) {
+		int integerDigits = Math.max(1, digits.length() - this.decimals);
+		int groups = this.groupingSeparator != 0 ? (integerDigits - 1) / 3 : 0;
+		int textLength = (negative ? 1 : 0) + integerDigits + groups + (this.decimals > 0 ? 1 + this.decimals : 0);
+		int total = Math.max(textLength, this.width);
+		if(this.buffer.length < total)
+			this.buffer = new char[Math.max(total, 2 * this.buffer.length)];
+		this.start = this.buffer.length - total;
+		this.length = total;
+		int pos = this.start;
+		while(pos < this.start + total - textLength)
+			this.buffer[pos++] = ' ';
+		if(negative)
+			this.buffer[pos++] = '-';
+		// the digits of the unscaled value, with the zeros missing on the left
+		int digit = digits.length() - integerDigits - this.decimals;
+		for(int i = 0; i < integerDigits; i++, digit++){
+			if(i > 0 && groups > 0 && (integerDigits - i) % 3 == 0)
+				this.buffer[pos++] = this.groupingSeparator;
+			this.buffer[pos++] = digit >= 0 ? digits.charAt(digit) : '0';
+		}
+		if(this.decimals > 0){
+			this.buffer[pos++] = this.decimalSeparator;
+			for(int i = 0; i < this.decimals; i++, digit++)
+				this.buffer[pos++] = digit >= 0 ? digits.charAt(digit) : '0';
+		}
+	}
+
+	/**
+	 * Returns the absolute value of d rounded HALF_UP to the decimals, in units of the last decimal, 
+	 * as new BigDecimal(Float.toString(d)).setScale(decimals, BigDecimal.ROUND_HALF_UP) would.
+	 * <p>
+	 * The decimal written by Float.toString is the shortest which reads as d, the closest to d if there are several.
+	 * It is found among the decimals between the midpoints of d and its neighbours, 
+	 * counted in units of the digit after the last decimal so they are all integers, exact in a double.
+	 * @param d				the number.
+	 * @param decimals		the number of decimals.
+	 * @return				the rounded value, or -1 from 2^24, for infinity and NaN.
+	 */
+	static long roundUnscaled(float d, int decimals) {
+		float f = Math.abs(d);
+		if(f == 0)
+			return 0;
+		if(!(f < TWO_POW_24))
+			return -1;
+		// the midpoints in units of the last decimal, exact in a double
+		double lowest = ((double) f + Math.nextDown(f)) / 2 * POWERS[decimals];
+		double highest = ((double) f + Math.nextUp(f)) / 2 * POWERS[decimals];
+		if(highest < TWO_POW_52){
+			// usually, all the decimals between the midpoints round to the same value, the shortest one too
+			double rounded = Math.floor(lowest + 0.5);
+			if(rounded == Math.floor(highest + 0.5))
+				return (long) rounded;
+			// otherwise, a single decimal with no more digits than the format between them is the shortest one
+			double single = Math.ceil(lowest);
+			if(single > lowest && single < highest && single + 1 > highest)
+				return (long) single;
+		}
+		return roundShortest(f, decimals);
+	}
+
+	/**
+	 * Returns the positive f rounded HALF_UP to the decimals, in units of the last decimal, once its shortest decimal is found.
+	 */
+	private static long roundShortest(float f, int decimals) {
+		double scale = POWERS[decimals + 1];
+		// a float has 24 bits and the powers of 5 up to 5^10 have 24 bits, the products are exact and below 2^53
+		double x = f * scale;
+		double low = ((double) f + Math.nextDown(f)) / 2 * scale;
+		double high = ((double) f + Math.nextUp(f)) / 2 * scale;
+		// a midpoint is read as the float whose last bit is 0
+		boolean even = (Float.floatToRawIntBits(f) & 1) == 0;
+		long floor = (long) Math.floor(x);
+		long shortest = -1;
+		long unit = 1;
+		while(true){
+			long multiple = nearestMultiple(x, floor, unit, low, high, even);
+			if(multiple < 0)
+				break;
+			shortest = multiple;
+			unit *= 10;
+		}
+		if(shortest < 0){
+			// the shortest decimal has more digits, between floor and floor + 1: its next digit decides
+			return floor / 10 + (floor % 10 >= 5 ? 1 : 0);
+		}
+		return shortest / 10 + (shortest % 10 >= 5 ? 1 : 0);
+	}
+
+	/**
+	 * Returns the multiple of unit the closest to x between low and high.
+	 * @return		the multiple, or -1 if there is none.
+	 */
+	private static long nearestMultiple(double x, long floor, long unit, double low, double high, boolean even) {
+		long below = floor - floor % unit;
+		long above = below + unit;
+		boolean inBelow = below > low || (below == low && even);
+		boolean inAbove = above < high || (above == high && even);
+		if(inBelow && inAbove){
+			double dBelow = x - below;
+			double dAbove = above - x;
+			if(dBelow != dAbove)
+				return dBelow < dAbove ? below : above;
+			return (below / unit) % 2 == 0 ? below : above;
+		}
+		return inBelow ? below : inAbove ? above : -1;
+	}
+
+	/**
+	 * The text in the buffer.
+	 */
+	private class BufferView implements CharSequence {
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if(index < 0 || index >= length)
+				throw new IndexOutOfBoundsException(Integer.toString(index));
+			return buffer[start + index];
+		}
+
+		@Override
+		public CharSequence subSequence(int pstart, int pend) {
+			if(pstart < 0 || pend > length || pstart > pend)
+				throw new IndexOutOfBoundsException(pstart + ", " + pend);
+			return new String(buffer, start + pstart, pend - pstart);
+		}
+
+		@Override
+		public String toString() {
+			return new String(buffer, start, length);
+		}
+	}
+}
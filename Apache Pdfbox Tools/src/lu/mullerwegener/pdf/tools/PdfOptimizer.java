@@ -0,0 +1,522 @@
+package lu.mullerwegener.pdf.tools;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+
+/**
+ * Make a finished document smaller before it is saved, for example a document whose pages each drew the same logo or the same section.
+ * <ul>
+ * <li>The streams, the fonts, their descriptors, the graphics states and the resources of the pages identical by content are replaced by a single one.
+ * The contents are compared by a SHA-256 digest, the large streams are hashed by several threads.</li>
+ * <li>The resources of the pages which do not give different objects to the same name are merged in dictionaries shared by the pages.</li>
+ * <li>The objects which nothing refers to anymore are not saved, since a document is saved from its catalog.</li>
+ * </ul>
+ * The streams are compared as they are encoded: two images compressed differently stay two images.
+ * The fonts whose subset is written when the document is saved, and what refers to them, are left as they are:
+ * two fonts of the same file showing different characters are two subsets.
+ * The document is changed in place, the objects of the pages read before the optimization should not be changed afterwards.
+ * @author paquet
+ *
+ */
+public class PdfOptimizer {
+	private static final int PARALLEL_MIN_BYTES = 1 << 20;
+	private static final long MAX_BYTES_IN_FLIGHT = 64L << 20;
+	private static final int MAX_DEPTH = 64;
+	// the last merged resources tried for a page, so the pages whose names clash do not make the search quadratic
+	private static final int UNIONS_SCANNED = 16;
+
+	private int threads;
+
+	/**
+	 * Create an optimizer which hashes the large streams with one thread for each processor.
+	 */
+	public PdfOptimizer() {
+		this.threads = Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Set the number of threads hashing the streams of 1 MB or more. With 1, everything is done by the calling thread.
+	 * @param pthreads		the number of threads.
+	 */
+	public void setThreads(int pthreads) {
+		if(pthreads < 1)
+			throw new IllegalArgumentException("At least one thread is needed");
+		this.threads = pthreads;
+	}
+
+	/**
+	 * Share the identical objects of the document and the resources of its pages.
+	 * @param doc				the document, changed in place.
+	 * @return					what was saved.
+	 * @throws IOException		when a stream cannot be read.
+	 */
+	public Report optimize(PDDocument doc) throws IOException {
+		Graph before = new Graph(doc.getDocument().getTrailer());
+		Map<COSStream, byte[]> hashes = hashStreams(before.streams);
+		Map<COSBase, PdfCosSnapshot.Digest> digests = new IdentityHashMap<COSBase, PdfCosSnapshot.Digest>();
+		// an object without digest is never shared, nor what refers to it
+		for(COSBase object : new Graph(getFontsToSubset(doc, before)).objects)
+			digests.put(object, null);
+		// the first object of each content is kept, the next ones are replaced by it
+		Map<PdfCosSnapshot.Digest, COSBase> kept = new HashMap<PdfCosSnapshot.Digest, COSBase>();
+		Map<COSBase, COSBase> replacements = new IdentityHashMap<COSBase, COSBase>();
+		for(COSBase object : before.objects){
+			if(!isShareable(object, before))
+				continue;
+			PdfCosSnapshot.Digest digest = digest(object, hashes, digests, 0);
+			if(digest == null)
+				continue;
+			COSBase first = kept.get(digest);
+			if(first == null)
+				kept.put(digest, object);
+			else
+				replacements.put(object, first);
+		}
+		Map<COSBase, COSObject> references = new IdentityHashMap<COSBase, COSObject>();
+		for(COSBase object : before.objects)
+			replaceItems(object, replacements, references);
+		int mergedResources = mergeResources(doc, hashes, digests, references);
+		Graph after = new Graph(doc.getDocument().getTrailer());
+		return new Report(before.streamBytes, after.streamBytes, before.objects.size(), after.objects.size(), replacements.size(), mergedResources);
+	}
+
+	/**
+	 * Returns the dictionaries of the fonts whose subset is not written yet, all the fonts of the document when PDFBox does not tell them.
+	 */
+	private static List<COSBase> getFontsToSubset(PDDocument doc, Graph graph) {
+		List<COSBase> fonts = new ArrayList<COSBase>();
+		try{
+			// PDFBox keeps them in a package private set, emptied when the document is saved
+			Method method = PDDocument.class.getDeclaredMethod("getFontsToSubset");
+			method.setAccessible(true);
+			for(Object font : (Set<?>) method.invoke(doc))
+				fonts.add(((PDFont) font).getCOSObject());
+			return fonts;
+		}catch(ReflectiveOperationException | RuntimeException e){
+			fonts.clear();
+		}
+		for(COSBase object : graph.objects){
+			if(object instanceof COSDictionary && COSName.FONT.equals(((COSDictionary) object).getDictionaryObject(COSName.TYPE)))
+				fonts.add(object);
+		}
+		return fonts;
+	}
+
+	/**
+	 * Returns wether an object can be replaced by another one with the same content.
+	 */
+	private static boolean isShareable(COSBase object, Graph graph) {
+		if(object instanceof COSStream || graph.resources.containsKey(object))
+			return true;
+		if(!(object instanceof COSDictionary))
+			return false;
+		COSBase type = ((COSDictionary) object).getDictionaryObject(COSName.TYPE);
+		return COSName.FONT.equals(type) || COSName.FONT_DESC.equals(type) || COSName.EXT_G_STATE.equals(type);
+	}
+
+	/**
+	 * Returns the SHA-256 digest of the encoded data of each stream. The large streams are hashed by the threads.
+	 */
+	private Map<COSStream, byte[]> hashStreams(List<COSStream> streams) throws IOException {
+		Map<COSStream, byte[]> hashes = new IdentityHashMap<COSStream, byte[]>();
+		ExecutorService pool = null;
+		try{
+			ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+			ArrayDeque<COSStream> pendingStreams = new ArrayDeque<COSStream>();
+			ArrayDeque<Integer> pendingSizes = new ArrayDeque<Integer>();
+			long inFlight = 0;
+			for(COSStream stream : streams){
+				final byte[] raw = PdfCosSnapshot.readRaw(stream);
+				if(threads == 1 || raw.length < PARALLEL_MIN_BYTES){
+					hashes.put(stream, hash(raw));
+					continue;
+				}
+				if(pool == null)
+					pool = Executors.newFixedThreadPool(threads, new PdfThreadFactory("pdf-optimizer"));
+				// the data read waits in the heap until it is hashed, so the threads are waited for when too much is waiting
+				while(!pending.isEmpty() && inFlight + raw.length > MAX_BYTES_IN_FLIGHT){
+					hashes.put(pendingStreams.poll(), get(pending.poll()));
+					inFlight -= pendingSizes.poll();
+				}
+				pending.add(pool.submit(new Callable<byte[]>() {
+					@Override
+					public byte[] call() throws IOException {
+						return hash(raw);
+					}
+				}));
+				pendingStreams.add(stream);
+				pendingSizes.add(raw.length);
+				inFlight += raw.length;
+			}
+			while(!pending.isEmpty())
+				hashes.put(pendingStreams.poll(), get(pending.poll()));
+		}finally{
+			if(pool != null)
+				pool.shutdownNow();
+		}
+		return hashes;
+	}
+
+	private static byte[] hash(byte[] data) throws IOException {
+		MessageDigest md = PdfCosSnapshot.newDigest();
+		return md.digest(data);
+	}
+
+	private static byte[] get(Future<byte[]> future) throws IOException {
+		try{
+			return future.get();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while hashing the streams", e);
+		}catch(ExecutionException e){
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException)
+				throw (IOException) cause;
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if(cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Returns the digest of a dictionary, a stream or an array and of everything it refers to.
+	 * @return		the digest, null when the object is part of a cycle or too deep, such as a page.
+	 */
+	private static PdfCosSnapshot.Digest digest(COSBase object, Map<COSStream, byte[]> hashes, Map<COSBase, PdfCosSnapshot.Digest> digests, int depth) throws IOException {
+		if(digests.containsKey(object))
+			return digests.get(object);
+		if(depth > MAX_DEPTH)
+			return null;
+		// an object met again before its digest is known is part of a cycle
+		digests.put(object, null);
+		MessageDigest md = PdfCosSnapshot.newDigest();
+		long bytes = 0;
+		if(object instanceof COSArray){
+			md.update((byte) 'a');
+			for(COSBase item : (COSArray) object){
+				long itemBytes = update(md, item, hashes, digests, depth);
+				if(itemBytes < 0)
+					return null;
+				bytes += itemBytes;
+			}
+		}else{
+			COSDictionary dict = (COSDictionary) object;
+			md.update((byte) (dict instanceof COSStream ? 's' : 'd'));
+			List<COSName> keys = new ArrayList<COSName>(dict.keySet());
+			Collections.sort(keys);
+			for(COSName key : keys){
+				// the data of a stream is compared instead of its length, which can be a reference
+				if(dict instanceof COSStream && COSName.LENGTH.equals(key))
+					continue;
+				md.update(key.getName().getBytes(StandardCharsets.UTF_8));
+				md.update((byte) 0);
+				long itemBytes = update(md, dict.getItem(key), hashes, digests, depth);
+				if(itemBytes < 0)
+					return null;
+				bytes += itemBytes;
+			}
+			if(dict instanceof COSStream){
+				md.update(hashes.get(dict));
+				bytes += ((COSStream) dict).getLength();
+			}
+		}
+		PdfCosSnapshot.Digest digest = new PdfCosSnapshot.Digest(md.digest(), bytes);
+		digests.put(object, digest);
+		return digest;
+	}
+
+	/**
+	 * Add an item to the digest.
+	 * @return		the number of bytes of the streams of the item, -1 when it has no digest.
+	 */
+	private static long update(MessageDigest md, COSBase item, Map<COSStream, byte[]> hashes, Map<COSBase, PdfCosSnapshot.Digest> digests, int depth) throws IOException {
+		COSBase value = item instanceof COSObject ? ((COSObject) item).getObject() : item;
+		if(value instanceof COSDictionary || value instanceof COSArray){
+			PdfCosSnapshot.Digest digest = digest(value, hashes, digests, depth + 1);
+			if(digest == null)
+				return -1;
+			md.update((byte) 'r');
+			md.update(digest.hash);
+			return digest.bytes;
+		}
+		PdfCosSnapshot.updateValue(md, value);
+		return 0;
+	}
+
+	/**
+	 * Make the items of a dictionary or an array refer to the objects kept instead of the ones replaced.
+	 * The resources are referred to through a single indirect object, else they would be written again in each page.
+	 */
+	private static void replaceItems(COSBase object, Map<COSBase, COSBase> replacements, Map<COSBase, COSObject> references) throws IOException {
+		if(object instanceof COSArray){
+			COSArray array = (COSArray) object;
+			for(int i = 0; i < array.size(); i++){
+				COSBase replacement = replacements.get(array.getObject(i));
+				if(replacement != null)
+					array.set(i, replacement);
+			}
+		}else if(object instanceof COSDictionary){
+			COSDictionary dict = (COSDictionary) object;
+			for(COSName key : new ArrayList<COSName>(dict.keySet())){
+				COSBase replacement = replacements.get(dict.getDictionaryObject(key));
+				if(replacement == null)
+					continue;
+				dict.setItem(key, COSName.RESOURCES.equals(key) ? reference(replacement, references) : replacement);
+			}
+		}
+	}
+
+	private static COSObject reference(COSBase object, Map<COSBase, COSObject> references) throws IOException {
+		COSObject reference = references.get(object);
+		if(reference == null){
+			reference = new COSObject(object);
+			references.put(object, reference);
+		}
+		return reference;
+	}
+
+	/**
+	 * Give the pages whose resources do not clash the same resources, the union of their resources.
+	 * @return		the number of pages whose resources were merged with those of another page.
+	 */
+	private static int mergeResources(PDDocument doc, Map<COSStream, byte[]> hashes, Map<COSBase, PdfCosSnapshot.Digest> digests, Map<COSBase, COSObject> references) throws IOException {
+		List<COSDictionary> unions = new ArrayList<COSDictionary>();
+		Map<COSBase, COSDictionary> unionOf = new IdentityHashMap<COSBase, COSDictionary>();
+		int merged = 0;
+		for(PDPage page : doc.getPages()){
+			COSBase item = page.getCOSObject().getDictionaryObject(COSName.RESOURCES);
+			// the inherited resources are left as they are
+			if(!(item instanceof COSDictionary))
+				continue;
+			COSDictionary resources = (COSDictionary) item;
+			COSDictionary union = unionOf.get(resources);
+			if(union == null){
+				for(int i = unions.size() - 1; i >= Math.max(0, unions.size() - UNIONS_SCANNED) && union == null; i--){
+					if(isCompatible(unions.get(i), resources, hashes, digests))
+						union = unions.get(i);
+				}
+				if(union == null){
+					union = new COSDictionary();
+					unions.add(union);
+				}else{
+					merged++;
+				}
+				addAll(union, resources);
+				unionOf.put(resources, union);
+			}else{
+				merged++;
+			}
+			page.getCOSObject().setItem(COSName.RESOURCES, reference(union, references));
+		}
+		return merged;
+	}
+
+	/**
+	 * Returns wether the resources give the same object as the union to each name they have in common.
+	 */
+	private static boolean isCompatible(COSDictionary union, COSDictionary resources, Map<COSStream, byte[]> hashes, Map<COSBase, PdfCosSnapshot.Digest> digests) throws IOException {
+		for(COSName category : resources.keySet()){
+			COSBase mine = resources.getDictionaryObject(category);
+			COSBase theirs = union.getDictionaryObject(category);
+			if(theirs == null)
+				continue;
+			if(mine instanceof COSDictionary && !(mine instanceof COSStream) && theirs instanceof COSDictionary){
+				COSDictionary names = (COSDictionary) mine;
+				for(COSName name : names.keySet()){
+					COSBase other = ((COSDictionary) theirs).getDictionaryObject(name);
+					if(other != null && other != names.getDictionaryObject(name))
+						return false;
+				}
+			}else if(mine instanceof COSDictionary || mine instanceof COSArray){
+				// the procedure sets and what is not a dictionary of names must be the same
+				if(!(theirs instanceof COSDictionary || theirs instanceof COSArray))
+					return false;
+				PdfCosSnapshot.Digest digest = digest(mine, hashes, digests, 0);
+				if(digest == null || !digest.equals(digest(theirs, hashes, digests, 0)))
+					return false;
+			}else if(mine == null || !mine.equals(theirs)){
+				// a name, a number or null, as a damaged document may have, is compared as it is
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void addAll(COSDictionary union, COSDictionary resources) {
+		for(COSName category : resources.keySet()){
+			COSBase mine = resources.getDictionaryObject(category);
+			if(mine instanceof COSDictionary && !(mine instanceof COSStream)){
+				// the dictionaries of names of the union belong to it, those of the page may be shared elsewhere
+				COSBase theirs = union.getDictionaryObject(category);
+				COSDictionary names = theirs instanceof COSDictionary ? (COSDictionary) theirs : new COSDictionary();
+				for(Map.Entry<COSName, COSBase> entry : ((COSDictionary) mine).entrySet())
+					names.setItem(entry.getKey(), entry.getValue());
+				union.setItem(category, names);
+			}else if(!union.containsKey(category)){
+				union.setItem(category, resources.getItem(category));
+			}
+		}
+	}
+
+	/**
+	 * The objects a document refers to from its trailer.
+	 */
+	private static class Graph {
+		final List<COSBase> objects = new ArrayList<COSBase>();
+		final List<COSStream> streams = new ArrayList<COSStream>();
+		// the dictionaries found as resources
+		final Map<COSBase, Boolean> resources = new IdentityHashMap<COSBase, Boolean>();
+		long streamBytes;
+
+		Graph(COSDictionary trailer) {
+			this(Collections.<COSBase>singletonList(trailer));
+		}
+
+		/**
+		 * Collect the objects the roots refer to, the roots included. The roots are dictionaries or arrays.
+		 */
+		Graph(List<COSBase> roots) {
+			Map<COSBase, Boolean> seen = new IdentityHashMap<COSBase, Boolean>();
+			ArrayDeque<COSBase> stack = new ArrayDeque<COSBase>();
+			for(COSBase root : roots)
+				push(root, stack, seen);
+			while(!stack.isEmpty()){
+				COSBase object = stack.pop();
+				this.objects.add(object);
+				if(object instanceof COSArray){
+					for(int i = 0; i < ((COSArray) object).size(); i++)
+						push(((COSArray) object).getObject(i), stack, seen);
+				}else{
+					COSDictionary dict = (COSDictionary) object;
+					if(dict instanceof COSStream){
+						this.streams.add((COSStream) dict);
+						this.streamBytes += ((COSStream) dict).getLength();
+					}
+					for(COSName key : dict.keySet()){
+						COSBase value = dict.getDictionaryObject(key);
+						if(COSName.RESOURCES.equals(key) && value instanceof COSDictionary)
+							this.resources.put(value, Boolean.TRUE);
+						push(value, stack, seen);
+					}
+				}
+			}
+		}
+
+		private static void push(COSBase value, ArrayDeque<COSBase> stack, Map<COSBase, Boolean> seen) {
+			if((value instanceof COSDictionary || value instanceof COSArray) && seen.put(value, Boolean.TRUE) == null)
+				stack.push(value);
+		}
+	}
+
+	/**
+	 * What an optimization saved.
+	 * @author paquet
+	 *
+	 */
+	public static class Report {
+		private final long bytesBefore;
+		private final long bytesAfter;
+		private final int objectsBefore;
+		private final int objectsAfter;
+		private final int replacedObjects;
+		private final int mergedResources;
+
+		Report(long pbytesBefore, long pbytesAfter, int pobjectsBefore, int pobjectsAfter, int preplacedObjects, int pmergedResources) {
+			this.bytesBefore = pbytesBefore;
+			this.bytesAfter = pbytesAfter;
+			this.objectsBefore = pobjectsBefore;
+			this.objectsAfter = pobjectsAfter;
+			this.replacedObjects = preplacedObjects;
+			this.mergedResources = pmergedResources;
+		}
+
+		/**
+		 * Returns the number of bytes of the streams of the document before the optimization, as they are encoded.
+		 * @return		the bytes of the streams.
+		 */
+		public long getBytesBefore() {
+			return bytesBefore;
+		}
+
+		/**
+		 * Returns the number of bytes of the streams of the document after the optimization, as they are encoded.
+		 * @return		the bytes of the streams.
+		 */
+		public long getBytesAfter() {
+			return bytesAfter;
+		}
+
+		/**
+		 * Returns the number of bytes of streams saved.
+		 * @return		the bytes saved.
+		 */
+		public long getBytesSaved() {
+			return bytesBefore - bytesAfter;
+		}
+
+		/**
+		 * Returns the number of dictionaries, streams and arrays the document referred to before the optimization.
+		 * @return		the number of objects.
+		 */
+		public int getObjectsBefore() {
+			return objectsBefore;
+		}
+
+		/**
+		 * Returns the number of dictionaries, streams and arrays the document refers to after the optimization.
+		 * @return		the number of objects.
+		 */
+		public int getObjectsAfter() {
+			return objectsAfter;
+		}
+
+		/**
+		 * Returns the number of objects replaced by an identical one.
+		 * @return		the number of objects.
+		 */
+		public int getReplacedObjects() {
+			return replacedObjects;
+		}
+
+		/**
+		 * Returns the number of pages which share the resources of a previous page.
+		 * @return		the number of pages.
+		 */
+		public int getMergedResources() {
+			return mergedResources;
+		}
+
+		@Override
+		public String toString() {
+			return getBytesSaved() + " bytes of streams saved (" + bytesBefore + " -> " + bytesAfter + "), " + replacedObjects + " objects replaced, "
+					+ mergedResources + " pages sharing resources, " + objectsBefore + " -> " + objectsAfter + " objects";
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package lu.mullerwegener.pdf.tools;
+
+import java.io.IOException;
+
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+
+/**
+ * Something which knows in advance how many pages it needs and can draw each of them independently of the others.
+ * The pages can be drawn in any order and by several threads at the same time, see {@link PdfParallelRenderer}.
+ * @author paquet
+ *
+ */
+public interface PdfPageProducer {
+	/**
+	 * Returns the number of pages to draw.
+	 * @return		the number of pages.
+	 */
+	int getNumberOfPages();
+
+	/**
+	 * Draw a page. The content of the page depends only on index and pageNumber.
+	 * @param pdft				an instance of PdfTools used only for this page.
+	 * @param contents			the content of the page.
+	 * @param index				the index of the page among the pages of the producer, from 0.
+	 * @param pageNumber		the number of the page in the document, from 1.
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	void drawPage(PdfTools pdft, PDPageContentStream contents, int index, int pageNumber) throws IOException;
+}
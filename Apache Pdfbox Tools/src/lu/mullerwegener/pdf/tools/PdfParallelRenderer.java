@@ -0,0 +1,237 @@
+package lu.mullerwegener.pdf.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+
+/**
+ * Draw the pages of a {@link PdfPageProducer} with several threads.
+ * The pages are added to the document bound to PdfTools, then they are split in ranges drawn by the threads.
+ * Each page is drawn with its own copy of PdfTools, starting from the font, size and underline of the PdfTools given to the renderer,
+ * and its content is compressed by the thread. The contents are then put in the pages in order.
+ * The document saved is the same whatever the number of threads.
+ * @author paquet
+ *
+ */
+public class PdfParallelRenderer {
+	private PdfTools pdft;
+	private PDRectangle pageSize;
+	private String style;
+	private int threads;
+	private int pagesPerTask;
+
+	/**
+	 * Create a renderer which adds A4 pages to the document of pdft, with one thread for each processor.
+	 * @param ppdft		an instance of PdfTools.
+	 */
+	public PdfParallelRenderer(PdfTools ppdft){
+		this.pdft = ppdft;
+		this.pageSize = PDRectangle.A4;
+		this.style = "";
+		this.threads = Runtime.getRuntime().availableProcessors();
+		this.pagesPerTask = 4;
+	}
+
+	/**
+	 * Set the size of the pages added.
+	 * @param size		the size of the pages.
+	 */
+	public void setPageSize(PDRectangle size){
+		this.pageSize = size;
+	}
+
+	/**
+	 * Set the style given to {@link PdfTools#addPage(PDPage, String)}.
+	 * @param pstyle	the style of the pages.
+	 */
+	public void setStyle(String pstyle){
+		this.style = pstyle;
+	}
+
+	/**
+	 * Set the number of threads drawing the pages. With 1, the pages are drawn by the calling thread.
+	 * @param pthreads		the number of threads.
+	 */
+	public void setThreads(int pthreads){
+		if(pthreads < 1)
+			throw new IllegalArgumentException("At least one thread is needed");
+		this.threads = pthreads;
+	}
+
+	/**
+	 * Set the number of consecutive pages drawn by a thread at once.
+	 * @param pages		the number of pages of a range.
+	 */
+	public void setPagesPerTask(int pages){
+		if(pages < 1)
+			throw new IllegalArgumentException("A range has at least one page");
+		this.pagesPerTask = pages;
+	}
+
+	/**
+	 * Add the pages of the producer to the document and draw them.
+	 * If a page cannot be drawn, the pages added are removed from the document.
+	 * @param producer			what to draw.
+	 * @return					the number of pages added.
+	 * @throws IOException		when a page cannot be drawn.
+	 */
+	public int render(final PdfPageProducer producer) throws IOException{
+		final PDDocument doc = pdft.getDocument();
+		final int count = producer.getNumberOfPages();
+		final int firstNumber = doc.getNumberOfPages() + 1;
+		final PDPage[] pages = new PDPage[count];
+		for(int i = 0; i < count; i++){
+			pages[i] = new PDPage(pageSize);
+			pdft.addPage(pages[i], style);
+		}
+		ExecutorService pool = null;
+		boolean done = false;
+		try{
+			if(threads > 1 && count > pagesPerTask)
+				pool = Executors.newFixedThreadPool(Math.min(threads, (count + pagesPerTask - 1) / pagesPerTask), new PdfThreadFactory("pdf-renderer"));
+			// a few ranges are drawn in advance, the others wait so the memory stays bounded
+			ArrayDeque<Future<PageContent[]>> pending = new ArrayDeque<Future<PageContent[]>>();
+			int next = 0;
+			int assembled = 0;
+			while(assembled < count){
+				while(next < count && (pool == null ? pending.isEmpty() : pending.size() < threads * 2)){
+					final int start = next;
+					final int end = Math.min(count, start + pagesPerTask);
+					Callable<PageContent[]> task = new Callable<PageContent[]>(){
+						@Override
+						public PageContent[] call() throws IOException{
+							PageContent[] range = new PageContent[end - start];
+							for(int i = start; i < end; i++)
+								range[i - start] = drawPage(producer, pages[i], i, firstNumber + i);
+							return range;
+						}
+					};
+					pending.add(pool == null ? new DirectFuture(task) : pool.submit(task));
+					next = end;
+				}
+				for(PageContent content : get(pending.poll()))
+					assemble(doc, pages[assembled++], content);
+			}
+			done = true;
+		}finally{
+			if(pool != null)
+				pool.shutdownNow();
+			if(!done){
+				for(PDPage page : pages)
+					doc.removePage(page);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Draw a page with its own PdfTools and compress its content.
+	 * @param producer			what to draw.
+	 * @param page				the page to draw.
+	 * @param index				the index of the page among the pages of the producer.
+	 * @param pageNumber		the number of the page in the document.
+	 * @return					the compressed content of the page and its resources.
+	 * @throws IOException		when the page cannot be drawn.
+	 */
+	private PageContent drawPage(PdfPageProducer producer, PDPage page, int index, int pageNumber) throws IOException{
+		PdfTools tools = new PdfTools(pdft);
+		tools.currentPage = page;
+		PDResources resources = new PDResources();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Deflater deflater = new Deflater();
+		try{
+			PDPageContentStream contents = tools.createContentStream(resources, new DeflaterOutputStream(bytes, deflater));
+			try{
+				producer.drawPage(tools, contents, index, pageNumber);
+			}finally{
+				contents.close();
+			}
+		}finally{
+			deflater.end();
+		}
+		return new PageContent(bytes.toByteArray(), resources);
+	}
+
+	/**
+	 * Put the compressed content in the page, as it is.
+	 * @param doc				the document.
+	 * @param page				the page.
+	 * @param content			the content of the page.
+	 * @throws IOException		when the content cannot be written.
+	 */
+	private static void assemble(PDDocument doc, PDPage page, PageContent content) throws IOException{
+		COSStream stream = PdfScratchStore.createStream(doc);
+		stream.setItem(COSName.FILTER, COSName.FLATE_DECODE);
+		OutputStream out = stream.createRawOutputStream();
+		try{
+			out.write(content.bytes);
+		}finally{
+			out.close();
+		}
+		page.getCOSObject().setItem(COSName.CONTENTS, stream);
+		page.setResources(content.resources);
+	}
+
+	private static PageContent[] get(Future<PageContent[]> future) throws IOException{
+		try{
+			return future.get();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while drawing the pages", e);
+		}catch(ExecutionException e){
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException)
+				throw (IOException) cause;
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if(cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * The content of a page drawn by a thread.
+	 */
+	private static class PageContent {
+		final byte[] bytes;
+		final PDResources resources;
+
+		PageContent(byte[] pbytes, PDResources presources){
+			this.bytes = pbytes;
+			this.resources = presources;
+		}
+	}
+
+	/**
+	 * A task run by the calling thread when it is asked for its result.
+	 */
+	private static class DirectFuture extends FutureTask<PageContent[]> {
+		DirectFuture(Callable<PageContent[]> task){
+			super(task);
+		}
+
+		@Override
+		public PageContent[] get() throws InterruptedException, ExecutionException{
+			run();
+			return super.get();
+		}
+	}
+}
@@ -0,0 +1,278 @@
+package lu.mullerwegener.pdf.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDocument;
+import org.apache.pdfbox.cos.COSInputStream;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.filter.FilterFactory;
+import org.apache.pdfbox.io.ScratchFile;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * Keep the contents of the finished pages of a document in its scratch file instead of the heap.
+ * <p>
+ * PDFBox gives each stream its own buffer in the scratch file, and each buffer keeps a page of 4 KB in the heap until the document is closed,
+ * which is more than the content of most pages once compressed. 
+ * Here the encoded contents of the pages are appended one after the other to a few large streams of the document, 
+ * so only the dictionaries of the pages stay in the heap, and the scratch file moves the data to the disk beyond its memory limit.
+ * The large streams are not part of the document, they are freed when the document is closed.
+ * @author paquet
+ *
+ */
+final class PdfScratchStore {
+	// given to the spilled streams and the streams never written, else PDFBox creates a scratch file for each one
+	private static final ScratchFile UNUSED = ScratchFile.getMainMemoryOnlyInstance();
+	private static final Map<PDDocument, PdfScratchStore> STORES = Collections.synchronizedMap(new WeakHashMap<PDDocument, PdfScratchStore>());
+
+	private final COSDocument document;
+	private Segment open;
+
+	private PdfScratchStore(COSDocument pdocument) {
+		this.document = pdocument;
+	}
+
+	/**
+	 * Keep the contents of the pages of the document in its scratch file from now on.
+	 * @param doc		the document.
+	 */
+	static void register(PDDocument doc) {
+		STORES.put(doc, new PdfScratchStore(doc.getDocument()));
+	}
+
+	/**
+	 * Create a stream for the content of a page of the document.
+	 * @param doc		the document.
+	 * @return			a stream kept in the scratch file once written if the document was registered, else a usual stream of the document.
+	 */
+	static COSStream createStream(PDDocument doc) {
+		PdfScratchStore store = STORES.get(doc);
+		return store != null ? new SpilledStream(store) : doc.getDocument().createCOSStream();
+	}
+
+	/**
+	 * Create a stream whose data is never written, only its dictionary is used.
+	 * @return			the stream, which shares an empty scratch file instead of allocating its own.
+	 */
+	static COSStream createUnwrittenStream() {
+		return new COSStream(UNUSED);
+	}
+
+	/**
+	 * Append the data to the open segment.
+	 * @param data				the encoded data.
+	 * @return					where the data is.
+	 * @throws IOException		when the scratch file cannot be written.
+	 */
+	private synchronized Entry append(byte[] data) throws IOException {
+		if(this.open == null)
+			this.open = new Segment(this.document.createCOSStream());
+		Segment segment = this.open;
+		Entry entry = new Entry(segment, segment.length, data.length);
+		segment.out.write(data);
+		segment.length += data.length;
+		return entry;
+	}
+
+	/**
+	 * Returns the data of the entry. 
+	 * The segment of the entry is closed if it was open, the next data go to a new segment.
+	 * @param entry				where the data is.
+	 * @return					the encoded data.
+	 * @throws IOException		when the scratch file cannot be read.
+	 */
+	private InputStream read(Entry entry) throws IOException {
+		synchronized (this) {
+			if(entry.segment == this.open){
+				this.open.out.close();
+				this.open = null;
+			}
+		}
+		return new EntryInputStream(entry);
+	}
+
+	/**
+	 * A large stream where the data are appended.
+	 */
+	private static class Segment {
+		final COSStream stream;
+		final OutputStream out;
+		long length;
+
+		Segment(COSStream pstream) throws IOException {
+			this.stream = pstream;
+			this.out = pstream.createRawOutputStream();
+		}
+	}
+
+	/**
+	 * The position of some data in a segment.
+	 */
+	private static class Entry {
+		final Segment segment;
+		final long offset;
+		final long length;
+
+		Entry(Segment psegment, long poffset, long plength) {
+			this.segment = psegment;
+			this.offset = poffset;
+			this.length = plength;
+		}
+	}
+
+	/**
+	 * Read the data of an entry. The segment is opened again for each read so the streams of different threads do not share a position.
+	 */
+	private static class EntryInputStream extends InputStream {
+		private final InputStream in;
+		private long remaining;
+
+		EntryInputStream(Entry entry) throws IOException {
+			this.in = entry.segment.stream.createRawInputStream();
+			long skipped = 0;
+			while(skipped < entry.offset)
+				skipped += this.in.skip(entry.offset - skipped);
+			this.remaining = entry.length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if(this.remaining <= 0)
+				return -1;
+			this.remaining--;
+			return this.in.read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(this.remaining <= 0)
+				return -1;
+			int n = this.in.read(b, off, (int) Math.min(len, this.remaining));
+			if(n > 0)
+				this.remaining -= n;
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.in.close();
+		}
+	}
+
+	/**
+	 * A stream whose encoded data is kept in the store once written.
+	 * Writing the stream encodes the data in the heap, then it is appended to the store when the output is closed.
+	 * The encoded data is read from the store, to save the document for example.
+	 * Reading the decoded data copies the stream in a usual stream of the document, which PDFBox can decode.
+	 * The stream has no buffer of its own, a buffer of PDFBox would cost more than the data.
+	 */
+	private static class SpilledStream extends COSStream {
+		private final PdfScratchStore store;
+		private Entry entry;
+		private COSStream decodable;
+
+		SpilledStream(PdfScratchStore pstore) {
+			super(UNUSED);
+			this.store = pstore;
+		}
+
+		@Override
+		public OutputStream createOutputStream(COSBase filters) throws IOException {
+			if(filters != null)
+				setItem(COSName.FILTER, filters);
+			return new ByteArrayOutputStream() {
+				@Override
+				public void close() throws IOException {
+					spill(encode(toByteArray()));
+				}
+			};
+		}
+
+		@Override
+		public OutputStream createRawOutputStream() throws IOException {
+			return new ByteArrayOutputStream() {
+				@Override
+				public void close() throws IOException {
+					spill(toByteArray());
+				}
+			};
+		}
+
+		@Override
+		public synchronized InputStream createRawInputStream() throws IOException {
+			if(this.entry != null)
+				return this.store.read(this.entry);
+			return new ByteArrayInputStream(new byte[0]);
+		}
+
+		@Override
+		public synchronized COSInputStream createInputStream() throws IOException {
+			if(this.decodable == null){
+				COSStream copy = this.store.document.createCOSStream();
+				copy.addAll(this);
+				OutputStream out = copy.createRawOutputStream();
+				try{
+					out.write(readAll(createRawInputStream()));
+				}finally{
+					out.close();
+				}
+				this.decodable = copy;
+			}
+			return this.decodable.createInputStream();
+		}
+
+		private synchronized void spill(byte[] raw) throws IOException {
+			this.entry = this.store.append(raw);
+			this.decodable = null;
+			setInt(COSName.LENGTH, raw.length);
+		}
+
+		/**
+		 * Encode the data with the filters of the stream, the last filter first like PDFBox.
+		 * @param data				the decoded data.
+		 * @return					the encoded data.
+		 * @throws IOException		when the data cannot be encoded.
+		 */
+		private byte[] encode(byte[] data) throws IOException {
+			COSBase filters = getFilters();
+			List<COSName> names = new ArrayList<COSName>();
+			if(filters instanceof COSName){
+				names.add((COSName) filters);
+			}else if(filters instanceof COSArray){
+				for(COSBase name : (COSArray) filters)
+					names.add((COSName) name);
+			}
+			for(int i = names.size() - 1; i >= 0; i--){
+				ByteArrayOutputStream encoded = new ByteArrayOutputStream(data.length / 2 + 64);
+				FilterFactory.INSTANCE.getFilter(names.get(i)).encode(new ByteArrayInputStream(data), encoded, this, i);
+				data = encoded.toByteArray();
+			}
+			return data;
+		}
+
+		private static byte[] readAll(InputStream in) throws IOException {
+			try{
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				byte[] buffer = new byte[8192];
+				int n;
+				while((n = in.read(buffer)) != -1)
+					out.write(buffer, 0, n);
+				return out.toByteArray();
+			}finally{
+				in.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,277 @@
+package lu.mullerwegener.pdf.tools;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSNull;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDDocumentOutline;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineItem;
+
+/**
+ * Split a document in parts, each part written as a document of its own, for example the letters of each customer of a batch print file.
+ * <p>
+ * The pages of the source are read once, in order, by the thread which splits. A {@link PartRule} tells which pages start a new part.
+ * The pages of a part are copied with only what they refer to, so each document carries only the fonts and images of its pages;
+ * a link to a page of another part is dropped. The parts are written by a {@link PdfBatchGenerator},
+ * on several threads, while the next parts are read: the source is never changed and stays open until the end.
+ * @author paquet
+ *
+ */
+public class PdfSplitter {
+	// the characters a file name cannot hold on some systems
+	private static final String RESERVED = "/\\:*?\"<>|";
+	private static final int MAX_NAME_LENGTH = 100;
+
+	private final PdfBatchGenerator generator;
+
+	/**
+	 * Create a splitter which writes the parts to the sink.
+	 * @param factory		the memory settings of the documents of the parts.
+	 * @param sink			where the parts are written, by their name.
+	 */
+	public PdfSplitter(PdfToolsFactory factory, PdfDocumentSink sink) {
+		this.generator = new PdfBatchGenerator(factory, sink);
+	}
+
+	/**
+	 * Set the maximum number of parts written at the same time. One for each processor by default.
+	 * @param max		the number of parts.
+	 */
+	public void setMaxInFlight(int max) {
+		this.generator.setMaxInFlight(max);
+	}
+
+	/**
+	 * Set what is told each time a part is written. It is called by the threads which write the parts.
+	 * @param listener		the listener, null for none.
+	 */
+	public void setListener(PdfBatchGenerator.Listener listener) {
+		this.generator.setListener(listener);
+	}
+
+	/**
+	 * Split the document and wait until all the parts are written.
+	 * @param source					the document to split. It is not changed.
+	 * @param rule						which pages start a part, and the name of the part.
+	 * @return							the result of each part, in the order of the pages.
+	 * @throws IOException				when a page of the source cannot be read.
+	 * @throws InterruptedException		when the thread is interrupted while waiting, the parts in progress are interrupted.
+	 */
+	public List<PdfBatchGenerator.Result> split(PDDocument source, PartRule rule) throws IOException, InterruptedException {
+		try{
+			return this.generator.run(new Parts(source, rule));
+		}catch(UncheckedIOException e){
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Returns a rule which cuts the document every size pages. The parts are named 1, 2, 3...
+	 * @param size		the number of pages of each part, except the last one.
+	 * @return			the rule.
+	 */
+	public static PartRule everyPages(final int size) {
+		if(size < 1)
+			throw new IllegalArgumentException("A part has at least one page");
+		return new PartRule() {
+			@Override
+			public String startPart(PDPage page, int index) {
+				return index % size == 0 ? Integer.toString(index / size + 1) : null;
+			}
+		};
+	}
+
+	/**
+	 * Returns a rule which starts a part at the page of each bookmark of the first level, named after the title of the bookmark.
+	 * The pages before the first bookmark are a part named 1. When several bookmarks lead to the same page, the first one is kept.
+	 * The titles are made file names: the separators of directories, the control characters and the characters some systems refuse
+	 * are replaced by _, the dots and the spaces around the title are removed, and a long title is cut.
+	 * An empty title gives the name part. Two parts never get the same name, even in another case:
+	 * the second one is suffixed by -2, the third one by -3...
+	 * @param source			the document to split.
+	 * @return					the rule.
+	 * @throws IOException		when the page of a bookmark cannot be found.
+	 */
+	public static PartRule byBookmarks(PDDocument source) throws IOException {
+		final Map<COSDictionary, String> titles = new IdentityHashMap<COSDictionary, String>();
+		List<COSDictionary> pages = new ArrayList<COSDictionary>();
+		PDDocumentOutline outline = source.getDocumentCatalog().getDocumentOutline();
+		if(outline != null){
+			for(PDOutlineItem item : outline.children()){
+				PDPage page = item.findDestinationPage(source);
+				if(page != null && !titles.containsKey(page.getCOSObject())){
+					titles.put(page.getCOSObject(), item.getTitle() != null ? item.getTitle() : "");
+					pages.add(page.getCOSObject());
+				}
+			}
+		}
+		Set<String> names = new HashSet<String>();
+		if(source.getNumberOfPages() > 0 && !titles.containsKey(source.getPage(0).getCOSObject()))
+			names.add("1");
+		for(COSDictionary page : pages)
+			titles.put(page, uniqueName(toFileName(titles.get(page)), names));
+		return new PartRule() {
+			@Override
+			public String startPart(PDPage page, int index) {
+				return titles.get(page.getCOSObject());
+			}
+		};
+	}
+
+	/**
+	 * Returns the title as a name which can be given to a file.
+	 * @param title		the title of a bookmark.
+	 * @return			the name, never empty.
+	 */
+	private static String toFileName(String title) {
+		StringBuilder name = new StringBuilder(title.length());
+		for(int i = 0; i < title.length(); i++){
+			char c = title.charAt(i);
+			name.append(Character.isISOControl(c) || RESERVED.indexOf(c) >= 0 ? '_' : c);
+		}
+		if(name.length() > MAX_NAME_LENGTH)
+			name.setLength(Character.isHighSurrogate(name.charAt(MAX_NAME_LENGTH - 1)) ? MAX_NAME_LENGTH - 1 : MAX_NAME_LENGTH);
+		// no hidden file, no . or .., and the dots and the spaces at the end are dropped by Windows
+		int start = 0;
+		int end = name.length();
+		while(start < end && (name.charAt(start) == '.' || Character.isWhitespace(name.charAt(start))))
+			start++;
+		while(end > start && (name.charAt(end - 1) == '.' || Character.isWhitespace(name.charAt(end - 1))))
+			end--;
+		return start < end ? name.substring(start, end) : "part";
+	}
+
+	/**
+	 * Returns the name, suffixed by a number when it is already given to a part.
+	 * The names which differ only by the case, or by the extension .pdf, are the same file on some systems.
+	 * @param name		the name of the part.
+	 * @param names		the names already given, in lower case and without the extension. The name returned is added.
+	 * @return			the unique name.
+	 */
+	private static String uniqueName(String name, Set<String> names) {
+		String unique = name;
+		for(int n = 2; !names.add(fileKey(unique)); n++)
+			unique = name + "-" + n;
+		return unique;
+	}
+
+	private static String fileKey(String name) {
+		String key = name.toLowerCase(Locale.ROOT);
+		return key.endsWith(".pdf") ? key.substring(0, key.length() - 4) : key;
+	}
+
+	/**
+	 * Tells which pages start a new part.
+	 * @author paquet
+	 *
+	 */
+	public interface PartRule {
+		/**
+		 * Returns the name of the part which starts at the page, or null if the page belongs to the current part.
+		 * The first page always starts a part, named 1 when the rule gives no name.
+		 * @param page				the page of the source.
+		 * @param index				the index of the page in the source, from 0.
+		 * @return					the name of the new part, null to go on with the current one.
+		 * @throws IOException		when the page cannot be read.
+		 */
+		String startPart(PDPage page, int index) throws IOException;
+	}
+
+	/**
+	 * Read the parts of the source as the generator asks for them.
+	 */
+	private static class Parts implements Iterator<PdfBatchGenerator.Job> {
+		private final PartRule rule;
+		private final Iterator<PDPage> pages;
+		// the pages of the source are dropped, except the pages of the part being copied
+		private final Map<COSBase, COSBase> replacements;
+		private PDPage next;
+		private String nextName;
+		private int index;
+
+		Parts(PDDocument source, PartRule prule) throws IOException {
+			this.rule = prule;
+			this.replacements = new IdentityHashMap<COSBase, COSBase>();
+			for(PDPage page : source.getPages())
+				this.replacements.put(page.getCOSObject(), COSNull.NULL);
+			this.pages = source.getPages().iterator();
+			if(this.pages.hasNext()){
+				this.next = this.pages.next();
+				String name = this.rule.startPart(this.next, 0);
+				this.nextName = name != null ? name : "1";
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return this.next != null;
+		}
+
+		@Override
+		public PdfBatchGenerator.Job next() {
+			if(this.next == null)
+				throw new NoSuchElementException();
+			try{
+				String name = this.nextName;
+				List<PDPage> part = new ArrayList<PDPage>();
+				part.add(this.next);
+				this.next = null;
+				while(this.pages.hasNext()){
+					PDPage page = this.pages.next();
+					String start = this.rule.startPart(page, ++this.index);
+					if(start != null){
+						this.next = page;
+						this.nextName = start;
+						break;
+					}
+					part.add(page);
+				}
+				return new PartJob(name, PdfCosSnapshot.capturePages(part, this.replacements));
+			}catch(IOException e){
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Write the pages of a part in the document of the job.
+	 */
+	private static class PartJob implements PdfBatchGenerator.Job {
+		private final String name;
+		private final PdfCosSnapshot pages;
+
+		PartJob(String pname, PdfCosSnapshot ppages) {
+			this.name = pname;
+			this.pages = ppages;
+		}
+
+		@Override
+		public String getName() {
+			return this.name;
+		}
+
+		@Override
+		public void render(PdfTools pdft) throws IOException {
+			this.pages.addPages(pdft.getDocument(), null);
+		}
+
+		@Override
+		public long getEstimatedMemory() {
+			// the encoded streams, and the document which holds them again
+			return 2 * this.pages.getSize();
+		}
+	}
+}
@@ -0,0 +1,248 @@
+package lu.mullerwegener.pdf.tools;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+
+/**
+ * A page whose static content is drawn once, then stamped with the values of each record at named fields.
+ * <p>
+ * The static content, such as a logo, the sections of the page and the skeleton of a table, is drawn with the usual methods of PdfTools
+ * in a Form XObject, which is kept encoded outside of any document with its fonts and images.
+ * Each document receives a copy of the Form XObject the first time it is stamped, and each page only refers to it,
+ * then writes the values of the fields with its own text object.
+ * A template cannot be changed, the methods with... return a template with the change, so it can be shared by all the threads.
+ * The fonts of the static content are copied as they are. The fonts of a {@link PdfFontProgram} are subset when the template is compiled,
+ * with the characters of the static content; another font subset when the document is saved cannot be used.
+ * @author paquet
+ *
+ */
+public final class PdfTemplate {
+	// a document without limit of memory allocates the table of a large scratch file, longer to create than the page itself
+	private static final long STAMP_MAIN_MEMORY = 4L << 20;
+
+	private final PDRectangle pageSize;
+	private final PdfCosSnapshot form;
+	private final PDFont font;
+	private final PdfFontProgram fontProgram;
+	private final float fontSize;
+	private final List<Field> fields;
+	private final Map<PDDocument, PDFormXObject> forms;
+
+	private PdfTemplate(PDRectangle ppageSize, PdfCosSnapshot pform, PDFont pfont, PdfFontProgram pfontProgram, float pfontSize, List<Field> pfields,
+			Map<PDDocument, PDFormXObject> pforms) {
+		this.pageSize = ppageSize;
+		this.form = pform;
+		this.font = pfont;
+		this.fontProgram = pfontProgram;
+		this.fontSize = pfontSize;
+		this.fields = pfields;
+		this.forms = pforms;
+	}
+
+	/**
+	 * Draw the static content of the pages and keep it.
+	 * @param factory			the settings of the PdfTools which draws the content. Its font is the font of the fields,
+	 * 							embedded by each document stamped when it comes from a {@link PdfFontProgram}.
+	 * @param ppageSize			the size of the pages.
+	 * @param content			draws the static content.
+	 * @return					the template, without any field.
+	 * @throws IOException		when the content cannot be drawn.
+	 */
+	public static PdfTemplate compile(PdfToolsFactory factory, PDRectangle ppageSize, StaticContent content) throws IOException {
+		PDDocument doc = new PDDocument();
+		try{
+			PdfTools pdft = factory.create(doc);
+			PDFormXObject form = new PDFormXObject(doc);
+			PDResources resources = new PDResources();
+			form.setResources(resources);
+			form.setBBox(new PDRectangle(ppageSize.getLowerLeftX(), ppageSize.getLowerLeftY(), ppageSize.getWidth(), ppageSize.getHeight()));
+			OutputStream out = form.getContentStream().createOutputStream(COSName.FLATE_DECODE);
+			PDPageContentStream contents = pdft.createContentStream(resources, out);
+			try{
+				content.draw(pdft, contents);
+			}finally{
+				contents.close();
+			}
+			// the compile document is never saved, the form must hold the complete fonts
+			pdft.subsetFonts();
+			return new PdfTemplate(ppageSize, PdfCosSnapshot.capture(form.getCOSObject()), factory.getFont(), factory.getFontProgram(), factory.getFontSize(),
+					Collections.<Field>emptyList(), new WeakHashMap<PDDocument, PDFormXObject>());
+		}finally{
+			doc.close();
+		}
+	}
+
+	/**
+	 * Returns this template with a field written from the point (posX, posY) in the font of the template.
+	 * @param name			the name of the value written in the field.
+	 * @param posX			the position of the field from the left of the page. In pixels.
+	 * @param posY			the position of the field from the bottom of the page. In pixels.
+	 * @return				the template with the field.
+	 */
+	public PdfTemplate withField(String name, float posX, float posY) {
+		return withField(name, posX, posY, this.font, this.fontSize, false);
+	}
+
+	/**
+	 * Returns this template with a field.
+	 * @param name			the name of the value written in the field.
+	 * @param posX			the position of the field from the left of the page, where the text starts or ends. In pixels.
+	 * @param posY			the position of the field from the bottom of the page. In pixels.
+	 * @param pfont			the font of the field. A font embedded by {@link PdfTools#getFont(PdfFontProgram)} belongs to its document, use a standard font.
+	 * @param pfontSize		the size of the font.
+	 * @param rightAligned	does the text end at posX ?
+	 * @return				the template with the field.
+	 */
+	public PdfTemplate withField(String name, float posX, float posY, PDFont pfont, float pfontSize, boolean rightAligned) {
+		List<Field> newFields = new ArrayList<Field>(this.fields);
+		newFields.add(new Field(name, posX, posY, pfont, pfontSize, rightAligned));
+		// the copies of the Form XObject in the documents stay the same
+		return new PdfTemplate(this.pageSize, this.form, this.font, this.fontProgram, this.fontSize, Collections.unmodifiableList(newFields), this.forms);
+	}
+
+	/**
+	 * Returns the names of the fields, in the order they are written.
+	 * @return		the names of the fields.
+	 */
+	public List<String> getFieldNames() {
+		List<String> names = new ArrayList<String>(this.fields.size());
+		for(Field field : this.fields)
+			names.add(field.name);
+		return names;
+	}
+
+	/**
+	 * Returns the number of bytes of the static content once encoded, images included.
+	 * @return		the size of the static content.
+	 */
+	public long getSize() {
+		return this.form.getSize();
+	}
+
+	/**
+	 * Add a page to the document of pdft with the static content and the values of the fields.
+	 * The characters the font of a field cannot show are written with the fallback fonts of pdft, see {@link PdfTools#setFallbackFonts(PDFont...)}.
+	 * @param pdft				an instance of PdfTools.
+	 * @param values			the value of each field by name. A field without value stays empty.
+	 * @return					the page added.
+	 * @throws IOException		when the page cannot be written.
+	 */
+	public PDPage stamp(PdfTools pdft, Map<String, String> values) throws IOException {
+		PDPage page = new PDPage(this.pageSize);
+		pdft.addPage(page, "");
+		PDPageContentStream contents = pdft.createContentStream(page);
+		try{
+			PdfContentStream stream = pdft.getContentStream(contents);
+			PdfFontFallback fallback = pdft.getFontFallback();
+			stream.drawForm(getForm(pdft.getDocument()));
+			stream.beginTextBatch();
+			for(Field field : this.fields){
+				String value = values.get(field.name);
+				if(value == null || value.isEmpty())
+					continue;
+				// the embedded font of the template belongs to each document
+				PDFont fieldFont = field.font != null ? field.font : pdft.getFont(this.fontProgram);
+				stream.setFont(fieldFont, field.fontSize);
+				if(fallback == null){
+					float posX = field.rightAligned ? field.posX - PdfFontMetrics.getInstance(fieldFont).getStringWidth(value, field.fontSize) : field.posX;
+					stream.showTextAt(posX, field.posY, value);
+				}else{
+					float posX = field.rightAligned ? field.posX - fallback.getStringWidth(fieldFont, field.fontSize, value) : field.posX;
+					stream.showTextAt(posX, field.posY, fallback.split(fieldFont, value), field.fontSize);
+				}
+			}
+			stream.endTextBatch();
+		}finally{
+			contents.close();
+		}
+		return page;
+	}
+
+	/**
+	 * Write a document of one page with the static content and the values of the fields.
+	 * When the memory of the factory is not bounded, the document keeps 4 MB of streams in the heap and the rest in a scratch file.
+	 * @param factory			the settings of the document.
+	 * @param values			the value of each field by name. A field without value stays empty.
+	 * @param out				where the document is written.
+	 * @throws IOException		when the document cannot be written.
+	 */
+	public void stamp(PdfToolsFactory factory, Map<String, String> values, OutputStream out) throws IOException {
+		PDDocument doc = factory.isMemoryBounded() ? factory.createDocument() : new PDDocument(MemoryUsageSetting.setupMixed(STAMP_MAIN_MEMORY));
+		try{
+			stamp(factory.create(doc), values);
+			doc.save(out);
+		}finally{
+			doc.close();
+		}
+	}
+
+	/**
+	 * Returns the Form XObject of the static content in the document, copied the first time the document is stamped.
+	 * @param doc				the document.
+	 * @return					the Form XObject.
+	 * @throws IOException		when the Form XObject cannot be copied.
+	 */
+	private PDFormXObject getForm(PDDocument doc) throws IOException {
+		synchronized (this.forms) {
+			PDFormXObject copy = this.forms.get(doc);
+			if(copy == null){
+				copy = new PDFormXObject(new PDStream((COSStream) this.form.materialize(doc)));
+				this.forms.put(doc, copy);
+			}
+			return copy;
+		}
+	}
+
+	/**
+	 * Draw the content shared by all the pages of a template.
+	 * @author paquet
+	 *
+	 */
+	public interface StaticContent {
+		/**
+		 * Draw the content, with the methods of PdfTools.
+		 * @param pdft				an instance of PdfTools.
+		 * @param contents			the content of the Form XObject.
+		 * @throws IOException		when the contents cannot be written on.
+		 */
+		void draw(PdfTools pdft, PDPageContentStream contents) throws IOException;
+	}
+
+	/**
+	 * A named place where a value is written.
+	 */
+	private static final class Field {
+		final String name;
+		final float posX;
+		final float posY;
+		final PDFont font;
+		final float fontSize;
+		final boolean rightAligned;
+
+		Field(String pname, float pposX, float pposY, PDFont pfont, float pfontSize, boolean prightAligned) {
+			this.name = pname;
+			this.posX = pposX;
+			this.posY = pposY;
+			this.font = pfont;
+			this.fontSize = pfontSize;
+			this.rightAligned = prightAligned;
+		}
+	}
+}
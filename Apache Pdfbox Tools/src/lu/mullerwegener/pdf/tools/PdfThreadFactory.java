@@ -0,0 +1,30 @@
+package lu.mullerwegener.pdf.tools;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Create the threads of the generators of PdfTools. They are named after the generator and do not keep the application alive.
+ * @author paquet
+ *
+ */
+class PdfThreadFactory implements ThreadFactory {
+	private final String prefix;
+	private final AtomicInteger number;
+
+	/**
+	 * Create a factory of threads named prefix-1, prefix-2...
+	 * @param pprefix		the beginning of the name of the threads.
+	 */
+	PdfThreadFactory(String pprefix) {
+		this.prefix = pprefix;
+		this.number = new AtomicInteger();
+	}
+
+	@Override
+	public Thread newThread(Runnable r) {
+		Thread thread = new Thread(r, prefix + "-" + number.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	}
+}
@@ -5,22 +5,31 @@ import java.awt.Desktop;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
-import java.math.BigDecimal;
+import java.io.OutputStream;
 import java.time.LocalDate;
 import java.time.ZoneId;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
 import org.apache.pdfbox.pdmodel.PDPageContentStream.AppendMode;
+import org.apache.pdfbox.pdmodel.PDResources;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.pdmodel.font.PDFont;
 import org.apache.pdfbox.pdmodel.font.PDType1Font;
 import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
-import org.apache.pdfbox.util.Matrix;
 
 /**
  * PdfTools is a Library of tools to generate or manipulate PDF files with the help of Apache PdfBox.
+ * An instance is bound to one document and must be used by one thread at a time.
+ * Create one for each document with a {@link PdfToolsFactory}, which can be shared by all the threads.
  * @author paquet, pierson, chipon
  *
  */
@@ -30,11 +39,17 @@ public class PdfTools {
 	float lastUsedSize;
 	PDDocument doc;
 	PDPage currentPage;	
-	float ligneDetail = 0;
-	Color color00506f = new Color(0, 80, 111);
-	int num_ligne = 1;
-	float tableHeight = 0;
 	boolean underline = false;
+	Map<PDPageContentStream, PdfContentStream> streams;
+	PDPageContentStream lastContents;
+	PdfContentStream lastStream;
+	PDFont metricsFont;
+	PdfFontMetrics metrics;
+	PdfImageCache images;
+	Map<PdfFontProgram, PDFont> fonts;
+	PdfFontFallback fallback;
+	AtomicReference<PdfDeferredField> totalPages;
+	PdfMemoryMonitor memory;
 
 	/**
 	 * PdfTools is bind to a PDDocument which is a class of Apache PdfBox.
@@ -44,8 +59,132 @@ public class PdfTools {
 		doc = pdoc;
 		lastUsedFont = PDType1Font.HELVETICA;
 		lastUsedSize = 10.0f;
+		streams = new HashMap<PDPageContentStream, PdfContentStream>();
+		images = new PdfImageCache(pdoc);
+		fonts = new HashMap<PdfFontProgram, PDFont>();
+		totalPages = new AtomicReference<PdfDeferredField>();
 	}	
 
+	/**
+	 * PdfTools is bound to a new document which keeps at most maxMainMemoryBytes of streams in the heap, see {@link #createDocument(long, File)}.
+	 * The peak of the heap used is measured from now, see {@link #getPeakHeapUsed()}.
+	 * The document must be closed to delete its scratch file.
+	 * @param maxMainMemoryBytes	the number of bytes of streams kept in the heap.
+	 * @param tempDir				the directory of the scratch file, null for the temporary directory of the system.
+	 */
+	public PdfTools(long maxMainMemoryBytes, File tempDir) {
+		this(createDocument(maxMainMemoryBytes, tempDir));
+		memory = new PdfMemoryMonitor();
+	}
+
+	/**
+	 * Create a PdfTools bound to the same document, with the same font, size and underline as model.
+	 * The images, the fonts of the document and the total number of pages are shared, everything else belongs to the new instance, 
+	 * so it can be used by another thread than model.
+	 * @param model		the PdfTools to copy.
+	 */
+	PdfTools(PdfTools model) {
+		doc = model.doc;
+		currentPage = model.currentPage;
+		lastUsedFont = model.lastUsedFont;
+		lastUsedSize = model.lastUsedSize;
+		underline = model.underline;
+		fallback = model.fallback;
+		streams = new HashMap<PDPageContentStream, PdfContentStream>();
+		images = model.images;
+		fonts = model.fonts;
+		totalPages = model.totalPages;
+		memory = model.memory;
+	}
+
+	/**
+	 * Create a document whose streams, the contents of the pages and the images, use at most maxMainMemoryBytes of the heap.
+	 * Beyond, the streams are written in a scratch file, so the pages which are finished leave the heap until the document is saved.
+	 * The contents of the pages created by PdfTools are packed together in the scratch file instead of taking a buffer each.
+	 * The document must be closed to delete its scratch file.
+	 * @param maxMainMemoryBytes	the number of bytes of streams kept in the heap. 0 to write them all in the scratch file.
+	 * @param tempDir				the directory of the scratch file, null for the temporary directory of the system.
+	 * @return						the empty document.
+	 */
+	public static PDDocument createDocument(long maxMainMemoryBytes, File tempDir) {
+		MemoryUsageSetting setting = maxMainMemoryBytes > 0 ? MemoryUsageSetting.setupMixed(maxMainMemoryBytes) : MemoryUsageSetting.setupTempFileOnly();
+		if(tempDir != null)
+			setting.setTempDir(tempDir);
+		PDDocument document = new PDDocument(setting);
+		PdfScratchStore.register(document);
+		return document;
+	}
+
+	/**
+	 * Returns the most heap used since this PdfTools was created with a limit of memory, garbage included.
+	 * The heap is the one of the JVM, shared with the other threads.
+	 * @return		the number of bytes used, or -1 if PdfTools was not created with a limit of memory.
+	 */
+	public long getPeakHeapUsed() {
+		return memory != null ? memory.getPeakHeapUsed() : -1;
+	}
+
+	/**
+	 * Create the content of the page. 
+	 * The operators which would not change the graphics state of the page are not written twice by PdfTools. 
+	 * @param page				the page to write on.
+	 * @return					the content of the page.
+	 * @throws IOException		when the content of the page cannot be created.
+	 */
+	public PDPageContentStream createContentStream(PDPage page) throws IOException {
+		return createContentStream(page, AppendMode.OVERWRITE, true);
+	}
+
+	/**
+	 * Create the content of the page.
+	 * The operators which would not change the graphics state of the page are not written twice by PdfTools. 
+	 * @param page				the page to write on.
+	 * @param appendMode		overwrite, append or prepend the existing content of the page.
+	 * @param compress			do we compress the content of the page ?
+	 * @return					the content of the page.
+	 * @throws IOException		when the content of the page cannot be created.
+	 */
+	public PDPageContentStream createContentStream(PDPage page, AppendMode appendMode, boolean compress) throws IOException {
+		Iterator<PdfContentStream> it = this.streams.values().iterator();
+		while(it.hasNext()){
+			if(it.next().isClosed())
+				it.remove();
+		}
+		PdfContentStream stream = PdfContentStream.create(this.doc, page, appendMode, compress);
+		this.streams.put(stream.getContents(), stream);
+		return stream.getContents();
+	}
+
+	/**
+	 * Create a content stream which writes to out and registers its fonts and images in resources.
+	 * @param resources			the resources of the content.
+	 * @param out				where the operators are written.
+	 * @return					the content stream.
+	 * @throws IOException		when the content stream cannot be created.
+	 */
+	PDPageContentStream createContentStream(PDResources resources, OutputStream out) throws IOException {
+		PdfContentStream stream = PdfContentStream.create(this.doc, resources, out);
+		this.streams.put(stream.getContents(), stream);
+		return stream.getContents();
+	}
+
+	/**
+	 * Returns the object which follows the graphics state of contents.
+	 * If contents was not created by {@link #createContentStream(PDPage)}, every operator is written.
+	 * @param contents			the content of the page
+	 * @return					the PdfContentStream which writes on contents.
+	 */
+	public PdfContentStream getContentStream(PDPageContentStream contents) {
+		if(contents == this.lastContents)
+			return this.lastStream;
+		PdfContentStream stream = this.streams.get(contents);
+		if(stream == null)
+			stream = new PdfContentStream(contents);
+		this.lastContents = contents;
+		this.lastStream = stream;
+		return stream;
+	}
+
 	/**
 	 * Add pText to the pdf which contents represents at the point (posX, posY).
 	 * @param contents 		the content of the page
@@ -55,14 +194,35 @@ public class PdfTools {
 	 * @throws IOException	when the contents cannot be written on.
 	 */
 	public void addText(PDPageContentStream contents, float posX, float posY, String pText) throws IOException {
-		contents.beginText();		
-		contents.setTextMatrix(Matrix.getTranslateInstance(posX, posY));
-		contents.showText(pText);
-		contents.endText();
+		PdfContentStream stream = getContentStream(contents);
+		if(this.fallback == null){
+			stream.showTextAt(posX, posY, pText);
+		}else{
+			addTextWithFallback(stream, posX, posY, pText);
+		}
 		if(this.underline)
 			underlineText(contents, posX, posY, pText);
 	}
 
+	/**
+	 * Show pText with the current font of stream, and the characters it cannot show with the fallback fonts.
+	 * The text is shown as usual when the font can show all its characters.
+	 */
+	private void addTextWithFallback(PdfContentStream stream, float posX, float posY, String pText) throws IOException {
+		PDFont font = stream.getCurrentFont();
+		float size = stream.getCurrentFontSize();
+		if(font != null && getMetrics(font).canShow(pText)){
+			stream.showTextAt(posX, posY, pText);
+			return;
+		}
+		if(font == null){
+			// nothing tells the font of a content created elsewhere
+			font = this.lastUsedFont;
+			size = this.lastUsedSize;
+		}
+		stream.showTextAt(posX, posY, this.fallback.split(font, pText), size);
+	}
+
 	/**
 	 * Add pText to the pdf which contents represents at the height posY.
 	 * @param contents		the content of the page
@@ -72,8 +232,8 @@ public class PdfTools {
 	 */
 	public void addTextCentered(PDPageContentStream contents, float posY, String pText) throws IOException {
 		PDRectangle pageSize = PDRectangle.A4;
-		float stringWidth = this.lastUsedFont.getStringWidth( pText );
-		float centeredXPosition = (pageSize.getWidth() - (stringWidth*this.lastUsedSize)/1000f)/2f;
+		float stringWidth = getStringWidth(this.lastUsedFont, this.lastUsedSize, pText);
+		float centeredXPosition = (pageSize.getWidth() - stringWidth)/2f;
 		addText(contents, centeredXPosition, posY, pText);
 	}
 
@@ -87,8 +247,8 @@ public class PdfTools {
 	 * @throws IOException		when the contents cannot be written on.
 	 */
 	public void addTextCentered(PDPageContentStream contents, float posY, float boundaryLeft, float boundaryRight, String pText) throws IOException {		
-		float stringWidth = this.lastUsedFont.getStringWidth( pText );
-		float centeredXPosition = boundaryLeft + (boundaryRight - boundaryLeft - (stringWidth*this.lastUsedSize)/1000f)/2f;
+		float stringWidth = getStringWidth(this.lastUsedFont, this.lastUsedSize, pText);
+		float centeredXPosition = boundaryLeft + (boundaryRight - boundaryLeft - stringWidth)/2f;
 		addText(contents, centeredXPosition, posY, pText);
 	}
 	
@@ -102,11 +262,36 @@ public class PdfTools {
 	 * @throws IOException		when the contents cannot be written on.
 	 */
 	public void addTextRightAligned(PDPageContentStream contents, float posY, float boundaryRight, String pText) throws IOException {		
-		float stringWidth = this.lastUsedFont.getStringWidth( pText );
-		float centeredXPosition = (boundaryRight - 5 - (stringWidth*this.lastUsedSize)/1000f);
+		float stringWidth = getStringWidth(this.lastUsedFont, this.lastUsedSize, pText);
+		float centeredXPosition = (boundaryRight - 5 - stringWidth);
 		addText(contents, centeredXPosition, posY, pText);
 	}	
 	
+	/**
+	 * Returns the width of pText written with pfont at the size psize.
+	 * The widths of the characters are read once for each font, see {@link PdfFontMetrics}.
+	 * The characters pfont cannot show are measured with the fallback font which shows them, see {@link #setFallbackFonts(PDFont...)}.
+	 * @param pfont				the font of the text
+	 * @param psize				the size of the font
+	 * @param pText				the text to measure
+	 * @return					the width of the text. In pixels.
+	 * @throws IOException		when the font cannot be read.
+	 */
+	public float getStringWidth(PDFont pfont, float psize, String pText) throws IOException {
+		PdfFontMetrics fontMetrics = getMetrics(pfont);
+		if(this.fallback != null && !fontMetrics.canShow(pText))
+			return this.fallback.getStringWidth(fontMetrics, psize, pText);
+		return fontMetrics.getStringWidth(pText, psize);
+	}
+
+	private PdfFontMetrics getMetrics(PDFont pfont) {
+		if(pfont != this.metricsFont){
+			this.metrics = PdfFontMetrics.getInstance(pfont);
+			this.metricsFont = pfont;
+		}
+		return this.metrics;
+	}
+
 	/**
 	 * Stock pfont and psize in lastUsedFont and lastUsedSize respectively and then apply them to contents.
 	 * The main purpose is to conviniently roll back to the main font and size for the document.
@@ -118,7 +303,46 @@ public class PdfTools {
 	public void setFont(PDPageContentStream contents, PDFont pfont, float psize) throws IOException {
 		this.lastUsedFont = pfont;
 		this.lastUsedSize = psize;
-		contents.setFont(pfont, psize);		
+		getContentStream(contents).setFont(pfont, psize);		
+	}
+
+	/**
+	 * Apply pfont and psize to contents without changing lastUsedFont and lastUsedSize.
+	 * Nothing is written if they are already the font and size of contents.
+	 * @param contents			the content of the page
+	 * @param pfont				the font you want to write with
+	 * @param psize				the size of pfont
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	public void applyFont(PDPageContentStream contents, PDFont pfont, float psize) throws IOException {
+		getContentStream(contents).setFont(pfont, psize);
+	}
+
+	/**
+	 * Set the fonts which show the characters the current font cannot show, tried in order.
+	 * The texts added by addText and its variants are then split in runs of characters shown by the same font, see {@link PdfFontFallback}.
+	 * The characters none of the fonts can show are replaced by a question mark instead of stopping the document.
+	 * Without fallback fonts, the default, a character the font cannot show throws an IllegalArgumentException.
+	 * @param pfonts			the fallback fonts, none to show the texts with the current font only.
+	 */
+	public void setFallbackFonts(PDFont... pfonts) {
+		this.fallback = pfonts.length > 0 ? new PdfFontFallback(pfonts) : null;
+	}
+
+	/**
+	 * Returns the fonts which show the characters the current font cannot show.
+	 * @return			the fallback fonts, in the order they are tried. The list cannot be changed.
+	 */
+	public List<PDFont> getFallbackFonts() {
+		return this.fallback != null ? this.fallback.getFonts() : Collections.<PDFont>emptyList();
+	}
+
+	/**
+	 * Returns the chain of the fallback fonts, to measure the texts as they are drawn, for example to lay out a table in advance.
+	 * @return			the chain, null without fallback fonts.
+	 */
+	public PdfFontFallback getFontFallback() {
+		return this.fallback;
 	}
 	
 	/**
@@ -131,9 +355,8 @@ public class PdfTools {
 	 * @throws IOException		when the contents cannot be written on.
 	 */
 	private void underlineText(PDPageContentStream contents, float posX, float posY, String pText) throws IOException{
-		float stringWidth = this.lastUsedFont.getStringWidth( pText );
-		float posRight = posX + 1 + (stringWidth*this.lastUsedSize)/1000f;
-		drawLine(contents, posX, posY - 2, posRight, posY - 2);
+		float posRight = posX + 1 + getStringWidth(this.lastUsedFont, this.lastUsedSize, pText);
+		getContentStream(contents).addUnderline(posX, posY - 2, posRight);
 	}
 	
 	/**
@@ -148,13 +371,97 @@ public class PdfTools {
 	 * @throws IOException		when the contents cannot be written on.
 	 */
 	public void underlineText(PDPageContentStream contents, PDFont font, float fontSize, float posX, float posY, String pText) throws IOException{
-		float stringWidth = font.getStringWidth( pText );
-		float posRight = posX + 1 + (stringWidth*fontSize)/1000f;
-		drawLine(contents, posX, posY - 2, posRight, posY - 2);
+		float posRight = posX + 1 + getStringWidth(font, fontSize, pText);
+		getContentStream(contents).addUnderline(posX, posY - 2, posRight);
+	}
+
+	/**
+	 * All the texts added with addText method after this instruction share the same text object, until {@link #endTextBatch(PDPageContentStream)}.
+	 * The underlines are drawn in a single path at the end of the batch.
+	 * It only applies to a content created by {@link #createContentStream(PDPage)}.
+	 * @param contents			the content of the page
+	 */
+	public void beginTextBatch(PDPageContentStream contents) {
+		getContentStream(contents).beginTextBatch();
+	}
+
+	/**
+	 * End the batch of texts started by {@link #beginTextBatch(PDPageContentStream)} and draw the underlines.
+	 * @param contents			the content of the page
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	public void endTextBatch(PDPageContentStream contents) throws IOException {
+		getContentStream(contents).endTextBatch();
+	}
+
+	/**
+	 * Returns the font of the TrueType or OpenType file, embedded in the document with only the glyphs shown.
+	 * The file is parsed once for the whole process, see {@link PdfFontProgram}.
+	 * @param chemin			path of the font file
+	 * @return					the font of the document.
+	 * @throws IOException		when the font cannot be read or embedded.
+	 */
+	public PDFont loadFont(String chemin) throws IOException {
+		return getFont(PdfFontProgram.load(chemin));
+	}
+
+	/**
+	 * Returns the font of the program in the document, created the first time it is asked for.
+	 * Its subset is written when the document is saved.
+	 * @param program			the shared program of the font.
+	 * @return					the font of the document.
+	 * @throws IOException		when the font cannot be created.
+	 */
+	public PDFont getFont(PdfFontProgram program) throws IOException {
+		synchronized (fonts) {
+			PDFont font = fonts.get(program);
+			if(font == null){
+				font = new PdfEmbeddedFont(program, doc);
+				fonts.put(program, font);
+			}
+			return font;
+		}
+	}
+
+	/**
+	 * Returns the font which writes pfont in the document. A font created from a {@link PdfFontProgram} belongs to its document:
+	 * the font of another document is replaced by the font of the same program in this one, with the same metrics.
+	 * The other fonts are returned as they are.
+	 * @param pfont				the font, possibly of another document.
+	 * @return					the font to write in the document.
+	 * @throws IOException		when the font cannot be created.
+	 */
+	public PDFont resolveFont(PDFont pfont) throws IOException {
+		if(pfont instanceof PdfEmbeddedFont && !((PdfEmbeddedFont) pfont).belongsTo(doc))
+			return getFont(((PdfEmbeddedFont) pfont).getProgram());
+		return pfont;
+	}
+
+	/**
+	 * Write now the subsets of the fonts created from a {@link PdfFontProgram}, with the characters shown so far,
+	 * for a content copied out of the document before it is saved.
+	 * @throws IOException		when a subset cannot be written.
+	 */
+	void subsetFonts() throws IOException {
+		synchronized (fonts) {
+			for(PDFont font : fonts.values())
+				font.subset();
+		}
+	}
+
+	/**
+	 * Returns the image of the file chemin, embedded only once in the document.
+	 * @param chemin			path of the image file
+	 * @return					the image.
+	 * @throws IOException		when the image cannot be read.
+	 */
+	public PDImageXObject getImage(String chemin) throws IOException {
+		return images.getImage(chemin);
 	}
 
 	/**
 	 * Draw the image from the file chemin in contents at point (posX, posY), with a width and height.
+	 * The file is read once for the document, the pages where it is drawn again share the same image.
 	 * @param contents			the content of the page
 	 * @param chemin			path of the image file
 	 * @param posX				the position from the left border of the page
@@ -164,8 +471,16 @@ public class PdfTools {
 	 * @throws IOException		when the contents cannot be written on.
 	 */
 	public void drawImage(PDPageContentStream contents, String chemin, float posX, float posY, float width, float height) throws IOException {
-		PDImageXObject pdImageLogoMW = PDImageXObject.createFromFile(chemin, this.doc);
-		contents.drawImage(pdImageLogoMW, posX, posY, width, height);
+		PDImageXObject pdImageLogoMW = getImage(chemin);
+		getContentStream(contents).drawImage(pdImageLogoMW, posX, posY, width, height);
+	}
+
+	/**
+	 * Returns the document bound to PdfTools.
+	 * @return		the document.
+	 */
+	public PDDocument getDocument() {
+		return this.doc;
 	}
 
 	/**
@@ -223,11 +538,12 @@ public class PdfTools {
 	 * @see Color
 	 */
 	public void drawLine(PDPageContentStream contents, float posxOrigine, float posyOrigine, float posxDestination, float posyDestination, float lineWidth, Color lineColor) throws IOException{		
-		contents.setStrokingColor(lineColor);
-		contents.setLineWidth(lineWidth);
-		contents.moveTo(posxOrigine, posyOrigine);
-		contents.lineTo(posxDestination, posyDestination);					
-		contents.stroke();	
+		PdfContentStream stream = getContentStream(contents);
+		stream.setStrokingColor(lineColor);
+		stream.setLineWidth(lineWidth);
+		stream.moveTo(posxOrigine, posyOrigine);
+		stream.lineTo(posxDestination, posyDestination);					
+		stream.stroke();	
 	}
 
 	/**
@@ -241,11 +557,7 @@ public class PdfTools {
 	 * @throws IOException			when the contents cannot be written on.
 	 */
 	public void drawLine(PDPageContentStream contents, float posxOrigine, float posyOrigine, float posxDestination, float posyDestination) throws IOException{		
-		contents.setStrokingColor(Color.black);
-		contents.setLineWidth(0.5f);
-		contents.moveTo(posxOrigine, posyOrigine);
-		contents.lineTo(posxDestination, posyDestination);					
-		contents.stroke();	
+		drawLine(contents, posxOrigine, posyOrigine, posxDestination, posyDestination, 0.5f, Color.black);
 	}
 
 	/**
@@ -267,22 +579,15 @@ public class PdfTools {
 
 	/**
 	 * Round a float number with decimalPlace decimal places and return its {@link String} representation.
+	 * The number is rounded HALF_UP, with a comma before the decimals. 
+	 * To format many numbers, or with other separators, use a {@link PdfNumberFormat}.
 	 * @param d					the number to be rounded.
 	 * @param decimalPlace		the number of decimal places.
 	 * @param afficheZero		do we return something is the value is zero ?
 	 * @return					the String reprsentation of the number.
 	 */
 	public static String round(float d, int decimalPlace, boolean afficheZero) {				
-		BigDecimal bd = new BigDecimal(Float.toString(d));
-		BigDecimal bdzero = BigDecimal.ZERO;
-		bd = bd.setScale(decimalPlace, BigDecimal.ROUND_HALF_UP); 
-		bdzero = bdzero.setScale(decimalPlace, BigDecimal.ROUND_HALF_UP);			
-		if(bdzero.equals(bd) && !afficheZero){
-			return "";
-		}else{
-			String test = bd.toString();
-			return test.replaceAll("\\.", ",");	
-		}	        
+		return PdfNumberFormat.round(d, decimalPlace, afficheZero);
 	}
 
 	/**
@@ -305,7 +610,10 @@ public class PdfTools {
 	 * @param doc			the PDDocument where to extract the page.
 	 * @param numPage		the number of the page to be extracted.
 	 * @return				the new document of only one page.
+	 * @deprecated			the pages of doc are removed one by one, so doc is lost and extracting every page means loading it again each time.
+	 * 						Use {@link PdfSplitter}, which reads the document once and writes its pages in as many documents as needed.
 	 */
+	@Deprecated
 	public PDDocument getPageAlone(PDDocument doc, int numPage){
 		if(numPage != 0){
 			PDPage pageAGarder = doc.getPage(numPage); 
@@ -352,16 +660,66 @@ public class PdfTools {
 		this.underline = false;
 	}
 	
+	/**
+	 * Create a text whose value is written when the document is finished, with the last font and size used and the fallback fonts.
+	 * @return		the field, to draw on the pages then to resolve.
+	 */
+	public PdfDeferredField createDeferredField() {
+		return new PdfDeferredField(this.doc, this.lastUsedFont, this.lastUsedSize, this.fallback);
+	}
+
+	/**
+	 * Add at the position (posX, posY) the total number of pages of the document, written by {@link #resolveDeferredFields()}.
+	 * All the pages share the same text, written with the font and size used the first time.
+	 * @param contents			the content of the page
+	 * @param posX				the position from the left border of the page. In pixels.
+	 * @param posY				the position from the bottom border of the page. In pixels.
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	public void addTotalNumberOfPages(PDPageContentStream contents, float posX, float posY) throws IOException {
+		if(this.totalPages.get() == null)
+			this.totalPages.compareAndSet(null, createDeferredField());
+		this.totalPages.get().draw(this, contents, posX, posY);
+	}
+
+	/**
+	 * Add pText at the point (posX, posY) followed by the total number of pages of the document, for example "Page 3 / ".
+	 * @param contents			the content of the page
+	 * @param posX				the position from the left border of the page. In pixels.
+	 * @param posY				the position from the bottom border of the page. In pixels.
+	 * @param pText				the text before the number of pages.
+	 * @throws IOException		when the contents cannot be written on.
+	 * @see #addTotalNumberOfPages(PDPageContentStream, float, float)
+	 */
+	public void addPageNumberOfTotal(PDPageContentStream contents, float posX, float posY, String pText) throws IOException {
+		addText(contents, posX, posY, pText);
+		addTotalNumberOfPages(contents, posX + getStringWidth(this.lastUsedFont, this.lastUsedSize, pText), posY);
+	}
+
+	/**
+	 * Write the total number of pages drawn by {@link #addTotalNumberOfPages(PDPageContentStream, float, float)}.
+	 * Call it once all the pages are added, before saving the document.
+	 * @throws IOException		when the number cannot be written.
+	 */
+	public void resolveDeferredFields() throws IOException {
+		PdfDeferredField field = this.totalPages.get();
+		if(field != null)
+			field.resolve(Integer.toString(this.doc.getNumberOfPages()));
+	}
+
 	/**
 	 * Add at the position (posX, posY) the total number of page in each page of the document.
 	 * @param posX				the position from the left border of the page. In pixels.
 	 * @param posY				the position from the top border of the page. In pixels.
 	 * @throws IOException		if the content is not writable
+	 * @deprecated				it adds a content stream to each page, use {@link #addTotalNumberOfPages(PDPageContentStream, float, float)}
+	 * 							while drawing the pages, then {@link #resolveDeferredFields()}.
 	 */
+	@Deprecated
 	public void addTotalNumberofPagesInEachPage(float posX, float posY) throws IOException{
 		for(PDPage page : doc.getPages()){
-			PDPageContentStream contents = new PDPageContentStream(doc, page, AppendMode.APPEND, false);
-			contents.setFont(lastUsedFont, lastUsedSize);
+			PDPageContentStream contents = createContentStream(page, AppendMode.APPEND, false);
+			applyFont(contents, lastUsedFont, lastUsedSize);
 			addText(contents, posX, posY, Integer.toString(doc.getNumberOfPages()));
 			contents.close();
 			contents = null;
@@ -0,0 +1,211 @@
+package lu.mullerwegener.pdf.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+
+/**
+ * The settings shared by the documents generated by an application: the font, standard or embedded from a {@link PdfFontProgram}, its size,
+ * the fallback fonts, the underline of the texts
+ * and the memory the streams of a document can use before they are written in a scratch file.
+ * A factory cannot be changed, the methods with... return a factory with the change, so it can be shared by all the threads.
+ * Each document gets its own {@link PdfTools}, which is cheap to create.
+ * The tables, cell styles and sections can be shared the same way once they are built,
+ * as long as they are drawn with a {@link lu.mullerwegener.pdf.tools.pdftable.PdfTableCursor PdfTableCursor} for the tables.
+ * @author paquet
+ *
+ */
+public final class PdfToolsFactory {
+	private final PDFont font;
+	private final float fontSize;
+	private final boolean underline;
+	private final PdfFontProgram fontProgram;
+	private final PdfFontProgram[] fallbackPrograms;
+	private final long maxMainMemory;
+	private final File tempDir;
+
+	/**
+	 * Create a factory of PdfTools writing in Helvetica 10, without underline, like a new PdfTools.
+	 */
+	public PdfToolsFactory() {
+		this(PDType1Font.HELVETICA, 10.0f, false);
+	}
+
+	/**
+	 * Create a factory of PdfTools with the specified settings.
+	 * @param pfont			the font used until another one is set.
+	 * @param pfontSize		the size of the font.
+	 * @param punderline	are the texts underlined ?
+	 */
+	public PdfToolsFactory(PDFont pfont, float pfontSize, boolean punderline) {
+		this(pfont, pfontSize, punderline, null, new PdfFontProgram[0], -1, null);
+	}
+
+	private PdfToolsFactory(PDFont pfont, float pfontSize, boolean punderline, PdfFontProgram pfontProgram, PdfFontProgram[] pfallbackPrograms, long pmaxMainMemory, File ptempDir) {
+		this.font = pfont;
+		this.fontSize = pfontSize;
+		this.underline = punderline;
+		this.fontProgram = pfontProgram;
+		this.fallbackPrograms = pfallbackPrograms;
+		this.maxMainMemory = pmaxMainMemory;
+		this.tempDir = ptempDir;
+	}
+
+	/**
+	 * Returns the font of the PdfTools created, when it is not embedded.
+	 * @return		the font, null when each document embeds the font of {@link #getFontProgram()}.
+	 */
+	public PDFont getFont() {
+		return this.font;
+	}
+
+	/**
+	 * Returns the program of the font embedded by each document created.
+	 * @return		the program, null when the font is not embedded, see {@link #getFont()}.
+	 */
+	public PdfFontProgram getFontProgram() {
+		return this.fontProgram;
+	}
+
+	/**
+	 * Returns the programs of the fallback fonts embedded by each document created, see {@link PdfTools#setFallbackFonts(PDFont...)}.
+	 * @return		the programs, in the order they are tried. The list cannot be changed.
+	 */
+	public List<PdfFontProgram> getFallbackPrograms() {
+		return Collections.unmodifiableList(Arrays.asList(this.fallbackPrograms));
+	}
+
+	/**
+	 * Returns the size of the font of the PdfTools created.
+	 * @return		the size of the font.
+	 */
+	public float getFontSize() {
+		return this.fontSize;
+	}
+
+	/**
+	 * Returns wether the texts of the PdfTools created are underlined.
+	 * @return		true if the texts are underlined.
+	 */
+	public boolean isUnderline() {
+		return this.underline;
+	}
+
+	/**
+	 * Returns wether the documents created keep a limited amount of streams in the heap.
+	 * @return		true if the documents use a scratch file.
+	 */
+	public boolean isMemoryBounded() {
+		return this.maxMainMemory >= 0;
+	}
+
+	/**
+	 * Returns this factory with another font.
+	 * @param pfont			the font.
+	 * @param pfontSize		the size of the font.
+	 * @return				the factory with the change.
+	 */
+	public PdfToolsFactory withFont(PDFont pfont, float pfontSize) {
+		return new PdfToolsFactory(pfont, pfontSize, this.underline, null, this.fallbackPrograms, this.maxMainMemory, this.tempDir);
+	}
+
+	/**
+	 * Returns this factory with a font embedded by each document, with only the glyphs it shows.
+	 * @param program		the program of the font, see {@link PdfFontProgram#load(String)}.
+	 * @param pfontSize		the size of the font.
+	 * @return				the factory with the change.
+	 */
+	public PdfToolsFactory withFont(PdfFontProgram program, float pfontSize) {
+		return new PdfToolsFactory(null, pfontSize, this.underline, program, this.fallbackPrograms, this.maxMainMemory, this.tempDir);
+	}
+
+	/**
+	 * Returns this factory with fallback fonts, embedded by each document which shows one of their characters.
+	 * They show the characters the font of a text cannot show, see {@link PdfTools#setFallbackFonts(PDFont...)}.
+	 * @param programs		the programs of the fonts, in the order they are tried. None to remove the fallback fonts.
+	 * @return				the factory with the change.
+	 */
+	public PdfToolsFactory withFallbackFonts(PdfFontProgram... programs) {
+		return new PdfToolsFactory(this.font, this.fontSize, this.underline, this.fontProgram, programs.clone(), this.maxMainMemory, this.tempDir);
+	}
+
+	/**
+	 * Returns this factory with the texts underlined or not.
+	 * @param punderline	are the texts underlined ?
+	 * @return				the factory with the change.
+	 */
+	public PdfToolsFactory withUnderline(boolean punderline) {
+		return new PdfToolsFactory(this.font, this.fontSize, punderline, this.fontProgram, this.fallbackPrograms, this.maxMainMemory, this.tempDir);
+	}
+
+	/**
+	 * Returns this factory creating documents which keep at most maxMainMemoryBytes of streams in the heap,
+	 * the rest is written in a scratch file, see {@link PdfTools#createDocument(long, File)}.
+	 * @param maxMainMemoryBytes	the number of bytes of streams kept in the heap by each document.
+	 * @param ptempDir				the directory of the scratch files, null for the temporary directory of the system.
+	 * @return						the factory with the change.
+	 */
+	public PdfToolsFactory withMemoryLimit(long maxMainMemoryBytes, File ptempDir) {
+		return new PdfToolsFactory(this.font, this.fontSize, this.underline, this.fontProgram, this.fallbackPrograms, Math.max(0, maxMainMemoryBytes), ptempDir);
+	}
+
+	/**
+	 * Returns this factory creating documents which keep all their streams in the heap, the default.
+	 * @return		the factory with the change.
+	 */
+	public PdfToolsFactory withoutMemoryLimit() {
+		return new PdfToolsFactory(this.font, this.fontSize, this.underline, this.fontProgram, this.fallbackPrograms, -1, null);
+	}
+
+	/**
+	 * Create an empty document with the memory settings of the factory.
+	 * The document must be closed to delete its scratch file.
+	 * @return		the document.
+	 */
+	public PDDocument createDocument() {
+		return isMemoryBounded() ? PdfTools.createDocument(this.maxMainMemory, this.tempDir) : new PDDocument();
+	}
+
+	/**
+	 * Create a PdfTools bound to a new document, with the settings of the factory.
+	 * When the memory is bounded, the peak of the heap is measured from now, see {@link PdfTools#getPeakHeapUsed()}.
+	 * @return		the PdfTools, to be used by one thread at a time.
+	 */
+	public PdfTools create() {
+		PdfTools pdft = create(createDocument());
+		if(isMemoryBounded())
+			pdft.memory = new PdfMemoryMonitor();
+		return pdft;
+	}
+
+	/**
+	 * Create a PdfTools bound to the document, with the settings of the factory.
+	 * @param doc		the document to bind the PdfTools.
+	 * @return			the PdfTools, to be used by one thread at a time.
+	 */
+	public PdfTools create(PDDocument doc) {
+		PdfTools pdft = new PdfTools(doc);
+		try{
+			pdft.lastUsedFont = this.fontProgram != null ? pdft.getFont(this.fontProgram) : this.font;
+			if(this.fallbackPrograms.length > 0){
+				PDFont[] fallbackFonts = new PDFont[this.fallbackPrograms.length];
+				for(int i = 0; i < fallbackFonts.length; i++)
+					fallbackFonts[i] = pdft.getFont(this.fallbackPrograms[i]);
+				pdft.setFallbackFonts(fallbackFonts);
+			}
+		}catch(IOException e){
+			// the dictionaries of a program have no stream to read
+			throw new UncheckedIOException(e);
+		}
+		pdft.lastUsedSize = this.fontSize;
+		pdft.underline = this.underline;
+		return pdft;
+	}
+}
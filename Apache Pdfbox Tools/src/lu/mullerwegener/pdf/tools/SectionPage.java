@@ -1,15 +1,27 @@
 package lu.mullerwegener.pdf.tools;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.WeakHashMap;
 
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.pdmodel.font.PDFont;
 import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
 
 /**
  * Manage a section of the page of the pdf file.
  * Initially, it's dedicated to repeated content in different pages, such as headers or footers.
+ * <p>
+ * The elements which are the same on every page are drawn once for each document in a Form XObject,
+ * then each page only refers to it. The dynamic elements, whose value can change between two pages, are drawn on each page.
+ * The Form XObject is drawn again when an element, the font or the size change.
  * @author paquet
  *
  */
@@ -17,6 +29,7 @@ public class SectionPage{
 	private ArrayList<SectionElement> elements;
 	private PDFont font;
 	private float fontSize;
+	private Map<PDDocument, CompiledSection> forms;
 
 	/**
 	 * Default constructor. 
@@ -26,6 +39,7 @@ public class SectionPage{
 		elements = new ArrayList<SectionElement>();
 		font = PDType1Font.HELVETICA;
 		fontSize = 10.0f;
+		forms = new WeakHashMap<PDDocument, CompiledSection>();
 	}
 
 	/**
@@ -54,12 +68,44 @@ public class SectionPage{
 		return se;
 	}
 
+	/**
+	 * Add an element whose value can change from one page to another, such as a page number.
+	 * Change the value of the element returned before drawing the section.
+	 * @param posX		the position of the element from the left of the page. In pixels.
+	 * @param posY		the position of the element from the bottom of the page. In pixels.
+	 * @param value		the value of the element.
+	 * @return			the SectionElement object created.
+	 */
+	public SectionElement addDynamic(float posX, float posY, String value){
+		SectionElement se = new SectionElement(posX, posY, value);
+		se.dynamic = true;
+		elements.add(se);
+		return se;
+	}
+
+	/**
+	 * Returns a copy of the section, with a copy of each element.
+	 * Nobody else can change the copy, so it is drawn the same way from any thread.
+	 * @return			the copy of the section.
+	 */
+	public synchronized SectionPage copy(){
+		SectionPage copy = new SectionPage();
+		copy.font = font;
+		copy.fontSize = fontSize;
+		for(SectionElement se : elements){
+			SectionElement element = copy.add(se.posX, se.posY, se.value);
+			element.underline = se.underline;
+			element.dynamic = se.dynamic;
+		}
+		return copy;
+	}
+
 	/**
 	 * The object that compose a SectionPage object
 	 * @author paquet
 	 *
 	 */
-	class SectionElement{
+	public class SectionElement{
 		/**
 		 * 	the position of the element from the left of the page. In pixels.
 		 */
@@ -76,6 +122,10 @@ public class SectionPage{
 		 * Define if the value is underlined
 		 */
 		public boolean underline;
+		/**
+		 * Define if the value is drawn on each page instead of once for the document
+		 */
+		public boolean dynamic;
 
 		/**
 		 * Default constructor. No underline.
@@ -109,14 +159,78 @@ public class SectionPage{
 	 * @throws IOException	when the content cannot be written on.
 	 */
 	public void draw(PdfTools pdft, PDPageContentStream contents) throws IOException{
+		if(elements.isEmpty())
+			return;
+		PDFormXObject form = getForm(pdft);
+		if(form != null)
+			pdft.getContentStream(contents).drawForm(form);
+		if(hasDynamicElements())
+			drawElements(pdft, contents, true);
+	}
+
+	/**
+	 * Returns wether an element is drawn on each page instead of in the Form XObject.
+	 */
+	private boolean hasDynamicElements(){
+		for(SectionElement se : elements){
+			if(se.dynamic)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Draw the static or the dynamic elements.
+	 * @param pdft			an instance of PdfTools for the document.
+	 * @param contents		the content where the elements are drawn.
+	 * @param dynamic		true to draw the dynamic elements, false to draw the others.
+	 * @throws IOException	when the content cannot be written on.
+	 */
+	private void drawElements(PdfTools pdft, PDPageContentStream contents, boolean dynamic) throws IOException{
+		PDFont documentFont = pdft.resolveFont(font);
+		pdft.beginTextBatch(contents);
+		pdft.applyFont(contents, documentFont, fontSize);
 		for(SectionElement se : elements){
+			if(se.dynamic != dynamic)
+				continue;
 			if(se.underline){
-				pdft.underlineText(contents, font, fontSize, se.posX, se.posY, se.value);
+				pdft.underlineText(contents, documentFont, fontSize, se.posX, se.posY, se.value);
 			}
-			contents.setFont(font, fontSize);					
 			pdft.addText(contents, se.posX, se.posY, se.value);
-			contents.setFont(pdft.getLastUsedFont(), pdft.getLastUsedSize());
 		}
+		pdft.applyFont(contents, pdft.getLastUsedFont(), pdft.getLastUsedSize());
+		pdft.endTextBatch(contents);
+	}
+
+	/**
+	 * Returns the Form XObject of the static elements for the document of pdft, drawn the first time it is needed.
+	 * @param pdft			an instance of PdfTools for the document.
+	 * @return				the Form XObject, null if all the elements are dynamic.
+	 * @throws IOException	when the Form XObject cannot be written.
+	 */
+	private synchronized PDFormXObject getForm(PdfTools pdft) throws IOException{
+		PDDocument doc = pdft.getDocument();
+		CompiledSection compiled = forms.get(doc);
+		if(compiled != null && compiled.matches(this, pdft.underline))
+			return compiled.form;
+		compiled = new CompiledSection(this, pdft.underline);
+		if(compiled.values.length > 0){
+			PdfTools tools = new PdfTools(pdft);
+			PDFormXObject form = new PDFormXObject(doc);
+			PDResources resources = new PDResources();
+			form.setResources(resources);
+			OutputStream out = form.getContentStream().createOutputStream(COSName.FLATE_DECODE);
+			PDPageContentStream formContents = tools.createContentStream(resources, out);
+			try{
+				drawElements(tools, formContents, false);
+			}finally{
+				formContents.close();
+			}
+			form.setBBox(compiled.getBBox(tools, font, fontSize));
+			compiled.form = form;
+		}
+		forms.put(doc, compiled);
+		return compiled.form;
 	}
 
 	/**
@@ -124,7 +238,7 @@ public class SectionPage{
 	 * @param newFont	the desired font.
 	 * @see PDFont
 	 */
-	public void setFont(PDFont newFont){
+	public synchronized void setFont(PDFont newFont){
 		this.font = newFont;
 	}
 
@@ -132,7 +246,83 @@ public class SectionPage{
 	 * Change the size of the section.
 	 * @param newSize	the desired size.
 	 */
-	public void setSize(float newSize){
+	public synchronized void setSize(float newSize){
 		this.fontSize = newSize;
 	}
+
+	/**
+	 * The static elements as they were when the Form XObject was drawn.
+	 */
+	private static class CompiledSection{
+		final float[] xs;
+		final float[] ys;
+		final String[] values;
+		final boolean[] underlines;
+		final PDFont font;
+		final float fontSize;
+		final boolean underline;
+		PDFormXObject form;
+
+		CompiledSection(SectionPage section, boolean punderline){
+			int count = 0;
+			for(SectionElement se : section.elements){
+				if(!se.dynamic)
+					count++;
+			}
+			xs = new float[count];
+			ys = new float[count];
+			values = new String[count];
+			underlines = new boolean[count];
+			int i = 0;
+			for(SectionElement se : section.elements){
+				if(se.dynamic)
+					continue;
+				xs[i] = se.posX;
+				ys[i] = se.posY;
+				values[i] = se.value;
+				underlines[i] = se.underline;
+				i++;
+			}
+			font = section.font;
+			fontSize = section.fontSize;
+			underline = punderline;
+		}
+
+		/**
+		 * Returns wether the static elements of the section are still the ones drawn.
+		 */
+		boolean matches(SectionPage section, boolean punderline){
+			if(font != section.font || fontSize != section.fontSize || underline != punderline)
+				return false;
+			int i = 0;
+			for(SectionElement se : section.elements){
+				if(se.dynamic)
+					continue;
+				if(i == values.length || xs[i] != se.posX || ys[i] != se.posY || underlines[i] != se.underline
+						|| !values[i].equals(se.value))
+					return false;
+				i++;
+			}
+			return i == values.length;
+		}
+
+		/**
+		 * Returns a box around all the texts and their underlines, measured as pdft draws them.
+		 */
+		PDRectangle getBBox(PdfTools pdft, PDFont pfont, float pfontSize) throws IOException{
+			float minX = Float.MAX_VALUE;
+			float minY = Float.MAX_VALUE;
+			float maxX = -Float.MAX_VALUE;
+			float maxY = -Float.MAX_VALUE;
+			for(int i = 0; i < values.length; i++){
+				float width = pdft.getStringWidth(pfont, pfontSize, values[i]);
+				minX = Math.min(minX, xs[i]);
+				maxX = Math.max(maxX, xs[i] + width);
+				minY = Math.min(minY, ys[i]);
+				maxY = Math.max(maxY, ys[i]);
+			}
+			// room for the descenders, the accents and the underlines
+			return new PDRectangle(minX - pfontSize, minY - pfontSize, maxX - minX + 2 * pfontSize, maxY - minY + 3 * pfontSize);
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,266 @@
+package lu.mullerwegener.pdf.tools.pdftable;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+
+import lu.mullerwegener.pdf.tools.PdfContentStream;
+import lu.mullerwegener.pdf.tools.PdfTools;
+
+/**
+ * Collect the visible borders of the cells of a page and draw them all at once.
+ * The edges shared by two cells are drawn once, the borders on the same line are joined in one segment
+ * and a cell which stays alone with its four borders is drawn as a rectangle.
+ * There is only one path and one stroke for each width of line.
+ * @author paquet
+ *
+ */
+public class PdfBorderRenderer {
+	private static final float EPSILON = 0.01f;
+	private static final Comparator<Segment> BY_START = new Comparator<Segment>(){
+		@Override
+		public int compare(Segment a, Segment b){
+			int c = Float.compare(a.start, b.start);
+			return c != 0 ? c : Float.compare(a.end, b.end);
+		}
+	};
+	private List<Segment> horizontals;
+	private List<Segment> verticals;
+	private List<Segment[]> rectangles;
+
+	/**
+	 * Create an empty renderer.
+	 */
+	public PdfBorderRenderer(){
+		horizontals = new ArrayList<Segment>();
+		verticals = new ArrayList<Segment>();
+		rectangles = new ArrayList<Segment[]>();
+	}
+
+	/**
+	 * Add the visible borders of the cell whose top left corner is at the point (origX, origY).
+	 * @param cell		the cell.
+	 * @param origX		the position of the cell from the left of the page. In pixels.
+	 * @param origY		the position of the top of the cell from the bottom of the page. In pixels.
+	 * @param height	the height of the row of the cell. In pixels.
+	 */
+	public void addCell(PdfCell cell, float origX, float origY, float height){
+		addCell(cell.getStyle(), cell.getWidth(), origX, origY, height);
+	}
+
+	/**
+	 * Add the visible borders of a cell of the style whose top left corner is at the point (origX, origY).
+	 * @param style		the style of the cell.
+	 * @param width		the width of the cell. In pixels.
+	 * @param origX		the position of the cell from the left of the page. In pixels.
+	 * @param origY		the position of the top of the cell from the bottom of the page. In pixels.
+	 * @param height	the height of the row of the cell. In pixels.
+	 */
+	public void addCell(PdfCellStyle style, float width, float origX, float origY, float height){
+		float endX = origX + width;
+		float endY = origY - height;
+		Segment sTop = style.isShown(PdfBorder.BORDER_TOP) ? horizontal(style.getLineWidth(PdfBorder.BORDER_TOP), origY, origX, endX) : null;
+		Segment sRight = style.isShown(PdfBorder.BORDER_RIGHT) ? vertical(style.getLineWidth(PdfBorder.BORDER_RIGHT), endX, endY, origY) : null;
+		Segment sBottom = style.isShown(PdfBorder.BORDER_BOTTOM) ? horizontal(style.getLineWidth(PdfBorder.BORDER_BOTTOM), endY, origX, endX) : null;
+		Segment sLeft = style.isShown(PdfBorder.BORDER_LEFT) ? vertical(style.getLineWidth(PdfBorder.BORDER_LEFT), origX, endY, origY) : null;
+		if(sTop != null && sRight != null && sBottom != null && sLeft != null
+				&& sTop.width == sRight.width && sTop.width == sBottom.width && sTop.width == sLeft.width){
+			rectangles.add(new Segment[]{sTop, sRight, sBottom, sLeft});
+		}
+	}
+
+	/**
+	 * Add a horizontal line.
+	 * @param lineWidth		the width of the line.
+	 * @param y				the position of the line from the bottom of the page.
+	 * @param x1			the position where the line starts from the left of the page.
+	 * @param x2			the position where the line ends from the left of the page.
+	 */
+	public void addHorizontal(float lineWidth, float y, float x1, float x2){
+		horizontal(lineWidth, y, x1, x2);
+	}
+
+	/**
+	 * Add a vertical line.
+	 * @param lineWidth		the width of the line.
+	 * @param x				the position of the line from the left of the page.
+	 * @param y1			the position where the line starts from the bottom of the page.
+	 * @param y2			the position where the line ends from the bottom of the page.
+	 */
+	public void addVertical(float lineWidth, float x, float y1, float y2){
+		vertical(lineWidth, x, y1, y2);
+	}
+
+	private Segment horizontal(float lineWidth, float y, float x1, float x2){
+		Segment s = new Segment(lineWidth, y, Math.min(x1, x2), Math.max(x1, x2));
+		horizontals.add(s);
+		return s;
+	}
+
+	private Segment vertical(float lineWidth, float x, float y1, float y2){
+		Segment s = new Segment(lineWidth, x, Math.min(y1, y2), Math.max(y1, y2));
+		verticals.add(s);
+		return s;
+	}
+
+	/**
+	 * Returns wether there is nothing to draw.
+	 * @return		true if no border was added since the last draw.
+	 */
+	public boolean isEmpty(){
+		return horizontals.isEmpty() && verticals.isEmpty();
+	}
+
+	/**
+	 * Draw all the borders added since the last draw in black, then forget them.
+	 * @param pdft			an instance of PdfTools.
+	 * @param contents		the content of the page.
+	 * @throws IOException	when the contents cannot be written on.
+	 */
+	public void draw(PdfTools pdft, PDPageContentStream contents) throws IOException{
+		if(isEmpty())
+			return;
+		List<Segment> hRuns = merge(horizontals);
+		List<Segment> vRuns = merge(verticals);
+		// a cell alone keeps exactly its four borders after the merge
+		Set<Segment> hSet = new HashSet<Segment>(hRuns);
+		Set<Segment> vSet = new HashSet<Segment>(vRuns);
+		List<Segment[]> rects = new ArrayList<Segment[]>();
+		for(Segment[] r : rectangles){
+			if(hSet.contains(r[0]) && vSet.contains(r[1]) && hSet.contains(r[2]) && vSet.contains(r[3])){
+				hSet.remove(r[0]);
+				vSet.remove(r[1]);
+				hSet.remove(r[2]);
+				vSet.remove(r[3]);
+				rects.add(r);
+			}
+		}
+		TreeSet<Float> widths = new TreeSet<Float>();
+		for(Segment s : hRuns)
+			widths.add(s.width);
+		for(Segment s : vRuns)
+			widths.add(s.width);
+		PdfContentStream stream = pdft.getContentStream(contents);
+		stream.setStrokingColor(Color.black);
+		for(Float width : widths){
+			float w = width;
+			stream.setLineWidth(w);
+			for(Segment[] r : rects){
+				if(r[0].width == w)
+					stream.addRect(r[3].position, r[2].position, r[1].position - r[3].position, r[0].position - r[2].position);
+			}
+			for(Segment s : hRuns){
+				if(s.width == w && hSet.contains(s)){
+					stream.moveTo(s.start, s.position);
+					stream.lineTo(s.end, s.position);
+				}
+			}
+			for(Segment s : vRuns){
+				if(s.width == w && vSet.contains(s)){
+					stream.moveTo(s.position, s.start);
+					stream.lineTo(s.position, s.end);
+				}
+			}
+			stream.stroke();
+		}
+		clear();
+	}
+
+	/**
+	 * Forget all the borders added.
+	 */
+	public void clear(){
+		horizontals.clear();
+		verticals.clear();
+		rectangles.clear();
+	}
+
+	/**
+	 * Join the segments on the same line which overlap or touch each other.
+	 * The positions which differ only by the rounding of the sums of the widths of the cells are the same line.
+	 * @param segments		the segments to join.
+	 * @return				the longest segments which can be drawn.
+	 */
+	private static List<Segment> merge(List<Segment> segments){
+		List<Segment> sorted = new ArrayList<Segment>(segments);
+		Collections.sort(sorted);
+		List<Segment> runs = new ArrayList<Segment>();
+		int first = 0;
+		while(first < sorted.size()){
+			Segment line = sorted.get(first);
+			int last = first + 1;
+			while(last < sorted.size() && sorted.get(last).width == line.width && sorted.get(last).position - line.position < EPSILON)
+				last++;
+			List<Segment> group = sorted.subList(first, last);
+			Collections.sort(group, BY_START);
+			Segment current = null;
+			for(Segment s : group){
+				// in the order of their start, a segment which starts before the end of the run overlaps or touches it
+				if(current != null && s.start <= current.end + EPSILON){
+					if(s.end > current.end)
+						current = new Segment(current.width, current.position, current.start, s.end);
+				}else{
+					if(current != null)
+						runs.add(current);
+					current = s;
+				}
+			}
+			runs.add(current);
+			first = last;
+		}
+		return runs;
+	}
+
+	/**
+	 * A horizontal or vertical line.
+	 * The position is the constant coordinate, start and end the bounds of the other one.
+	 */
+	private static final class Segment implements Comparable<Segment> {
+		final float width;
+		final float position;
+		final float start;
+		final float end;
+
+		Segment(float width, float position, float start, float end){
+			this.width = width;
+			this.position = position;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public int compareTo(Segment o){
+			int c = Float.compare(width, o.width);
+			if(c == 0)
+				c = Float.compare(position, o.position);
+			if(c == 0)
+				c = Float.compare(start, o.start);
+			if(c == 0)
+				c = Float.compare(end, o.end);
+			return c;
+		}
+
+		@Override
+		public boolean equals(Object o){
+			if(!(o instanceof Segment))
+				return false;
+			return compareTo((Segment) o) == 0;
+		}
+
+		@Override
+		public int hashCode(){
+			int h = Float.floatToIntBits(width);
+			h = 31 * h + Float.floatToIntBits(position);
+			h = 31 * h + Float.floatToIntBits(start);
+			return 31 * h + Float.floatToIntBits(end);
+		}
+	}
+}
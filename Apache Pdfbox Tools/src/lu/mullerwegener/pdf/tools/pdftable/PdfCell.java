@@ -1,13 +1,11 @@
 package lu.mullerwegener.pdf.tools.pdftable;
 
+import lu.mullerwegener.pdf.tools.PdfNumberFormat;
+
 public class PdfCell {
 	private float cellWidth;
 	private String cellValue;
-	private PdfHorizontalAlignment align;
-	private PdfCellBorder border_bottom;
-	private PdfCellBorder border_top;
-	private PdfCellBorder border_left;
-	private PdfCellBorder border_right; 
+	private PdfCellStyle style;
 
 	/**
 	 * Default constructor create a cell with the specified width, no text and aligned to the left.
@@ -35,11 +33,7 @@ public class PdfCell {
 	public PdfCell(float pcellWidth, String ptext, PdfHorizontalAlignment palign){
 		cellWidth = pcellWidth;
 		cellValue = ptext;
-		align = palign;
-		border_top = new PdfCellBorder();
-		border_right = new PdfCellBorder();
-		border_bottom = new PdfCellBorder();
-		border_left = new PdfCellBorder();
+		style = PdfCellStyle.getDefault(palign);
 	}
 
 	/**
@@ -74,44 +68,73 @@ public class PdfCell {
 		this.cellValue = desiredValue;
 	}
 
+	/**
+	 * Sets the value of the cell to a number.
+	 * @param desiredValue	the number in the cell
+	 * @param format		how the number is written
+	 */
+	public void setValue(float desiredValue, PdfNumberFormat format){
+		this.cellValue = format.formatToString(desiredValue);
+	}
+
 	/**
 	 * Change the alignment for the content of the cell.
 	 * @param align		{@link PdfHorizontalAlignment}
 	 */
 	public void setTextAlignment(PdfHorizontalAlignment align){
-		this.align = align;		
+		this.style = this.style.withAlignment(align);		
+	}
+
+	/**
+	 * Returns the style of the cell, shared with the cells which look the same.
+	 * @return		the style of the cell.
+	 */
+	public PdfCellStyle getStyle(){
+		return this.style;
+	}
+
+	/**
+	 * Change the borders and the alignment of the cell.
+	 * @param desiredStyle	the style of the cell.
+	 */
+	public void setStyle(PdfCellStyle desiredStyle){
+		this.style = desiredStyle;
 	}
 
 	/**
 	 * Returns the object that represents the right border.
+	 * Changing it changes the style of the cell.
 	 * @return 		the PdfCell that represents the right border
 	 */
 	public PdfCellBorder getBorderRight(){
-		return this.border_right;
+		return new PdfCellBorder(this, PdfBorder.BORDER_RIGHT);
 	}
 
 	/**
 	 * Returns the object that represents the top border.
+	 * Changing it changes the style of the cell.
 	 * @return		the PdfCell that represents the top border
 	 */
 	public PdfCellBorder getBorderTop(){
-		return this.border_top;
+		return new PdfCellBorder(this, PdfBorder.BORDER_TOP);
 	}
 
 	/**
 	 * Returns the object that represents the left border.
+	 * Changing it changes the style of the cell.
 	 * @return		the PdfCell that represents the left border
 	 */
 	public PdfCellBorder getBorderLeft(){
-		return this.border_left;
+		return new PdfCellBorder(this, PdfBorder.BORDER_LEFT);
 	}
 
 	/**
 	 * Returns the object that represents the bottom border.
+	 * Changing it changes the style of the cell.
 	 * @return		the PdfCell that represents the bottom border
 	 */
 	public PdfCellBorder getBorderBottom(){
-		return this.border_bottom;
+		return new PdfCellBorder(this, PdfBorder.BORDER_BOTTOM);
 	}
 
 	/**
@@ -120,7 +143,7 @@ public class PdfCell {
 	 * @see 	PdfHorizontalAlignment
 	 */
 	public PdfHorizontalAlignment getAlignment(){
-		return this.align;
+		return this.style.getAlignment();
 	}
 
 	/**
@@ -129,22 +152,7 @@ public class PdfCell {
 	 * @see PdfBorder
 	 */
 	public void hideBorder(PdfBorder border){
-		switch (border) {
-		case BORDER_TOP:
-			border_top.hide();
-			break;
-		case BORDER_RIGHT:
-			border_right.hide();
-			break;
-		case BORDER_BOTTOM:
-			border_bottom.hide();
-			break;
-		case BORDER_LEFT:
-			border_left.hide();
-			break;			
-		default:
-			break;
-		}
+		this.style = this.style.withBorder(border, false);
 	}
 
 	/**
@@ -153,22 +161,7 @@ public class PdfCell {
 	 * @see PdfBorder
 	 */
 	public void showBorder(PdfBorder border){
-		switch (border) {
-		case BORDER_TOP:
-			border_top.show();
-			break;
-		case BORDER_RIGHT:
-			border_right.show();
-			break;
-		case BORDER_BOTTOM:
-			border_bottom.show();
-			break;
-		case BORDER_LEFT:
-			border_left.show();
-			break;			
-		default:
-			break;
-		}
+		this.style = this.style.withBorder(border, true);
 	}
 
 	/**
@@ -178,41 +171,20 @@ public class PdfCell {
 	 * @see PdfBorder
 	 */
 	public void setBorderWidth(PdfBorder border, float width){
-		switch (border) {
-		case BORDER_TOP:
-			border_top.setLineWidth(width);
-			break;
-		case BORDER_RIGHT:
-			border_right.setLineWidth(width);
-			break;
-		case BORDER_BOTTOM:
-			border_bottom.setLineWidth(width);
-			break;
-		case BORDER_LEFT:
-			border_left.setLineWidth(width);
-			break;			
-		default:
-			break;
-		}
+		this.style = this.style.withBorderWidth(border, width);
 	}
 
 	/**
 	 * Hide the four borders of the cell.
 	 */
 	public void hideAllBorders(){		
-		hideBorder(PdfBorder.BORDER_TOP);
-		hideBorder(PdfBorder.BORDER_RIGHT);
-		hideBorder(PdfBorder.BORDER_BOTTOM);
-		hideBorder(PdfBorder.BORDER_LEFT);		
+		this.style = this.style.withAllBorders(false);
 	}
 
 	/**
 	 * Show the four borders of the cell.
 	 */
 	public void showAllBorders(){		
-		showBorder(PdfBorder.BORDER_TOP);
-		showBorder(PdfBorder.BORDER_RIGHT);
-		showBorder(PdfBorder.BORDER_BOTTOM);
-		showBorder(PdfBorder.BORDER_LEFT);		
+		this.style = this.style.withAllBorders(true);
 	}
 }
\ No newline at end of file
@@ -1,6 +1,13 @@
 package lu.mullerwegener.pdf.tools.pdftable;
 
+/**
+ * A border of a cell.
+ * The borders returned by a PdfCell do not keep any state: they read and change the style of the cell.
+ * The borders created with a constructor keep their own state.
+ */
 public class PdfCellBorder {
+	private final PdfCell cell;
+	private final PdfBorder side;
 	private boolean show;
 	private float lineWidth;
 	
@@ -25,22 +32,40 @@ public class PdfCellBorder {
 	 * @param show		is the border stroke on the pdf
 	 */
 	public PdfCellBorder(float width, boolean show){
+		this.cell = null;
+		this.side = null;
 		this.lineWidth = width;
 		this.show = show;
 	}
+
+	/**
+	 * Create the border of a cell.
+	 * @param pcell		the cell.
+	 * @param pside		which border of the cell.
+	 */
+	PdfCellBorder(PdfCell pcell, PdfBorder pside){
+		this.cell = pcell;
+		this.side = pside;
+	}
 	
 	/**
 	 * Show the border on the pdf. 
 	 */
 	public void show() {
-		this.show = true;
+		if(cell != null)
+			cell.showBorder(side);
+		else
+			this.show = true;
 	}
 	
 	/**
 	 * Hide the border ont the pdf.
 	 */
 	public void hide(){
-		this.show = false;
+		if(cell != null)
+			cell.hideBorder(side);
+		else
+			this.show = false;
 	}
 	
 	/**
@@ -48,6 +73,8 @@ public class PdfCellBorder {
 	 * @return the width of the border
 	 */
 	public float getLineWidth(){
+		if(cell != null)
+			return cell.getStyle().getLineWidth(side);
 		return this.lineWidth;
 	}
 	
@@ -56,7 +83,10 @@ public class PdfCellBorder {
 	 * @param desiredLineWidth	the desired width for the border 
 	 */
 	public void setLineWidth(float desiredLineWidth){
-		this.lineWidth = desiredLineWidth;
+		if(cell != null)
+			cell.setBorderWidth(side, desiredLineWidth);
+		else
+			this.lineWidth = desiredLineWidth;
 	}
 	
 	/**
@@ -64,6 +94,8 @@ public class PdfCellBorder {
 	 * @return	the state of the border
 	 */
 	public boolean isShown(){
+		if(cell != null)
+			return cell.getStyle().isShown(side);
 		return this.show;
 	}
 	
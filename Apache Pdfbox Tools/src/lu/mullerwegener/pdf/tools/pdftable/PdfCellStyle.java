@@ -0,0 +1,153 @@
+package lu.mullerwegener.pdf.tools.pdftable;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The look of a cell: which borders are shown, the width of each border and the alignment of the text.
+ * A style cannot be changed, the methods with... return the style with the change.
+ * The styles are shared, so all the cells which look the same use the same object, up to 4096 different styles:
+ * past them, a new style is created each time, equal to the others which look the same.
+ * The shown borders are kept as the bits of an int.
+ * @author paquet
+ *
+ */
+public final class PdfCellStyle {
+	private static final float DEFAULT_WIDTH = 0.5f;
+	private static final int ALL_BORDERS = 0xF;
+	private static final int MAX_SHARED_STYLES = 4096;
+	private static final ConcurrentHashMap<PdfCellStyle, PdfCellStyle> STYLES = new ConcurrentHashMap<PdfCellStyle, PdfCellStyle>();
+	private static final PdfCellStyle[] DEFAULTS = new PdfCellStyle[PdfHorizontalAlignment.values().length];
+
+	static{
+		float[] widths = {DEFAULT_WIDTH, DEFAULT_WIDTH, DEFAULT_WIDTH, DEFAULT_WIDTH};
+		for(PdfHorizontalAlignment align : PdfHorizontalAlignment.values())
+			DEFAULTS[align.ordinal()] = intern(ALL_BORDERS, widths, align);
+	}
+
+	private final int borders;
+	private final float[] lineWidths;
+	private final PdfHorizontalAlignment align;
+
+	private PdfCellStyle(int pborders, float[] plineWidths, PdfHorizontalAlignment palign){
+		this.borders = pborders;
+		this.lineWidths = plineWidths;
+		this.align = palign;
+	}
+
+	/**
+	 * Returns the style of a new cell: the four borders are shown with a width of 0.5 and the text is aligned to the left.
+	 * @return		the default style.
+	 */
+	public static PdfCellStyle getDefault(){
+		return DEFAULTS[PdfHorizontalAlignment.TEXT_LEFT.ordinal()];
+	}
+
+	/**
+	 * Returns the default style with the specified alignment.
+	 * @param align		the alignment of the text.
+	 * @return			the default style with this alignment.
+	 */
+	public static PdfCellStyle getDefault(PdfHorizontalAlignment align){
+		return DEFAULTS[align.ordinal()];
+	}
+
+	/**
+	 * Returns wether the border is shown.
+	 * @param border	the border.
+	 * @return			true if the border is stroke on the pdf.
+	 */
+	public boolean isShown(PdfBorder border){
+		return (borders & 1 << border.ordinal()) != 0;
+	}
+
+	/**
+	 * Returns the width of the line of the border.
+	 * @param border	the border.
+	 * @return			the width of the border. In pixels.
+	 */
+	public float getLineWidth(PdfBorder border){
+		return lineWidths[border.ordinal()];
+	}
+
+	/**
+	 * Returns the alignment of the text.
+	 * @return		the alignment of the text.
+	 */
+	public PdfHorizontalAlignment getAlignment(){
+		return align;
+	}
+
+	/**
+	 * Returns this style with the border shown or hidden.
+	 * @param border	the border.
+	 * @param shown		true to show the border, false to hide it.
+	 * @return			the style with the change.
+	 */
+	public PdfCellStyle withBorder(PdfBorder border, boolean shown){
+		int bit = 1 << border.ordinal();
+		return intern(shown ? borders | bit : borders & ~bit, lineWidths, align);
+	}
+
+	/**
+	 * Returns this style with the four borders shown or hidden.
+	 * @param shown		true to show the borders, false to hide them.
+	 * @return			the style with the change.
+	 */
+	public PdfCellStyle withAllBorders(boolean shown){
+		return intern(shown ? ALL_BORDERS : 0, lineWidths, align);
+	}
+
+	/**
+	 * Returns this style with another width for the border.
+	 * @param border	the border.
+	 * @param width		the width of the line. In pixels.
+	 * @return			the style with the change.
+	 */
+	public PdfCellStyle withBorderWidth(PdfBorder border, float width){
+		float[] widths = lineWidths.clone();
+		widths[border.ordinal()] = width;
+		return intern(borders, widths, align);
+	}
+
+	/**
+	 * Returns this style with another alignment of the text.
+	 * @param palign	the alignment of the text.
+	 * @return			the style with the change.
+	 */
+	public PdfCellStyle withAlignment(PdfHorizontalAlignment palign){
+		return intern(borders, lineWidths, palign);
+	}
+
+	@Override
+	public boolean equals(Object o){
+		if(o == this)
+			return true;
+		if(!(o instanceof PdfCellStyle))
+			return false;
+		PdfCellStyle other = (PdfCellStyle) o;
+		return borders == other.borders && align == other.align && Arrays.equals(lineWidths, other.lineWidths);
+	}
+
+	@Override
+	public int hashCode(){
+		return (31 * Arrays.hashCode(lineWidths) + align.ordinal()) << 4 | borders;
+	}
+
+	/**
+	 * Returns the shared style, created if needed. The widths are not changed afterwards.
+	 */
+	private static PdfCellStyle intern(int borders, float[] widths, PdfHorizontalAlignment align){
+		PdfCellStyle created = new PdfCellStyle(borders, widths, align);
+		PdfCellStyle style = STYLES.get(created);
+		if(style == null){
+			// the styles are not shared anymore past the limit, instead of keeping every width ever used
+			if(STYLES.size() >= MAX_SHARED_STYLES)
+				return created;
+			style = STYLES.putIfAbsent(created, created);
+			if(style == null)
+				style = created;
+		}
+		return style;
+	}
+}
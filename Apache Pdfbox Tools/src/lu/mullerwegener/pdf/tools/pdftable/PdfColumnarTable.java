@@ -0,0 +1,429 @@
+package lu.mullerwegener.pdf.tools.pdftable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+
+import lu.mullerwegener.pdf.tools.PdfFontMetrics;
+import lu.mullerwegener.pdf.tools.PdfTools;
+
+/**
+ * A table whose columns are fixed, for the tables with many rows.
+ * Instead of an object for each row and each cell, the heights of the rows are kept in an array of floats,
+ * the values of each column in an array of Strings, or of indexes in the distinct values of the column when it is dictionary encoded,
+ * and the style of each cell as the index of a byte in the styles of the table.
+ * It is laid out and written like a {@link PdfTable} whose text is not wrapped, see {@link PdfPageLayout}: the text of each cell is on a single line.
+ * @author paquet
+ *
+ */
+public class PdfColumnarTable implements PdfDrawableTable {
+	private static final int INITIAL_CAPACITY = 64;
+	private float posX;
+	private float posY;
+	private final float[] columnWidths;
+	private final String[] entete;
+	private final byte[] enteteStyles;
+	private float enteteHeight;
+	private final Column[] columns;
+	private final byte[] columnStyles;
+	private final List<PdfCellStyle> styles;
+	private final Map<PdfCellStyle, Integer> styleIndexes;
+	private float[] rowHeights;
+	private byte[] cellStyles;
+	private int rowCount;
+	private int currentIndex;
+
+	/**
+	 * Create a table with a top left corner at point (posX, posY) and a column for each width.
+	 * @param posX			the position from the left of the page. In pixels.
+	 * @param posY			the position from the bottom of the page. In pixels.
+	 * @param widths		the width of each column. In pixels.
+	 */
+	public PdfColumnarTable(float posX, float posY, float[] widths){
+		this.posX = posX;
+		this.posY = posY;
+		this.columnWidths = widths.clone();
+		this.entete = new String[widths.length];
+		Arrays.fill(this.entete, "");
+		this.enteteStyles = new byte[widths.length];
+		this.enteteHeight = 32;
+		this.columns = new Column[widths.length];
+		for(int i = 0; i < widths.length; i++)
+			this.columns[i] = new Column();
+		this.columnStyles = new byte[widths.length];
+		this.styles = new ArrayList<PdfCellStyle>();
+		this.styleIndexes = new HashMap<PdfCellStyle, Integer>();
+		styleIndex(PdfCellStyle.getDefault());
+		this.rowHeights = new float[INITIAL_CAPACITY];
+		this.cellStyles = new byte[INITIAL_CAPACITY * widths.length];
+	}
+
+	@Override
+	public float getPosY(){
+		return this.posY;
+	}
+
+	@Override
+	public void setPosY(float desiredPosY){
+		this.posY = desiredPosY;
+	}
+
+	/**
+	 * Return the position of the table from the left border of the page.
+	 * @return		the position from the the left border of the page. Measured in pixels.
+	 */
+	public float getPosX(){
+		return this.posX;
+	}
+
+	/**
+	 * Set the position of the top left corner of the table from the left border of the page.
+	 * @param desiredPosX		the position of the table from the left border of the page. Measured in pixels.		
+	 */
+	public void setPosX(float desiredPosX){
+		this.posX = desiredPosX;
+	}
+
+	/**
+	 * Returns the number of columns of the table.
+	 * @return		the number of columns.
+	 */
+	public int getNumberOfColumns(){
+		return this.columnWidths.length;
+	}
+
+	/**
+	 * Returns the number of rows of the table, without the header.
+	 * @return		the number of rows.
+	 */
+	public int getNumberOfRows(){
+		return this.rowCount;
+	}
+
+	/**
+	 * Keep the values of the column as indexes in its distinct values, for the columns which repeat a few values.
+	 * It must be chosen before the first row is added. By default, the values are kept as they are.
+	 * An encoded column whose values turn out to be mostly distinct, more than 1024 and more than half of its cells, keeps them as they are again.
+	 * @param column		the index of the column.
+	 * @param encoded		true to keep the distinct values only once.
+	 */
+	public void setDictionaryEncoded(int column, boolean encoded){
+		if(rowCount > 0)
+			throw new IllegalStateException("The encoding of a column is chosen before adding rows");
+		this.columns[column].setEncoded(encoded);
+	}
+
+	/**
+	 * Set the text and style of a cell of the header. The text of the header is written in bold.
+	 * @param column		the index of the column.
+	 * @param value			the text of the header.
+	 * @param style			the style of the cell.
+	 */
+	public void setEntete(int column, String value, PdfCellStyle style){
+		this.entete[column] = value;
+		this.enteteStyles[column] = styleIndex(style);
+	}
+
+	/**
+	 * Set the height of the header.
+	 * @param height		the height of the header. In pixels.
+	 */
+	public void setEnteteHeight(float height){
+		this.enteteHeight = height;
+	}
+
+	/**
+	 * Set the style of the cells of the column added afterwards.
+	 * @param column		the index of the column.
+	 * @param style			the style of the new cells.
+	 */
+	public void setColumnStyle(int column, PdfCellStyle style){
+		this.columnStyles[column] = styleIndex(style);
+	}
+
+	/**
+	 * Add a row at the end of the table. Its cells have the style of their column.
+	 * @param height		the height of the row. In pixels.
+	 * @param values		the text of each column, null for an empty cell.
+	 * @return				the index of the row.
+	 */
+	public int addRow(float height, String... values){
+		if(values.length > columnWidths.length)
+			throw new IllegalArgumentException("The table has only " + columnWidths.length + " columns");
+		if(rowCount == rowHeights.length){
+			int capacity = rowHeights.length + (rowHeights.length >> 1);
+			rowHeights = Arrays.copyOf(rowHeights, capacity);
+			cellStyles = Arrays.copyOf(cellStyles, capacity * columnWidths.length);
+		}
+		int row = rowCount++;
+		rowHeights[row] = height;
+		System.arraycopy(columnStyles, 0, cellStyles, row * columnWidths.length, columnWidths.length);
+		for(int c = 0; c < columns.length; c++)
+			columns[c].add(c < values.length && values[c] != null ? values[c] : "");
+		return row;
+	}
+
+	/**
+	 * Returns the text of a cell.
+	 * @param row			the index of the row.
+	 * @param column		the index of the column.
+	 * @return				the text of the cell.
+	 */
+	public String getValue(int row, int column){
+		checkRow(row);
+		return columns[column].get(row);
+	}
+
+	/**
+	 * Change the text of a cell.
+	 * @param row			the index of the row.
+	 * @param column		the index of the column.
+	 * @param value			the text of the cell.
+	 */
+	public void setValue(int row, int column, String value){
+		checkRow(row);
+		columns[column].set(row, value == null ? "" : value);
+	}
+
+	/**
+	 * Returns the height of a row.
+	 * @param row			the index of the row.
+	 * @return				the height of the row. In pixels.
+	 */
+	public float getRowHeight(int row){
+		checkRow(row);
+		return rowHeights[row];
+	}
+
+	/**
+	 * Returns the style of a cell.
+	 * @param row			the index of the row.
+	 * @param column		the index of the column.
+	 * @return				the style of the cell.
+	 */
+	public PdfCellStyle getStyle(int row, int column){
+		checkRow(row);
+		return styles.get(cellStyles[row * columnWidths.length + column] & 0xFF);
+	}
+
+	/**
+	 * Change the style of a cell.
+	 * @param row			the index of the row.
+	 * @param column		the index of the column.
+	 * @param style			the style of the cell.
+	 */
+	public void setStyle(int row, int column, PdfCellStyle style){
+		checkRow(row);
+		cellStyles[row * columnWidths.length + column] = styleIndex(style);
+	}
+
+	@Override
+	public boolean hasNext(){
+		return currentIndex < rowCount;
+	}
+
+	/**
+	 * Draw the table from the first row not drawn yet, as {@link PdfTable#drawTable(PdfTools, PDPageContentStream, float)} draws a table whose text is not wrapped.
+	 * The page is laid out first, then written, see {@link PdfPageLayout}.
+	 * @param pdft			an instance of PdfTools.
+	 * @param contents		the content where to draw the table.
+	 * @param rupture_page	the line in pixels where to stop drawing.
+	 * @throws IOException	when the contents cannot write to the page
+	 */
+	@Override
+	public void drawTable(PdfTools pdft, PDPageContentStream contents, float rupture_page) throws IOException{
+		PdfPageLayout.Builder page = new PdfPageLayout.Builder(PDType1Font.HELVETICA_BOLD, pdft.getLastUsedFont(), pdft.getLastUsedSize(), pdft.getFontFallback());
+		// the header is measured with the font of the rows, as in a PdfTable
+		PdfFontMetrics metrics = PdfFontMetrics.getInstance(pdft.getLastUsedFont());
+		float origY = this.posY;
+		int columnCount = columnWidths.length;
+		while(this.hasNext()){
+			if(page.getRowCount() == 0){
+				page.startRow(PdfPageLayout.HEADER);
+				float origX = this.posX;
+				for(int c = 0; c < columnCount; c++){
+					origX = placeCell(page, PdfPageLayout.HEADER, metrics, origX, origY, enteteHeight, c, styles.get(enteteStyles[c] & 0xFF), entete[c]);
+				}
+				origY -= enteteHeight;
+			}
+			int row = currentIndex++;
+			float height = rowHeights[row];
+			int offset = row * columnCount;
+			page.startRow(PdfPageLayout.BODY);
+			float origX = this.posX;
+			for(int c = 0; c < columnCount; c++){
+				origX = placeCell(page, PdfPageLayout.BODY, metrics, origX, origY, height, c, styles.get(cellStyles[offset + c] & 0xFF), columns[c].get(row));
+			}
+			origY -= height;
+			if(origY < rupture_page){
+				break;
+			}
+		}
+		page.build().emit(pdft, contents);
+	}
+
+	/**
+	 * Place the box and the text of a cell, the text centered vertically in the row.
+	 * @return		the position where the next cell starts.
+	 */
+	private float placeCell(PdfPageLayout.Builder page, int font, PdfFontMetrics metrics, float origX, float origY, float height, int column, PdfCellStyle style, String value) throws IOException{
+		float width = columnWidths[column];
+		float fontSize = page.getFontSize();
+		page.addBox(style, origX, origY, width, height);
+		PdfTable.placeLine(page, font, metrics, page.getFallback(), fontSize, style.getAlignment(), origX, width, origY - height / 2 - fontSize / 2, value);
+		return origX + width;
+	}
+
+	/**
+	 * Start drawing again from the first row.
+	 */
+	public void rewind(){
+		this.currentIndex = 0;
+	}
+
+	private void checkRow(int row){
+		if(row < 0 || row >= rowCount)
+			throw new IndexOutOfBoundsException("Row " + row + ", the table has " + rowCount + " rows");
+	}
+
+	/**
+	 * Returns the index of the style in the styles of the table, adding it if needed.
+	 * @param style		the style.
+	 * @return			the index of the style, as a byte.
+	 */
+	private byte styleIndex(PdfCellStyle style){
+		Integer index = styleIndexes.get(style);
+		if(index == null){
+			if(styles.size() == 256)
+				throw new IllegalStateException("Too many different styles in the table, 256 at most");
+			index = Integer.valueOf(styles.size());
+			styles.add(style);
+			styleIndexes.put(style, index);
+		}
+		return (byte) index.intValue();
+	}
+
+	/**
+	 * The values of a column, either as they are or as indexes in the distinct values of the column.
+	 * The distinct values count their cells, so a value no cell has anymore is forgotten and its index given to the next new value.
+	 */
+	private static class Column {
+		// an encoded column with more distinct values than this and than half of its cells keeps its values as they are
+		private static final int MAX_DISTINCT_VALUES = 1024;
+		private boolean encoded;
+		private String[] values;
+		private int[] codes;
+		private List<String> dictionary;
+		private Map<String, Integer> dictionaryIndexes;
+		private int[] uses;
+		private int[] freeCodes;
+		private int freeCount;
+		private int size;
+
+		Column(){
+			setEncoded(false);
+		}
+
+		void setEncoded(boolean pencoded){
+			this.encoded = pencoded;
+			if(encoded){
+				this.values = null;
+				this.codes = new int[INITIAL_CAPACITY];
+				this.dictionary = new ArrayList<String>();
+				this.dictionaryIndexes = new HashMap<String, Integer>();
+				this.uses = new int[INITIAL_CAPACITY];
+				this.freeCodes = new int[INITIAL_CAPACITY];
+			}else{
+				this.values = new String[INITIAL_CAPACITY];
+				this.codes = null;
+				this.dictionary = null;
+				this.dictionaryIndexes = null;
+				this.uses = null;
+				this.freeCodes = null;
+			}
+			this.freeCount = 0;
+		}
+
+		void add(String value){
+			if(encoded){
+				if(size == codes.length)
+					codes = Arrays.copyOf(codes, size + (size >> 1));
+				codes[size++] = encode(value);
+				decodeIfDistinct();
+			}else{
+				if(size == values.length)
+					values = Arrays.copyOf(values, size + (size >> 1));
+				values[size++] = value;
+			}
+		}
+
+		void set(int index, String value){
+			if(!encoded){
+				values[index] = value;
+				return;
+			}
+			int previous = codes[index];
+			codes[index] = encode(value);
+			release(previous);
+			decodeIfDistinct();
+		}
+
+		String get(int index){
+			return encoded ? dictionary.get(codes[index]) : values[index];
+		}
+
+		/**
+		 * Returns the index of the value, added to the distinct values if needed, and count one more cell for it.
+		 */
+		private int encode(String value){
+			Integer code = dictionaryIndexes.get(value);
+			if(code == null){
+				if(freeCount > 0){
+					code = Integer.valueOf(freeCodes[--freeCount]);
+					dictionary.set(code.intValue(), value);
+				}else{
+					code = Integer.valueOf(dictionary.size());
+					dictionary.add(value);
+					if(code.intValue() == uses.length)
+						uses = Arrays.copyOf(uses, uses.length * 2);
+				}
+				dictionaryIndexes.put(value, code);
+			}
+			uses[code.intValue()]++;
+			return code.intValue();
+		}
+
+		/**
+		 * Count one cell less for the value of the index, and forget the value when no cell has it anymore.
+		 */
+		private void release(int code){
+			if(--uses[code] > 0)
+				return;
+			dictionaryIndexes.remove(dictionary.get(code));
+			dictionary.set(code, null);
+			if(freeCount == freeCodes.length)
+				freeCodes = Arrays.copyOf(freeCodes, freeCount * 2);
+			freeCodes[freeCount++] = code;
+		}
+
+		/**
+		 * Keep the values as they are when most of them are distinct, the indexes would only add to them.
+		 */
+		private void decodeIfDistinct(){
+			int distinct = dictionaryIndexes.size();
+			if(distinct <= MAX_DISTINCT_VALUES || distinct <= size / 2)
+				return;
+			String[] plain = new String[codes.length];
+			for(int i = 0; i < size; i++)
+				plain[i] = dictionary.get(codes[i]);
+			setEncoded(false);
+			this.values = plain;
+		}
+	}
+}
\ No newline at end of file
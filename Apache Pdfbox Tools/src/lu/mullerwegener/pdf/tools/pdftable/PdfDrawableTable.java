@@ -0,0 +1,43 @@
+package lu.mullerwegener.pdf.tools.pdftable;
+
+import java.io.IOException;
+
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+
+import lu.mullerwegener.pdf.tools.PdfTools;
+
+/**
+ * A table which can be drawn page after page.
+ * Each call to {@link #drawTable(PdfTools, PDPageContentStream, float) drawTable} draws the header
+ * then the rows not drawn yet, until the line where the page breaks.
+ * @author paquet
+ *
+ */
+public interface PdfDrawableTable {
+	/**
+	 * Return the position of the table from the bottom border of the page.
+	 * @return		the position from the the bottom border of the page. Measured in pixels.
+	 */
+	float getPosY();
+
+	/**
+	 * Set the position of the top left corner of the table from the bottom border of the page.
+	 * @param desiredPosY		the position of the table from the bottom border of the page. Measured in pixels.
+	 */
+	void setPosY(float desiredPosY);
+
+	/**
+	 * Returns wether some rows are not drawn yet.
+	 * @return		true if there are rows left to draw.
+	 */
+	boolean hasNext();
+
+	/**
+	 * Draw the header then the rows not drawn yet, until the line rupture_page.
+	 * @param pdft			an instance of PdfTools.
+	 * @param contents		the content where to draw the table.
+	 * @param rupture_page	the line in pixels where to stop drawing.
+	 * @throws IOException	when the contents cannot write to the page
+	 */
+	void drawTable(PdfTools pdft, PDPageContentStream contents, float rupture_page) throws IOException;
+}
@@ -0,0 +1,163 @@
+package lu.mullerwegener.pdf.tools.pdftable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+
+import lu.mullerwegener.pdf.tools.PdfFontFallback;
+import lu.mullerwegener.pdf.tools.PdfFontProgram;
+import lu.mullerwegener.pdf.tools.PdfPageProducer;
+import lu.mullerwegener.pdf.tools.PdfParallelRenderer;
+import lu.mullerwegener.pdf.tools.PdfTools;
+import lu.mullerwegener.pdf.tools.SectionPage;
+
+/**
+ * A table and the sections drawn on each page, laid out in advance: where the pages break,
+ * the box of each cell and the position of each line of text, see {@link PdfPageLayout}.
+ * The plan is made once, then written in as many documents as needed, page after page or by a {@link PdfParallelRenderer}
+ * on other threads: it cannot be changed and does not refer to the table.
+ * The fonts created from a {@link PdfFontProgram} are replaced by the fonts of their program in each document,
+ * the document used to lay out the plan can be closed. The other fonts loaded by PDFBox belong to one document, use the standard fonts.
+ * When only the values of the cells change, {@link #withValues(PdfTable)} keeps the breaks and the boxes and only places the texts again.
+ * @author paquet
+ *
+ */
+public final class PdfLayoutPlan implements PdfPageProducer {
+	private final PDFont font;
+	private final float fontSize;
+	private final PdfFontFallback fallback;
+	private final float top;
+	private final float rupturePage;
+	private final float continuationPosY;
+	private final SectionPage[] sections;
+	private final PdfPageLayout[] pages;
+	private final int rowCount;
+
+	private PdfLayoutPlan(PDFont pfont, float pfontSize, PdfFontFallback pfallback, float ptop, float rupture_page, float pcontinuationPosY, SectionPage[] psections, PdfPageLayout[] ppages) {
+		this.font = pfont;
+		this.fontSize = pfontSize;
+		this.fallback = pfallback;
+		this.top = ptop;
+		this.rupturePage = rupture_page;
+		this.continuationPosY = pcontinuationPosY;
+		this.sections = psections;
+		this.pages = ppages;
+		int count = 0;
+		for(PdfPageLayout page : ppages)
+			count += page.getRowCount();
+		this.rowCount = count;
+	}
+
+	/**
+	 * Lay out the rows of the table not drawn yet, as {@link PdfTable#drawTable(PdfTools, PDPageContentStream, float) drawTable} would draw them.
+	 * The table is left as it is.
+	 * @param table					the table. Its rows cannot come from a source.
+	 * @param font					the font of the rows when their text is not wrapped, as the last font used by PdfTools.
+	 * @param fontSize				the size of the font when the text is not wrapped.
+	 * @param rupture_page			the line in pixels from the bottom of the page where the table stops.
+	 * @param continuationPosY		the position of the top of the table on the pages after the first one, NaN to start at the same place as on the first page.
+	 * @param psections				the sections drawn on each page before the table. They are copied.
+	 * @return						the plan of the pages.
+	 * @throws IOException			when a font cannot be read.
+	 */
+	public static PdfLayoutPlan layout(PdfTable table, PDFont font, float fontSize, float rupture_page, float continuationPosY, SectionPage... psections) throws IOException {
+		return layout(table, font, fontSize, null, rupture_page, continuationPosY, psections);
+	}
+
+	/**
+	 * Lay out the rows of the table not drawn yet, the characters the fonts cannot show measured with fallback fonts.
+	 * The documents where the plan is written must show them with fonts of the same metrics, see {@link PdfTools#setFallbackFonts(PDFont...)}.
+	 * @param table					the table. Its rows cannot come from a source.
+	 * @param font					the font of the rows when their text is not wrapped, as the last font used by PdfTools.
+	 * @param fontSize				the size of the font when the text is not wrapped.
+	 * @param fallback				the fallback fonts, as given by {@link PdfTools#getFontFallback()}, null for none.
+	 * @param rupture_page			the line in pixels from the bottom of the page where the table stops.
+	 * @param continuationPosY		the position of the top of the table on the pages after the first one, NaN to start at the same place as on the first page.
+	 * @param psections				the sections drawn on each page before the table. They are copied.
+	 * @return						the plan of the pages.
+	 * @throws IOException			when a font cannot be read.
+	 */
+	public static PdfLayoutPlan layout(PdfTable table, PDFont font, float fontSize, PdfFontFallback fallback, float rupture_page, float continuationPosY, SectionPage... psections) throws IOException {
+		if(table.hasRowSource())
+			throw new IllegalStateException("The rows of a source cannot be laid out in advance");
+		SectionPage[] copies = new SectionPage[psections.length];
+		for(int i = 0; i < psections.length; i++)
+			copies[i] = psections[i].copy();
+		return layoutCopies(table, font, fontSize, fallback, rupture_page, continuationPosY, copies);
+	}
+
+	private static PdfLayoutPlan layoutCopies(PdfTable table, PDFont font, float fontSize, PdfFontFallback fallback, float rupture_page, float continuationPosY, SectionPage[] sections) throws IOException {
+		List<PdfPageLayout> pages = new ArrayList<PdfPageLayout>();
+		List<PdfRow> rows = table.getRows();
+		int i = table.currentIndex;
+		while(i < rows.size()){
+			float pageTop = pages.isEmpty() || Float.isNaN(continuationPosY) ? table.getPosY() : continuationPosY;
+			PdfPageLayout.Builder page = table.newPage(font, fontSize, fallback);
+			table.layoutRows(page, rows.subList(i, rows.size()).iterator(), pageTop, rupture_page);
+			PdfPageLayout layout = page.build();
+			pages.add(layout);
+			i += layout.getRowCount();
+		}
+		return new PdfLayoutPlan(font, fontSize, fallback, table.getPosY(), rupture_page, continuationPosY, sections, pages.toArray(new PdfPageLayout[pages.size()]));
+	}
+
+	/**
+	 * Returns the plan of a table which differs from the table of this plan only by the values of its cells.
+	 * The pages break at the same rows and the cells keep their boxes, only the texts are placed again.
+	 * When a row does not have the same boxes anymore, for example a wrapped value which needs more lines,
+	 * or when the number of rows changed, the whole table is laid out again.
+	 * @param table					the table with the new values. Its rows cannot come from a source.
+	 * @return						the plan of the table.
+	 * @throws IOException			when a font cannot be read.
+	 */
+	public PdfLayoutPlan withValues(PdfTable table) throws IOException {
+		if(table.hasRowSource())
+			throw new IllegalStateException("The rows of a source cannot be laid out in advance");
+		List<PdfRow> rows = table.getRows();
+		int first = table.currentIndex;
+		if(rows.size() - first != this.rowCount || table.getPosY() != this.top)
+			return layoutCopies(table, this.font, this.fontSize, this.fallback, this.rupturePage, this.continuationPosY, this.sections);
+		PdfPageLayout[] relaid = new PdfPageLayout[this.pages.length];
+		for(int p = 0; p < this.pages.length; p++){
+			int count = this.pages[p].getRowCount();
+			relaid[p] = table.relayoutText(this.pages[p], rows.subList(first, first + count).iterator(), this.font, this.fontSize);
+			if(relaid[p] == null)
+				return layoutCopies(table, this.font, this.fontSize, this.fallback, this.rupturePage, this.continuationPosY, this.sections);
+			first += count;
+		}
+		return new PdfLayoutPlan(this.font, this.fontSize, this.fallback, this.top, this.rupturePage, this.continuationPosY, this.sections, relaid);
+	}
+
+	/**
+	 * Returns the layout of a page.
+	 * @param index		the index of the page, from 0.
+	 * @return			the layout of the page.
+	 */
+	public PdfPageLayout getPage(int index) {
+		return this.pages[index];
+	}
+
+	@Override
+	public int getNumberOfPages() {
+		return this.pages.length;
+	}
+
+	/**
+	 * Write the sections then the table of a page. Several pages can be written at the same time.
+	 * @param pdft				an instance of PdfTools used only for this page.
+	 * @param contents			the content of the page.
+	 * @param index				the index of the page, from 0.
+	 * @param pageNumber		the number of the page in the document, from 1.
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	@Override
+	public void drawPage(PdfTools pdft, PDPageContentStream contents, int index, int pageNumber) throws IOException {
+		pdft.setFont(contents, pdft.resolveFont(this.font), this.fontSize);
+		for(SectionPage section : this.sections)
+			section.draw(pdft, contents);
+		this.pages[index].emit(pdft, contents);
+	}
+}
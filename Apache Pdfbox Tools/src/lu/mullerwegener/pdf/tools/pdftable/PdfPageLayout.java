@@ -0,0 +1,258 @@
+package lu.mullerwegener.pdf.tools.pdftable;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+
+import lu.mullerwegener.pdf.tools.PdfFontFallback;
+import lu.mullerwegener.pdf.tools.PdfFontProgram;
+import lu.mullerwegener.pdf.tools.PdfTools;
+
+/**
+ * The rows of a table placed on a page, ready to be written.
+ * The layout keeps the box of each cell with its style and each line of text with its position and its font,
+ * so writing the page only sends them to the content stream, without measuring anything.
+ * A layout cannot be changed and does not refer to the table, so it can be written in several documents, by any thread.
+ * The texts are measured with the fallback fonts given to the layout, if any, and written with the fallback fonts of the PdfTools
+ * which writes the page, split in runs by {@link PdfTools#addText(PDPageContentStream, float, float, String) addText}:
+ * the embedded fonts belong to each document, their metrics are the same.
+ * The fonts of the layout created from a {@link PdfFontProgram} are replaced the same way
+ * by the fonts of their program in the document written, see {@link PdfTools#resolveFont(PDFont)}.
+ * @author paquet
+ *
+ */
+public final class PdfPageLayout {
+	static final int HEADER = 0;
+	static final int BODY = 1;
+
+	private final PDFont[] fonts;
+	private final float fontSize;
+	private final PdfFontFallback fallback;
+	private final int rowCount;
+	private final int[] rowBoxes;
+	private final float[] boxes;
+	private final PdfCellStyle[] styles;
+	private final float[] runs;
+	private final String[] texts;
+	private final byte[] runFonts;
+
+	private PdfPageLayout(Builder builder) {
+		this.fonts = builder.fonts;
+		this.fontSize = builder.fontSize;
+		this.fallback = builder.fallback;
+		if(builder.shared != null){
+			this.rowCount = builder.shared.rowCount;
+			this.rowBoxes = builder.shared.rowBoxes;
+			this.boxes = builder.shared.boxes;
+			this.styles = builder.shared.styles;
+		}else{
+			this.rowCount = Math.max(0, builder.rowCount - 1);
+			this.rowBoxes = Arrays.copyOf(builder.rowBoxes, builder.rowCount + 1);
+			this.rowBoxes[builder.rowCount] = builder.boxCount;
+			this.boxes = Arrays.copyOf(builder.boxes, builder.boxCount * 4);
+			this.styles = Arrays.copyOf(builder.styles, builder.boxCount);
+		}
+		this.runs = Arrays.copyOf(builder.runs, builder.runCount * 2);
+		this.texts = Arrays.copyOf(builder.texts, builder.runCount);
+		this.runFonts = Arrays.copyOf(builder.runFonts, builder.runCount);
+	}
+
+	/**
+	 * Returns the number of rows of the table on the page, the header is not counted.
+	 * @return		the number of rows.
+	 */
+	public int getRowCount() {
+		return this.rowCount;
+	}
+
+	/**
+	 * Returns wether the rows of the layout are written with the font.
+	 * @param font			the font of the rows.
+	 * @param size			the size of the font.
+	 * @return				true if the layout was made for this font and this size.
+	 */
+	boolean usesFont(PDFont font, float size) {
+		return this.fonts[BODY] == font && this.fontSize == size;
+	}
+
+	/**
+	 * Returns wether a row has the same boxes as the row of the layout.
+	 * @param row		the index of the row in the layout, 0 for the header.
+	 * @param cells		the row to compare.
+	 * @param posX		the position of the table from the left of the page. In pixels.
+	 * @param height	the height the row takes. In pixels.
+	 * @return			true if the row has as many cells, with the same widths, the same styles and the same height.
+	 */
+	boolean matches(int row, PdfRow cells, float posX, float height) {
+		int first = this.rowBoxes[row];
+		if(this.rowBoxes[row + 1] - first != cells.getNumberOfCells())
+			return false;
+		float origX = posX;
+		for(int c = 0; c < cells.getNumberOfCells(); c++){
+			PdfCell cell = cells.getCell(c);
+			int box = (first + c) * 4;
+			if(!this.styles[first + c].equals(cell.getStyle()) || this.boxes[box] != origX || this.boxes[box + 2] != cell.getWidth() || this.boxes[box + 3] != height)
+				return false;
+			origX += cell.getWidth();
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the position of the top of a row.
+	 * @param row		the index of the row in the layout, 0 for the header.
+	 * @return			the position from the bottom of the page, NaN if the row has no cell. In pixels.
+	 */
+	float getRowTop(int row) {
+		return this.rowBoxes[row] < this.rowBoxes[row + 1] ? this.boxes[this.rowBoxes[row] * 4 + 1] : Float.NaN;
+	}
+
+	/**
+	 * Write the page: the texts in a single text object, then the borders in one path for each width of line.
+	 * @param pdft				an instance of PdfTools for the document.
+	 * @param contents			the content of the page.
+	 * @throws IOException		when the contents cannot be written on.
+	 */
+	public void emit(PdfTools pdft, PDPageContentStream contents) throws IOException {
+		PdfBorderRenderer borders = new PdfBorderRenderer();
+		for(int i = 0; i < this.styles.length; i++)
+			borders.addCell(this.styles[i], this.boxes[i * 4 + 2], this.boxes[i * 4], this.boxes[i * 4 + 1], this.boxes[i * 4 + 3]);
+		pdft.beginTextBatch(contents);
+		for(int i = 0; i < this.texts.length; i++){
+			// a run without text changes the font
+			if(this.texts[i] == null){
+				pdft.applyFont(contents, pdft.resolveFont(this.fonts[this.runFonts[i]]), this.fontSize);
+			}else{
+				pdft.addText(contents, this.runs[i * 2], this.runs[i * 2 + 1], this.texts[i]);
+			}
+		}
+		pdft.endTextBatch(contents);
+		borders.draw(pdft, contents);
+	}
+
+	/**
+	 * Collect the boxes and the texts of a page.
+	 */
+	static final class Builder {
+		private static final int INITIAL_CAPACITY = 64;
+		private final PDFont[] fonts;
+		private final float fontSize;
+		private final PdfFontFallback fallback;
+		private final PdfPageLayout shared;
+		private int rowCount;
+		private int[] rowBoxes;
+		private int boxCount;
+		private float[] boxes;
+		private PdfCellStyle[] styles;
+		private int runCount;
+		private float[] runs;
+		private String[] texts;
+		private byte[] runFonts;
+
+		/**
+		 * Start an empty page.
+		 * @param headerFont	the font of the header.
+		 * @param bodyFont		the font of the rows.
+		 * @param pfontSize		the size of both fonts.
+		 * @param pfallback		the fallback fonts which measure the characters the fonts cannot show, null for none.
+		 */
+		Builder(PDFont headerFont, PDFont bodyFont, float pfontSize, PdfFontFallback pfallback) {
+			this.fonts = new PDFont[]{headerFont, bodyFont};
+			this.fontSize = pfontSize;
+			this.fallback = pfallback;
+			this.shared = null;
+			this.rowBoxes = new int[INITIAL_CAPACITY];
+			this.boxes = new float[INITIAL_CAPACITY * 4];
+			this.styles = new PdfCellStyle[INITIAL_CAPACITY];
+			this.runs = new float[INITIAL_CAPACITY * 2];
+			this.texts = new String[INITIAL_CAPACITY];
+			this.runFonts = new byte[INITIAL_CAPACITY];
+		}
+
+		/**
+		 * Start a page with the boxes of another one, only the texts are added.
+		 * @param layout		the layout whose boxes are kept.
+		 */
+		Builder(PdfPageLayout layout) {
+			this.fonts = layout.fonts;
+			this.fontSize = layout.fontSize;
+			this.fallback = layout.fallback;
+			this.shared = layout;
+			this.rowCount = layout.rowCount + 1;
+			this.boxCount = layout.styles.length;
+			int capacity = Math.max(INITIAL_CAPACITY, layout.texts.length);
+			this.runs = new float[capacity * 2];
+			this.texts = new String[capacity];
+			this.runFonts = new byte[capacity];
+		}
+
+		PDFont getFont(int font) {
+			return this.fonts[font];
+		}
+
+		float getFontSize() {
+			return this.fontSize;
+		}
+
+		PdfFontFallback getFallback() {
+			return this.fallback;
+		}
+
+		/**
+		 * Returns the number of rows started, the header is counted.
+		 */
+		int getRowCount() {
+			return this.rowCount;
+		}
+
+		/**
+		 * Start a row, the boxes added next belong to it, and write the following texts with the font.
+		 */
+		void startRow(int font) {
+			if(this.shared == null){
+				if(this.rowCount + 1 >= this.rowBoxes.length)
+					this.rowBoxes = Arrays.copyOf(this.rowBoxes, this.rowBoxes.length * 2);
+				this.rowBoxes[this.rowCount++] = this.boxCount;
+			}
+			addRun(font, 0, 0, null);
+		}
+
+		void addBox(PdfCellStyle style, float x, float y, float width, float height) {
+			if(this.shared != null)
+				return;
+			if(this.boxCount == this.styles.length){
+				this.styles = Arrays.copyOf(this.styles, this.styles.length * 2);
+				this.boxes = Arrays.copyOf(this.boxes, this.boxes.length * 2);
+			}
+			this.styles[this.boxCount] = style;
+			int i = this.boxCount * 4;
+			this.boxes[i] = x;
+			this.boxes[i + 1] = y;
+			this.boxes[i + 2] = width;
+			this.boxes[i + 3] = height;
+			this.boxCount++;
+		}
+
+		void addRun(int font, float x, float y, String text) {
+			if(this.runCount == this.texts.length){
+				this.texts = Arrays.copyOf(this.texts, this.texts.length * 2);
+				this.runs = Arrays.copyOf(this.runs, this.runs.length * 2);
+				this.runFonts = Arrays.copyOf(this.runFonts, this.runFonts.length * 2);
+			}
+			this.texts[this.runCount] = text;
+			this.runs[this.runCount * 2] = x;
+			this.runs[this.runCount * 2 + 1] = y;
+			this.runFonts[this.runCount] = (byte) font;
+			this.runCount++;
+		}
+
+		/**
+		 * Returns the layout of the page.
+		 */
+		PdfPageLayout build() {
+			return new PdfPageLayout(this);
+		}
+	}
+}
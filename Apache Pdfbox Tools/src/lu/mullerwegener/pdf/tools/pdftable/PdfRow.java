@@ -4,6 +4,8 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
+import lu.mullerwegener.pdf.tools.PdfNumberFormat;
+
 public class PdfRow implements Iterator<PdfCell> {
 	private float rowHeight;
 	List<PdfCell> rowCells;
@@ -90,6 +92,19 @@ public class PdfRow implements Iterator<PdfCell> {
 		return cell;
 	}
 	
+	/**
+	 * Add a new cell to the row with the specified width and number, aligned to the right.
+	 * @param cellWidth		the width of the cell.
+	 * @param cellValue		the number in the cell.
+	 * @param format		how the number is written.
+	 * @return PdfCell		the cell that was added.
+	 */
+	public PdfCell addCell(float cellWidth, float cellValue, PdfNumberFormat format){
+		PdfCell cell = new PdfCell(cellWidth, format.formatToString(cellValue), PdfHorizontalAlignment.TEXT_RIGHT);
+		rowCells.add(cell);
+		return cell;
+	}
+	
 	/**
 	 * Return the cell at the index.
 	 * @param index		the desired cell index
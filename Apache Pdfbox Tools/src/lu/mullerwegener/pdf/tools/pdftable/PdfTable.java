@@ -4,19 +4,30 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Supplier;
 
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDFont;
 import org.apache.pdfbox.pdmodel.font.PDType1Font;
 
+import lu.mullerwegener.pdf.tools.PdfFontFallback;
+import lu.mullerwegener.pdf.tools.PdfFontMetrics;
+import lu.mullerwegener.pdf.tools.PdfLineBreaker;
 import lu.mullerwegener.pdf.tools.PdfTools;
 
 /**
  * A class to manage a table of data.
  * You can load it in one time and specify where it must stop at each page.
+ * The rows can also be read from a source while the table is drawn, see {@link #setRowSource(Iterator)}.
+ * To draw the same table in several documents or from several threads, draw it with a {@link PdfTableCursor}.
+ * The text of the cells can be wrapped in several lines, the rows are then as high as their lines need, see {@link #setTextWrapping(PDFont, float)}.
  * @author paquet
  *
  */
-public class PdfTable implements Iterator<PdfRow> {
+public class PdfTable implements Iterator<PdfRow>, PdfDrawableTable {
+	private static final float LINE_SPACING = 1.2f;
+	private static final float VERTICAL_PADDING = 4;
 	private List<PdfRow> tableRows;
 	private float posX;
 	private float posY;
@@ -24,6 +35,10 @@ public class PdfTable implements Iterator<PdfRow> {
 	private float[] defaultColumns;
 	private float defaultRowHeight;
 	private PdfRow rowEntete;
+	private Iterator<? extends PdfRow> rowSource;
+	private PdfRow pendingRow;
+	private PDFont wrapFont;
+	private float wrapSize;
 	/**
 	 * Create a table with a top left corner at point (posX, posY), with a width and height of 100.
 	 * @param posX	the position from the left of the page. In pixels.
@@ -148,8 +163,105 @@ public class PdfTable implements Iterator<PdfRow> {
 		tableRows.add(newRow);
 	}
 
+	/**
+	 * Read the rows to draw after the rows of the table from a source.
+	 * Each row is taken from the source when it is drawn and is not kept by the table,
+	 * so the memory used depends on the number of rows of a page and not on the size of the table.
+	 * The rows read from the source are not in {@link #getRows()}.
+	 * @param source	the rows to draw, null to remove the source.
+	 */
+	public void setRowSource(Iterator<? extends PdfRow> source){
+		this.rowSource = source;
+	}
+
+	/**
+	 * Read the rows to draw after the rows of the table from a supplier, until it returns null.
+	 * Each row is asked when it is drawn and is not kept by the table.
+	 * @param source	the supplier of the rows, null to remove the source.
+	 * @see #setRowSource(Iterator)
+	 */
+	public void setRowSource(Supplier<? extends PdfRow> source){
+		this.rowSource = source == null ? null : new SupplierIterator(source);
+	}
+
+	/**
+	 * Returns wether the rows are read from a source.
+	 * @return		true if a source of rows is set.
+	 */
+	boolean hasRowSource(){
+		return this.rowSource != null;
+	}
+
+	/**
+	 * Wrap the text of the cells in lines which fit in the width of the cells and let the rows grow to show all their lines.
+	 * The height of a row becomes the minimum height of the row. A row which does not fit on the page anymore
+	 * is drawn on the next page, unless it is the first row of its page.
+	 * The lines are cut at the spaces and at the line feeds, the header is written in Helvetica bold with the same size.
+	 * @param font			the font of the text of the cells, null to write each value on a single line.
+	 * @param fontSize		the size of the font.
+	 */
+	public void setTextWrapping(PDFont font, float fontSize){
+		this.wrapFont = font;
+		this.wrapSize = fontSize;
+	}
+
+	/**
+	 * Returns wether the text of the cells is wrapped.
+	 * @return		true if a font was given to {@link #setTextWrapping(PDFont, float)}.
+	 */
+	public boolean isTextWrapping(){
+		return this.wrapFont != null;
+	}
+
+	/**
+	 * Returns the height the row takes when it is drawn.
+	 * @param row				the row.
+	 * @param fallback			the fallback fonts which measure the characters the font cannot show, null for none.
+	 * @return					the height of the row, higher than its own height when its text is wrapped in more lines. In pixels.
+	 * @throws IOException		when the font cannot be read.
+	 */
+	float getRowHeight(PdfRow row, PdfFontFallback fallback) throws IOException{
+		if(!isTextWrapping())
+			return row.getHeight();
+		return breakRow(row, this.wrapFont, fallback, new ArrayList<List<String>>());
+	}
+
+	/**
+	 * Returns the height the header takes when it is drawn.
+	 * @param fallback			the fallback fonts which measure the characters the font cannot show, null for none.
+	 * @return					the height of the header. In pixels.
+	 * @throws IOException		when the font cannot be read.
+	 */
+	float getEnteteHeight(PdfFontFallback fallback) throws IOException{
+		if(!isTextWrapping())
+			return this.rowEntete.getHeight();
+		return breakRow(this.rowEntete, PDType1Font.HELVETICA_BOLD, fallback, new ArrayList<List<String>>());
+	}
+
+	/**
+	 * Break the values of the cells of the row in lines.
+	 * @param row				the row.
+	 * @param font				the font of the row.
+	 * @param fallback			the fallback fonts, null for none.
+	 * @param lines				receives the lines of each cell.
+	 * @return					the height of the row. In pixels.
+	 * @throws IOException		when the font cannot be read.
+	 */
+	private float breakRow(PdfRow row, PDFont font, PdfFontFallback fallback, List<List<String>> lines) throws IOException{
+		PdfLineBreaker breaker = PdfLineBreaker.getInstance(font);
+		lines.clear();
+		int maxLines = 1;
+		for(PdfCell cell : row.getCells()){
+			List<String> cellLines = breaker.breakLines(cell.getValue(), this.wrapSize, cell.getWidth() - 7, fallback);
+			lines.add(cellLines);
+			maxLines = Math.max(maxLines, cellLines.size());
+		}
+		return Math.max(row.getHeight(), (maxLines - 1) * this.wrapSize * LINE_SPACING + this.wrapSize + 2 * VERTICAL_PADDING);
+	}
+
 	/**
 	 * Returns the number of rows currently in the table.
+	 * The rows which are still in the source are not counted.
 	 * @return		the number of rows of the table.
 	 */
 	public int getNumberOfRows(){
@@ -166,40 +278,181 @@ public class PdfTable implements Iterator<PdfRow> {
 	 * @throws IOException	 when the contents cannot write to the page
 	 */
 	public void drawTable(PdfTools pdft, PDPageContentStream contents, float rupture_page) throws IOException{
-		float origX = this.posX;
-		float origY = this.posY;
-		boolean entete = false;
-		while(this.hasNext()){
-			if(!entete){
-				entete = true;
-				contents.setFont(PDType1Font.HELVETICA_BOLD, pdft.getLastUsedSize());
-				for(PdfCell cell : rowEntete.getCells()){
-					origX = drawBordersAndText(pdft, contents, origX, origY, rowEntete.getHeight(), cell);
-				}
-			origY -= rowEntete.getHeight();
-			origX = this.posX;
-			}			
-			contents.setFont(pdft.getLastUsedFont(), pdft.getLastUsedSize());
-			PdfRow row = this.next();
-			for(PdfCell cell : row.getCells()){
-				origX = drawBordersAndText(pdft, contents, origX, origY, row.getHeight(), cell);				
+		PdfRow left = drawRows(pdft, contents, this, this.posY, rupture_page);
+		if(left != null)
+			pushBack(left);
+	}
+
+	/**
+	 * Give back the last row read, it is read again by the next call to {@link #next()}.
+	 * @param row		the last row read.
+	 */
+	private void pushBack(PdfRow row){
+		currentIndex--;
+		if(currentIndex >= tableRows.size())
+			pendingRow = row;
+	}
+
+	/**
+	 * Draw the header then the rows until the line rupture_page is reached or there is no more row.
+	 * The page is laid out first, then written, see {@link PdfPageLayout}.
+	 * Nothing in the table is changed, so the rows can be drawn by several threads.
+	 * When the text is wrapped, the row which does not fit above the line rupture_page is read but not drawn.
+	 * @param pdft			an instance of PdfTools.
+	 * @param contents		the content where to draw the table.
+	 * @param rows			the rows to draw.
+	 * @param top			the position of the top of the table from the bottom of the page. In pixels.
+	 * @param rupture_page	the line in pixels where to stop drawing.
+	 * @return				the row read which was left for the next page, null if there is none.
+	 * @throws IOException	when the contents cannot write to the page
+	 */
+	PdfRow drawRows(PdfTools pdft, PDPageContentStream contents, Iterator<? extends PdfRow> rows, float top, float rupture_page) throws IOException{
+		PdfPageLayout.Builder page = newPage(pdft.getLastUsedFont(), pdft.getLastUsedSize(), pdft.getFontFallback());
+		PdfRow left = layoutRows(page, rows, top, rupture_page);
+		page.build().emit(pdft, contents);
+		return left;
+	}
+
+	/**
+	 * Start the layout of a page.
+	 * @param font			the font of the rows when the text is not wrapped.
+	 * @param fontSize		the size of the font when the text is not wrapped.
+	 * @param fallback		the fallback fonts which measure the characters the fonts cannot show, null for none.
+	 * @return				the empty page.
+	 */
+	PdfPageLayout.Builder newPage(PDFont font, float fontSize, PdfFontFallback fallback){
+		if(isTextWrapping())
+			return new PdfPageLayout.Builder(PDType1Font.HELVETICA_BOLD, this.wrapFont, this.wrapSize, fallback);
+		return new PdfPageLayout.Builder(PDType1Font.HELVETICA_BOLD, font, fontSize, fallback);
+	}
+
+	/**
+	 * Place the header then the rows on the page until the line rupture_page is reached or there is no more row.
+	 * @param page			the page.
+	 * @param rows			the rows to place.
+	 * @param top			the position of the top of the table from the bottom of the page. In pixels.
+	 * @param rupture_page	the line in pixels where to stop.
+	 * @return				the row read which was left for the next page, null if there is none.
+	 * @throws IOException	when the font cannot be read.
+	 */
+	PdfRow layoutRows(PdfPageLayout.Builder page, Iterator<? extends PdfRow> rows, float top, float rupture_page) throws IOException{
+		float origY = top;
+		List<List<String>> lines = isTextWrapping() ? new ArrayList<List<String>>() : null;
+		while(rows.hasNext()){
+			if(page.getRowCount() == 0){
+				float height = lines == null ? rowEntete.getHeight() : breakRow(rowEntete, page.getFont(PdfPageLayout.HEADER), page.getFallback(), lines);
+				origY = placeRow(page, rowEntete, PdfPageLayout.HEADER, origY, height, lines);
 			}
-			origX = this.posX;
-			origY -= row.getHeight();
+			PdfRow row = rows.next();
+			float height = lines == null ? row.getHeight() : breakRow(row, page.getFont(PdfPageLayout.BODY), page.getFallback(), lines);
+			// a wrapped row is kept whole, unless it is higher than a page
+			if(lines != null && page.getRowCount() > 1 && origY - height < rupture_page)
+				return row;
+			origY = placeRow(page, row, PdfPageLayout.BODY, origY, height, lines);
 			if(origY < rupture_page){
-				break;				
+				break;
 			}
 		}
+		return null;
+	}
+
+	/**
+	 * Place the text of the rows again in the boxes of a page, for the new values of the cells.
+	 * @param layout		the layout of the page.
+	 * @param rows			the rows of the page.
+	 * @param font			the font of the rows when the text is not wrapped.
+	 * @param fontSize		the size of the font when the text is not wrapped.
+	 * @return				the page with the new texts, null if a row does not have the same boxes anymore.
+	 * @throws IOException	when the font cannot be read.
+	 */
+	PdfPageLayout relayoutText(PdfPageLayout layout, Iterator<? extends PdfRow> rows, PDFont font, float fontSize) throws IOException{
+		if(isTextWrapping() ? !layout.usesFont(this.wrapFont, this.wrapSize) : !layout.usesFont(font, fontSize))
+			return null;
+		PdfPageLayout.Builder page = new PdfPageLayout.Builder(layout);
+		List<List<String>> lines = isTextWrapping() ? new ArrayList<List<String>>() : null;
+		for(int r = 0; r <= layout.getRowCount(); r++){
+			if(r > 0 && !rows.hasNext())
+				return null;
+			PdfRow row = r == 0 ? rowEntete : rows.next();
+			int rowFont = r == 0 ? PdfPageLayout.HEADER : PdfPageLayout.BODY;
+			float height = lines == null ? row.getHeight() : breakRow(row, page.getFont(rowFont), page.getFallback(), lines);
+			if(!layout.matches(r, row, this.posX, height))
+				return null;
+			placeRow(page, row, rowFont, layout.getRowTop(r), height, lines);
+		}
+		return page.build();
+	}
+
+	/**
+	 * Place the boxes and the text of the cells of a row.
+	 * The text is centered vertically in the row, on a single line or on the lines of each cell when it is wrapped.
+	 * @param page			the page.
+	 * @param row			the row.
+	 * @param font			the font of the row, header or body.
+	 * @param origY			the position of the top of the row from the bottom of the page. In pixels.
+	 * @param height		the height of the row. In pixels.
+	 * @param lines			the lines of each cell, null when the text is not wrapped.
+	 * @return				the position of the bottom of the row.
+	 * @throws IOException	when the font cannot be read.
+	 */
+	private float placeRow(PdfPageLayout.Builder page, PdfRow row, int font, float origY, float height, List<List<String>> lines) throws IOException{
+		float fontSize = page.getFontSize();
+		// without wrapping, the header is measured with the font of the rows as it always was
+		PdfFontMetrics metrics = PdfFontMetrics.getInstance(page.getFont(lines == null ? PdfPageLayout.BODY : font));
+		PdfFontFallback fallback = page.getFallback();
+		float leading = fontSize * LINE_SPACING;
+		float origX = this.posX;
+		page.startRow(font);
+		for(int c = 0; c < row.getNumberOfCells(); c++){
+			PdfCell cell = row.getCell(c);
+			float width = cell.getWidth();
+			page.addBox(cell.getStyle(), origX, origY, width, height);
+			if(lines == null){
+				placeLine(page, font, metrics, fallback, fontSize, cell.getAlignment(), origX, width, origY - height / 2 - fontSize / 2, cell.getValue());
+			}else{
+				List<String> cellLines = lines.get(c);
+				float posY = origY - height / 2 - fontSize / 2 + (cellLines.size() - 1) * leading / 2;
+				for(String line : cellLines){
+					if(!line.isEmpty())
+						placeLine(page, font, metrics, fallback, fontSize, cell.getAlignment(), origX, width, posY, line);
+					posY -= leading;
+				}
+			}
+			origX += width;
+		}
+		return origY - height;
+	}
+
+	/**
+	 * Place a line of text in a cell: 2 pixels from the left, 5 pixels from the right or in the middle.
+	 * The characters the font cannot show are measured with the fallback fonts, when there are.
+	 */
+	static void placeLine(PdfPageLayout.Builder page, int font, PdfFontMetrics metrics, PdfFontFallback fallback, float fontSize, PdfHorizontalAlignment align, float origX, float width, float posY, String text) throws IOException{
+		float right = origX + width;
+		if(align == PdfHorizontalAlignment.TEXT_CENTER){
+			float textWidth = fallback != null ? fallback.getStringWidth(metrics, fontSize, text) : metrics.getStringWidth(text, fontSize);
+			page.addRun(font, origX + (right - origX - textWidth) / 2f, posY, text);
+		}else if(align == PdfHorizontalAlignment.TEXT_RIGHT){
+			float textWidth = fallback != null ? fallback.getStringWidth(metrics, fontSize, text) : metrics.getStringWidth(text, fontSize);
+			page.addRun(font, right - 5 - textWidth, posY, text);
+		}else{
+			page.addRun(font, origX + 2, posY, text);
+		}
 	}
 
 	@Override
 	public boolean hasNext() {
-		return currentIndex<tableRows.size();
+		return currentIndex<tableRows.size() || pendingRow != null || (rowSource != null && rowSource.hasNext());
 	}
 
 	@Override
 	public PdfRow next() {			
-		return tableRows.get(currentIndex++);							
+		if(currentIndex<tableRows.size() || rowSource == null)
+			return tableRows.get(currentIndex++);
+		PdfRow row = pendingRow != null ? pendingRow : rowSource.next();
+		pendingRow = null;
+		currentIndex++;
+		return row;
 	}
 
 	/**
@@ -250,45 +503,9 @@ public class PdfTable implements Iterator<PdfRow> {
 		return this.rowEntete;
 	}
 	
-	/**
-	 * Draw borders and value of the cells in the pdf at the right place
-	 * @param pdft			an instance of PdfTools.
-	 * @param contents		the contents that represents the page.
-	 * @param origX			the position from the left of the page where to start to draw. In pixels.
-	 * @param origY			the position from the bottom of the page where to start to draw. In pixels.
-	 * @param height		the height of a row.
-	 * @param cell			the cell to be drawn.
-	 * @return				the position where to start the next row.
-	 * @throws IOException	when the contents cannot be written on.
-	 */
-	private float drawBordersAndText(PdfTools pdft, PDPageContentStream contents, float origX, float origY, float height, PdfCell cell) throws IOException{
-		// top border		
-		if(cell.getBorderTop().isShown())
-		pdft.drawLine(contents, origX, origY, origX + cell.getWidth(), origY);
-		// right border
-		if(cell.getBorderRight().isShown())
-		pdft.drawLine(contents, origX + cell.getWidth(), origY, origX + cell.getWidth(), origY - height);
-		// bottom border
-		if(cell.getBorderBottom().isShown())
-		pdft.drawLine(contents, origX + cell.getWidth(), origY - height, origX, origY - height);
-		// left border
-		if(cell.getBorderLeft().isShown())
-		pdft.drawLine(contents, origX, origY - height, origX, origY);
-		// Text if present
-		float stringHeight = pdft.getLastUsedSize();
-		if(cell.getAlignment() == PdfHorizontalAlignment.TEXT_CENTER){
-			pdft.addTextCentered(contents, (origY - height / 2 - stringHeight / 2), origX, (origX + cell.getWidth()), cell.getValue());
-		}else if(cell.getAlignment() == PdfHorizontalAlignment.TEXT_RIGHT){
-			pdft.addTextRightAligned(contents, (origY - height / 2 - stringHeight / 2), origX + cell.getWidth(), cell.getValue() );
-		}else{
-			pdft.addText(contents, origX + 2, (origY - height / 2 - stringHeight / 2), cell.getValue());
-		}
-		origX += cell.getWidth();
-		return origX;
-	}
-	
 	/**
 	 * Show all the borders of all rows of the table.
+	 * The rows of the source are not changed.
 	 */
 	public void showAllBorders(){
 		for(PdfRow row : tableRows){
@@ -298,10 +515,42 @@ public class PdfTable implements Iterator<PdfRow> {
 	
 	/**
 	 * Hide all the borders of all rows of the table.
+	 * The rows of the source are not changed.
 	 */
 	public void hideAllBorders(){
 		for(PdfRow row : tableRows){
 			row.hideAllBorders();
 		}
 	}
-}	
\ No newline at end of file
+
+	/**
+	 * Read a supplier as an iterator, the supplier returns null when there is no more row.
+	 */
+	private static class SupplierIterator implements Iterator<PdfRow> {
+		private final Supplier<? extends PdfRow> supplier;
+		private PdfRow nextRow;
+		private boolean ended;
+
+		SupplierIterator(Supplier<? extends PdfRow> psupplier){
+			this.supplier = psupplier;
+		}
+
+		@Override
+		public boolean hasNext(){
+			if(nextRow == null && !ended){
+				nextRow = supplier.get();
+				ended = nextRow == null;
+			}
+			return nextRow != null;
+		}
+
+		@Override
+		public PdfRow next(){
+			if(!hasNext())
+				throw new NoSuchElementException();
+			PdfRow row = nextRow;
+			nextRow = null;
+			return row;
+		}
+	}
+}
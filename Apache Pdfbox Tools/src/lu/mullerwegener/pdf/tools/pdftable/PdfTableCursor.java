@@ -0,0 +1,87 @@
+package lu.mullerwegener.pdf.tools.pdftable;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+
+import lu.mullerwegener.pdf.tools.PdfTools;
+
+/**
+ * The position reached when drawing a table, kept outside of the table.
+ * A table drawn only through cursors is never changed, so it can be built once and drawn in many documents,
+ * by several threads at the same time, as long as nobody changes it.
+ * @author paquet
+ *
+ */
+public class PdfTableCursor implements PdfDrawableTable, Iterator<PdfRow> {
+	private final PdfTable table;
+	private final List<PdfRow> rows;
+	private float posY;
+	private int currentIndex;
+
+	/**
+	 * Create a cursor on the first row of the table, at the position of the table.
+	 * @param ptable		the table to draw. Its rows cannot come from a source.
+	 */
+	public PdfTableCursor(PdfTable ptable){
+		if(ptable.hasRowSource())
+			throw new IllegalStateException("The rows of a source can be drawn only once");
+		this.table = ptable;
+		this.rows = ptable.getRows();
+		this.posY = ptable.getPosY();
+	}
+
+	@Override
+	public float getPosY(){
+		return this.posY;
+	}
+
+	@Override
+	public void setPosY(float desiredPosY){
+		this.posY = desiredPosY;
+	}
+
+	/**
+	 * Returns the index of the next row to draw.
+	 * @return		the index of the row in the table.
+	 */
+	public int getCurrentIndex(){
+		return this.currentIndex;
+	}
+
+	/**
+	 * Start drawing again from the first row.
+	 */
+	public void rewind(){
+		this.currentIndex = 0;
+	}
+
+	@Override
+	public boolean hasNext(){
+		return currentIndex < rows.size();
+	}
+
+	@Override
+	public PdfRow next(){
+		if(!hasNext())
+			throw new NoSuchElementException();
+		return rows.get(currentIndex++);
+	}
+
+	/**
+	 * Draw the header then the rows from the cursor, as {@link PdfTable#drawTable(PdfTools, PDPageContentStream, float)}.
+	 * Only the cursor moves.
+	 * @param pdft			an instance of PdfTools.
+	 * @param contents		the content where to draw the table.
+	 * @param rupture_page	the line in pixels where to stop drawing.
+	 * @throws IOException	when the contents cannot write to the page
+	 */
+	@Override
+	public void drawTable(PdfTools pdft, PDPageContentStream contents, float rupture_page) throws IOException{
+		if(table.drawRows(pdft, contents, this, this.posY, rupture_page) != null)
+			currentIndex--;
+	}
+}
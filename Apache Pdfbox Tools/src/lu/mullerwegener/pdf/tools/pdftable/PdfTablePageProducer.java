@@ -0,0 +1,125 @@
+package lu.mullerwegener.pdf.tools.pdftable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+
+import lu.mullerwegener.pdf.tools.PdfFontFallback;
+import lu.mullerwegener.pdf.tools.PdfPageProducer;
+import lu.mullerwegener.pdf.tools.PdfParallelRenderer;
+import lu.mullerwegener.pdf.tools.PdfTools;
+
+/**
+ * Split a table in pages which can be drawn by several threads with a {@link PdfParallelRenderer}.
+ * The rows of each page are computed at once, as {@link PdfTable#drawTable(PdfTools, PDPageContentStream, float) drawTable} would break them,
+ * from the first row not drawn yet. The table must not be changed until its pages are drawn, and it is left as it is.
+ * @author paquet
+ *
+ */
+public class PdfTablePageProducer implements PdfPageProducer {
+	private PdfTable table;
+	private float rupturePage;
+	private float continuationPosY;
+	private PdfTablePaginator.PageDecorator decorator;
+	private PdfFontFallback fallback;
+	private int[] breaks;
+
+	/**
+	 * Create the pages of the table which stop at the line rupture_page.
+	 * @param ptable			the table to draw. Its rows cannot come from a source.
+	 * @param rupture_page		the line in pixels from the bottom of the page where the table stops.
+	 */
+	public PdfTablePageProducer(PdfTable ptable, float rupture_page){
+		if(ptable.hasRowSource())
+			throw new IllegalStateException("The rows of a source cannot be split in pages in advance");
+		this.table = ptable;
+		this.rupturePage = rupture_page;
+		this.continuationPosY = Float.NaN;
+	}
+
+	/**
+	 * Set where the table starts on the pages after the first one. By default, at the same place as on the first page.
+	 * @param posY		the position of the top of the table from the bottom of the page. In pixels.
+	 */
+	public void setContinuationPosY(float posY){
+		this.continuationPosY = posY;
+		this.breaks = null;
+	}
+
+	/**
+	 * Set the fallback fonts which measure the characters the fonts of a wrapped table cannot show, when the rows are split in pages.
+	 * They must have the same metrics as the fallback fonts of the PdfTools which draw the pages, see {@link PdfTools#setFallbackFonts(org.apache.pdfbox.pdmodel.font.PDFont...)}.
+	 * @param pfallback		the fallback fonts, as given by {@link PdfTools#getFontFallback()}, null for none.
+	 */
+	public void setFontFallback(PdfFontFallback pfallback){
+		this.fallback = pfallback;
+		this.breaks = null;
+	}
+
+	/**
+	 * Set what is drawn on each page before the table. It may be called by several threads at the same time.
+	 * @param pdecorator	the decorator, null to draw only the table.
+	 */
+	public void setDecorator(PdfTablePaginator.PageDecorator pdecorator){
+		this.decorator = pdecorator;
+	}
+
+	@Override
+	public int getNumberOfPages(){
+		try{
+			return getBreaks().length - 1;
+		}catch(IOException e){
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void drawPage(PdfTools pdft, PDPageContentStream contents, int index, int pageNumber) throws IOException{
+		int[] b = getBreaks();
+		pdft.setFont(contents, pdft.getLastUsedFont(), pdft.getLastUsedSize());
+		if(decorator != null)
+			decorator.decorate(pdft, contents, pageNumber);
+		List<PdfRow> rows = table.getRows().subList(b[index], b[index + 1]);
+		table.drawRows(pdft, contents, rows.iterator(), getTop(index), Float.NEGATIVE_INFINITY);
+	}
+
+	private float getTop(int index){
+		return index > 0 && !Float.isNaN(continuationPosY) ? continuationPosY : table.getPosY();
+	}
+
+	/**
+	 * Compute the index of the first row of each page, as drawTable decreases the position of the rows.
+	 * @return		the first row of each page, followed by the end of the table.
+	 * @throws IOException		when the font of a wrapped table cannot be read.
+	 */
+	private synchronized int[] getBreaks() throws IOException{
+		if(breaks != null)
+			return breaks;
+		List<Integer> starts = new ArrayList<Integer>();
+		List<PdfRow> rows = table.getRows();
+		int i = table.currentIndex;
+		while(i < rows.size()){
+			int first = i;
+			starts.add(i);
+			float origY = getTop(starts.size() - 1);
+			origY -= table.getEnteteHeight(fallback);
+			while(i < rows.size()){
+				float height = table.getRowHeight(rows.get(i), fallback);
+				if(table.isTextWrapping() && i > first && origY - height < rupturePage)
+					break;
+				origY -= height;
+				i++;
+				if(origY < rupturePage)
+					break;
+			}
+		}
+		breaks = new int[starts.size() + 1];
+		for(int p = 0; p < starts.size(); p++)
+			breaks[p] = starts.get(p);
+		breaks[starts.size()] = rows.size();
+		return breaks;
+	}
+}
@@ -0,0 +1,125 @@
+package lu.mullerwegener.pdf.tools.pdftable;
+
+import java.io.IOException;
+
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+
+import lu.mullerwegener.pdf.tools.PdfTools;
+
+/**
+ * Draw a whole table on as many pages as needed.
+ * The pages are added to the document bound to PdfTools, the header of the table is drawn again on each page
+ * and the content of each page can be completed, for example with a header and a footer, by a {@link PageDecorator}.
+ * @author paquet
+ *
+ */
+public class PdfTablePaginator {
+	private PdfTools pdft;
+	private PDRectangle pageSize;
+	private String style;
+	private float rupturePage;
+	private float continuationPosY;
+	private PageDecorator decorator;
+
+	/**
+	 * Create a paginator which adds A4 pages to the document of pdft and stops the table at 60 pixels from the bottom of the page.
+	 * @param ppdft		an instance of PdfTools.
+	 */
+	public PdfTablePaginator(PdfTools ppdft){
+		this.pdft = ppdft;
+		this.pageSize = PDRectangle.A4;
+		this.style = "";
+		this.rupturePage = 60;
+		this.continuationPosY = Float.NaN;
+	}
+
+	/**
+	 * Set the size of the pages added.
+	 * @param size		the size of the pages.
+	 */
+	public void setPageSize(PDRectangle size){
+		this.pageSize = size;
+	}
+
+	/**
+	 * Set the style given to {@link PdfTools#addPage(PDPage, String)}.
+	 * @param pstyle	the style of the pages.
+	 */
+	public void setStyle(String pstyle){
+		this.style = pstyle;
+	}
+
+	/**
+	 * Set the line where the table stops on each page.
+	 * @param rupture_page		the line in pixels from the bottom of the page.
+	 */
+	public void setRupturePage(float rupture_page){
+		this.rupturePage = rupture_page;
+	}
+
+	/**
+	 * Set where the table starts on the pages after the first one. By default, at the same place as on the first page.
+	 * @param posY		the position of the top of the table from the bottom of the page. In pixels.
+	 */
+	public void setContinuationPosY(float posY){
+		this.continuationPosY = posY;
+	}
+
+	/**
+	 * Set what is drawn on each page before the table.
+	 * @param pdecorator	the decorator, null to draw only the table.
+	 */
+	public void setDecorator(PageDecorator pdecorator){
+		this.decorator = pdecorator;
+	}
+
+	/**
+	 * Draw the rows of the table which are not drawn yet, adding a page each time the previous one is full.
+	 * @param table				the table to draw.
+	 * @return					the number of pages added.
+	 * @throws IOException		when a page cannot be written on.
+	 */
+	public int paginate(PdfDrawableTable table) throws IOException{
+		float firstPosY = table.getPosY();
+		int pages = 0;
+		try{
+			while(table.hasNext()){
+				if(pages > 0 && !Float.isNaN(continuationPosY))
+					table.setPosY(continuationPosY);
+				PDPage page = new PDPage(pageSize);
+				pdft.addPage(page, style);
+				pages++;
+				PDPageContentStream contents = pdft.createContentStream(page);
+				try{
+					pdft.setFont(contents, pdft.getLastUsedFont(), pdft.getLastUsedSize());
+					if(decorator != null)
+						decorator.decorate(pdft, contents, pdft.getDocument().getNumberOfPages());
+					table.drawTable(pdft, contents, rupturePage);
+				}finally{
+					contents.close();
+				}
+			}
+		}finally{
+			table.setPosY(firstPosY);
+		}
+		return pages;
+	}
+
+	/**
+	 * What is drawn on each page added by the paginator, before the table.
+	 * @author paquet
+	 *
+	 */
+	public interface PageDecorator {
+		/**
+		 * Draw on the page.
+		 * @param pdft				an instance of PdfTools.
+		 * @param contents			the content of the page.
+		 * @param pageNumber		the number of the page in the document, from 1.
+		 * @throws IOException		when the contents cannot be written on.
+		 */
+		void decorate(PdfTools pdft, PDPageContentStream contents, int pageNumber) throws IOException;
+	}
+}